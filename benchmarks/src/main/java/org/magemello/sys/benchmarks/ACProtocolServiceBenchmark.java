@@ -0,0 +1,135 @@
+package org.magemello.sys.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.magemello.sys.node.protocols.ac.clients.ACProtocolClient;
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+import org.magemello.sys.node.protocols.ac.service.ACProtocolService;
+import org.magemello.sys.node.repository.StorageExecutor;
+import org.magemello.sys.node.service.P2PService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Two-phase commit: the participant side (propose and commit, going
+ * through the write-ahead log on a temporary directory) and a full
+ * coordinator round with every peer agreeing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("rawtypes")
+public class ACProtocolServiceBenchmark {
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private ACProtocolService service;
+
+    @Setup
+    public void setup() throws Exception {
+        List<ClientResponse> responses = Stubs.responses(3, HttpStatus.OK);
+
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < responses.size(); i++) {
+            addresses.add(Stubs.peer(i));
+        }
+        P2PService p2pService = new P2PService();
+        Stubs.inject(p2pService, "peers", addresses);
+        Stubs.inject(p2pService, "replicationFactor", 0);
+
+        service = new ACProtocolService();
+        Stubs.inject(service, "recordStore", new Stubs.MemoryRecordStore());
+        Stubs.inject(service, "storageExecutor", new StorageExecutor(4, 1024, new MetricsRegistry()));
+        Stubs.inject(service, "metricsRegistry", new MetricsRegistry());
+        Stubs.inject(service, "queueMaxWaiting", 16);
+        Stubs.inject(service, "queueWaitTimeout", 1000L);
+        Stubs.inject(service, "p2pService", p2pService);
+        Stubs.inject(service, "acProtocolClient", new ACProtocolClient() {
+            @Override
+            public Mono<List<ClientResponse>> propose(List<Transaction> transactions, List<String> peers) {
+                return Mono.just(responses);
+            }
+
+            @Override
+            public Mono<Boolean> commit(List<String> ids, List<String> peers) {
+                return Mono.just(true);
+            }
+
+            @Override
+            public Mono<Boolean> rollback(List<String> ids, List<ClientResponse> clientResponses) {
+                return Mono.just(true);
+            }
+        });
+        Stubs.inject(service, "walDir", Stubs.tempDir("ac-wal").toString());
+        Stubs.inject(service, "walSegmentSize", 1024 * 1024);
+        Stubs.inject(service, "walRecycledSegments", 2);
+        Stubs.inject(service, "walRecoveredTtl", 30000L);
+        service.init();
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    public Record proposeCommit() {
+        return roundTrip();
+    }
+
+    /**
+     * Concurrent participants share the log fsync.
+     */
+    @Benchmark
+    @Threads(4)
+    public Record proposeCommitContended() {
+        return roundTrip();
+    }
+
+    /**
+     * Concurrent participants on the same key, admitted one at a time.
+     */
+    @Benchmark
+    @Threads(4)
+    public Record proposeCommitHotKey() {
+        return roundTrip("hot");
+    }
+
+    @Benchmark
+    public ResponseEntity set() throws Exception {
+        return service.set("key-" + (sequence.incrementAndGet() & 1023), "value").block();
+    }
+
+    private Record roundTrip() {
+        return roundTrip("key-" + (sequence.incrementAndGet() & 1023));
+    }
+
+    private Record roundTrip(String key) {
+        Transaction transaction = new Transaction(key, "value");
+        service.propose(transaction).block();
+        return service.commit(transaction.get_ID());
+    }
+}
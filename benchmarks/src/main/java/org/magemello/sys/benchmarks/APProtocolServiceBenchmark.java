@@ -0,0 +1,171 @@
+package org.magemello.sys.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+import org.magemello.sys.node.protocols.ap.clients.APProtocolClient;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.protocols.ap.domain.RecordDigest;
+import org.magemello.sys.node.protocols.ap.service.APProtocolService;
+import org.magemello.sys.node.protocols.ap.service.AntiEntropyService;
+import org.magemello.sys.node.repository.StorageExecutor;
+import org.magemello.sys.node.service.P2PService;
+import org.magemello.sys.node.service.ReplicaSelector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Quorum logic of the AP coordinator, digest read (with read repair) and write,
+ * with every peer answering immediately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("rawtypes")
+public class APProtocolServiceBenchmark {
+
+    private static final String KEY = "key";
+
+    @Param({"3", "7"})
+    private int peers;
+
+    /**
+     * Whether one of the peers holds a stale value, triggering a repair.
+     */
+    @Param({"false", "true"})
+    private boolean divergent;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private APProtocolService service;
+
+    @Setup
+    public void setup() {
+        List<String> addresses = new ArrayList<>(peers);
+        List<ResponseEntity<Long>> digests = new ArrayList<>(peers);
+        List<ResponseEntity<APRecord>> reads = new ArrayList<>(peers);
+        for (int i = 0; i < peers; i++) {
+            addresses.add(Stubs.peer(i));
+            String value = divergent && i == 0 ? "stale" : "value";
+            HttpHeaders headers = new HttpHeaders();
+            headers.add(Stubs.PEER_HEADER, Stubs.peer(i));
+            reads.add(new ResponseEntity<>(new APRecord(KEY, value, (long) i), headers, HttpStatus.OK));
+            digests.add(new ResponseEntity<>(RecordDigest.of(KEY, value), headers, HttpStatus.OK));
+        }
+
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        Stubs.MemoryRecordStore recordStore = new Stubs.MemoryRecordStore();
+        recordStore.save(new APRecord(KEY, "value"));
+
+        // every peer acknowledges the commit, so no hint is ever left
+        P2PService p2pService = new P2PService();
+        Stubs.inject(p2pService, "peers", addresses);
+        Stubs.inject(p2pService, "replicationFactor", 0);
+
+        AntiEntropyService antiEntropy = new AntiEntropyService();
+        Stubs.inject(antiEntropy, "depth", 10);
+        Stubs.inject(antiEntropy, "p2pService", p2pService);
+        antiEntropy.init();
+
+        ReplicaSelector replicaSelector = new ReplicaSelector();
+        Stubs.inject(replicaSelector, "alpha", 0.3);
+        Stubs.inject(replicaSelector, "halfLife", 10000L);
+        Stubs.inject(replicaSelector, "defaultSpeculativeDelay", 100L);
+        Stubs.inject(replicaSelector, "minSpeculativeDelay", 5L);
+        Stubs.inject(replicaSelector, "minSamples", 20L);
+        Stubs.inject(replicaSelector, "metricsRegistry", metricsRegistry);
+
+        service = new APProtocolService();
+        Stubs.inject(service, "recordStore", recordStore);
+        Stubs.inject(service, "storageExecutor", new StorageExecutor(4, 1024, metricsRegistry));
+        Stubs.inject(service, "apProtocolClient", new StubClient(digests, reads, Stubs.responses(peers, HttpStatus.OK)));
+        Stubs.inject(service, "metricsRegistry", metricsRegistry);
+        Stubs.inject(service, "p2pService", p2pService);
+        Stubs.inject(service, "antiEntropy", antiEntropy);
+        Stubs.inject(service, "replicaSelector", replicaSelector);
+        Stubs.inject(service, "readQuorum", 2);
+        Stubs.inject(service, "writeQuorum", 1);
+    }
+
+    @Benchmark
+    public ResponseEntity get() {
+        return service.get(KEY).block();
+    }
+
+    @Benchmark
+    public ResponseEntity set() throws Exception {
+        return service.set("key-" + (sequence.incrementAndGet() & 1023), "value").block();
+    }
+
+    private static class StubClient extends APProtocolClient {
+
+        private final List<ResponseEntity<Long>> digests;
+        private final List<ResponseEntity<APRecord>> reads;
+        private final List<ClientResponse> responses;
+
+        StubClient(List<ResponseEntity<Long>> digests, List<ResponseEntity<APRecord>> reads, List<ClientResponse> responses) {
+            this.digests = digests;
+            this.reads = reads;
+            this.responses = responses;
+        }
+
+        @Override
+        public Mono<List<ClientResponse>> propose(List<Transaction> transactions, List<String> peers) {
+            return Mono.just(responses);
+        }
+
+        @Override
+        public Flux<ClientResponse> commit(List<String> ids, List<String> peers) {
+            return Flux.fromIterable(responses);
+        }
+
+        @Override
+        public Mono<Boolean> rollback(List<String> ids, List<ClientResponse> clientResponses) {
+            return Mono.just(true);
+        }
+
+        @Override
+        public Mono<ResponseEntity<Long>> readDigest(String key, String peer) {
+            return Mono.just(digests.get(Stubs.index(peer)));
+        }
+
+        @Override
+        public Mono<ResponseEntity<APRecord>> read(String key, String peer) {
+            return Mono.just(reads.get(Stubs.index(peer)));
+        }
+
+        @Override
+        public Flux<ClientResponse> repair(List<String> peers, APRecord record) {
+            return Flux.empty();
+        }
+
+        @Override
+        public Flux<ClientResponse> repairAll(Map<String, List<APRecord>> recordsByPeer) {
+            return Flux.empty();
+        }
+    }
+}
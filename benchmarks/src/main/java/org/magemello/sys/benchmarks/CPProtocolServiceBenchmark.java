@@ -0,0 +1,95 @@
+package org.magemello.sys.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.magemello.sys.node.protocols.cp.domain.CPRecord;
+import org.magemello.sys.node.protocols.cp.domain.Epoch;
+import org.magemello.sys.node.protocols.cp.domain.Update;
+import org.magemello.sys.node.protocols.cp.service.CPProtocolService;
+import org.magemello.sys.node.protocols.cp.service.ReplicatedLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Follower side of the CP heartbeat: clock update and beat handling, with
+ * the replicated log accepting every entry in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CPProtocolServiceBenchmark {
+
+    @Param({"0", "16"})
+    private int entries;
+
+    private List<CPRecord> data;
+
+    private Epoch leaderClock;
+
+    private Epoch followerClock;
+
+    private Update staleBeat;
+
+    private CPProtocolService service;
+
+    @Setup
+    public void setup() {
+        data = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            data.add(new CPRecord("key-" + i, "value", 1, (long) i + 1));
+        }
+
+        leaderClock = new Epoch(1);
+        followerClock = new Epoch(0);
+        staleBeat = new Update(2, new Epoch(0), 0, 0, 0, data);
+
+        service = new CPProtocolService();
+        Stubs.inject(service, "clock", new Epoch(0));
+        Stubs.inject(service, "metricsRegistry", new MetricsRegistry());
+        Stubs.inject(service, "replicatedLog", new ReplicatedLog() {
+            @Override
+            public synchronized boolean appendEntries(long prevIndex, int prevTerm, List<CPRecord> entries) {
+                return true;
+            }
+
+            @Override
+            public synchronized void commit(long leaderCommit) {
+            }
+        });
+    }
+
+    @Benchmark
+    public boolean epochUpdate() {
+        return followerClock.update(nextBeat());
+    }
+
+    @Benchmark
+    public boolean epochUpdateStale() {
+        return followerClock.update(staleBeat);
+    }
+
+    @Benchmark
+    public boolean handleBeat() {
+        return service.handleBeat(nextBeat());
+    }
+
+    private Update nextBeat() {
+        leaderClock.nextTick();
+        return new Update(2, leaderClock, 0, 1, 0, data);
+    }
+}
@@ -0,0 +1,83 @@
+package org.magemello.sys.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.magemello.sys.node.protocols.ac.domain.ProposalTable;
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Propose + commit round trip on a table already holding some pending
+ * proposals, against the former linear scan over a LinkedHashMap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProposalTableBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int pending;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private ProposalTable table;
+
+    private Map<String, Transaction> scanned;
+
+    @Setup
+    public void setup() {
+        table = new ProposalTable();
+        scanned = new LinkedHashMap<>();
+        for (int i = 0; i < pending; i++) {
+            Transaction transaction = new Transaction("pending-" + i, "value");
+            table.propose(transaction);
+            scanned.put(transaction.get_ID(), transaction);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Transaction table() {
+        return roundTrip();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Transaction tableContended() {
+        return roundTrip();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Transaction linearScan() {
+        Transaction transaction = new Transaction("key-" + sequence.incrementAndGet(), "value");
+        String key = transaction.getKey();
+        if (scanned.values().stream().noneMatch(proposal -> proposal.getKey().equals(key))) {
+            scanned.put(transaction.get_ID(), transaction);
+        }
+        return scanned.remove(transaction.get_ID());
+    }
+
+    private Transaction roundTrip() {
+        Transaction transaction = new Transaction("key-" + sequence.incrementAndGet(), "value");
+        table.propose(transaction);
+        return table.remove(transaction.get_ID());
+    }
+}
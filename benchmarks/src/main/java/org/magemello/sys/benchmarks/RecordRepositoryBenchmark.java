@@ -0,0 +1,133 @@
+package org.magemello.sys.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.repository.RecordRepository;
+import org.magemello.sys.node.repository.RecordWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+/**
+ * Record repository on the same H2 and JPA setup of the node, in memory
+ * so that the disk is out of the picture, against the upsert write path
+ * (alone and with concurrent writers, where group commit kicks in).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordRepositoryBenchmark {
+
+    private static final int KEYS = 1024;
+    private static final int BATCH = 16;
+
+    private ConfigurableApplicationContext context;
+
+    private RecordRepository recordRepository;
+
+    private RecordWriter recordWriter;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(Config.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:benchmarks;DB_CLOSE_DELAY=-1",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=off",
+                        "--logging.level.org.magemello=off");
+        recordRepository = context.getBean(RecordRepository.class);
+        recordWriter = context.getBean(RecordWriter.class);
+
+        List<Record> records = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            records.add(new APRecord(key(i), "value"));
+        }
+        recordRepository.saveAll(records);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Record save() {
+        return recordRepository.save(new APRecord(randomKey(), "value"));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Record saveConcurrent() {
+        return save();
+    }
+
+    @Benchmark
+    public Record upsert() {
+        Record record = new APRecord(randomKey(), "value");
+        recordWriter.write(Collections.singletonList(record));
+        return record;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Record upsertConcurrent() {
+        return upsert();
+    }
+
+    @Benchmark
+    public Optional<Record> findByKey() {
+        return recordRepository.findByKey(randomKey());
+    }
+
+    @Benchmark
+    public List<Record> findByKeyIn() {
+        List<String> keys = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            keys.add(randomKey());
+        }
+        return recordRepository.findByKeyIn(keys);
+    }
+
+    private static String randomKey() {
+        return key(ThreadLocalRandom.current().nextInt(KEYS));
+    }
+
+    private static String key(int i) {
+        return "key-" + i;
+    }
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    @EntityScan("org.magemello.sys.node")
+    @EnableJpaRepositories(basePackageClasses = RecordRepository.class)
+    @Import(RecordWriter.class)
+    static class Config {
+    }
+}
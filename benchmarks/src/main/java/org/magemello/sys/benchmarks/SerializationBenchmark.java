@@ -0,0 +1,111 @@
+package org.magemello.sys.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.magemello.sys.node.codec.BinaryCodec;
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+import org.magemello.sys.node.protocols.cp.domain.CPRecord;
+import org.magemello.sys.node.protocols.cp.domain.Epoch;
+import org.magemello.sys.node.protocols.cp.domain.Update;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JSON encoding of the peer messages, with the same ObjectMapper
+ * configuration Spring uses for the controllers and the WebClient, against
+ * the binary encoding the peers negotiate by default.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"0", "16", "128"})
+    private int entries;
+
+    private ObjectMapper mapper;
+
+    private Transaction transaction;
+    private byte[] transactionJson;
+    private byte[] transactionBinary;
+
+    private Update update;
+    private byte[] updateJson;
+    private byte[] updateBinary;
+
+    @Setup
+    public void setup() throws IOException {
+        mapper = Jackson2ObjectMapperBuilder.json().build();
+
+        transaction = new Transaction("key", "value");
+        transactionJson = mapper.writeValueAsBytes(transaction);
+        transactionBinary = BinaryCodec.encode(transaction);
+
+        List<CPRecord> data = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            data.add(new CPRecord("key-" + i, "value-" + i, 1, (long) i + 1));
+        }
+        update = new Update(3001, new Epoch(1), 0, 0, 0, data);
+        updateJson = mapper.writeValueAsBytes(update);
+        updateBinary = BinaryCodec.encode(update);
+    }
+
+    @Benchmark
+    public byte[] writeTransaction() throws IOException {
+        return mapper.writeValueAsBytes(transaction);
+    }
+
+    @Benchmark
+    public Transaction readTransaction() throws IOException {
+        return mapper.readValue(transactionJson, Transaction.class);
+    }
+
+    @Benchmark
+    public byte[] writeUpdate() throws IOException {
+        return mapper.writeValueAsBytes(update);
+    }
+
+    @Benchmark
+    public Update readUpdate() throws IOException {
+        return mapper.readValue(updateJson, Update.class);
+    }
+
+    @Benchmark
+    public byte[] writeTransactionBinary() {
+        return BinaryCodec.encode(transaction);
+    }
+
+    @Benchmark
+    public Object readTransactionBinary() {
+        return BinaryCodec.decode(ByteBuffer.wrap(transactionBinary));
+    }
+
+    @Benchmark
+    public byte[] writeUpdateBinary() {
+        return BinaryCodec.encode(update);
+    }
+
+    @Benchmark
+    public Object readUpdateBinary() {
+        return BinaryCodec.decode(ByteBuffer.wrap(updateBinary));
+    }
+}
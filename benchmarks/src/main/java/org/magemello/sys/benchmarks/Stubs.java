@@ -0,0 +1,122 @@
+package org.magemello.sys.benchmarks;
+
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.repository.RecordStore;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+/**
+ * Helpers to build the services outside of Spring, with the peers and the
+ * storage replaced by in-memory stubs.
+ */
+final class Stubs {
+
+    static final String PEER_HEADER = "x-sys-ip";
+
+    private Stubs() {
+    }
+
+    /**
+     * Sets a field normally injected by Spring (@Autowired or @Value).
+     */
+    static void inject(Object target, String name, Object value) {
+        Class<?> type = target.getClass();
+        while (type != null) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " in " + target.getClass());
+    }
+
+    static Path tempDir(String prefix) {
+        try {
+            Path dir = Files.createTempDirectory(prefix);
+            dir.toFile().deleteOnExit();
+            return dir;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String peer(int index) {
+        return "127.0.0." + (index + 2) + ":" + (3002 + index);
+    }
+
+    static int index(String peer) {
+        return Integer.parseInt(peer.substring(peer.lastIndexOf(':') + 1)) - 3002;
+    }
+
+    static List<ClientResponse> responses(int peers, HttpStatus status) {
+        List<ClientResponse> responses = new ArrayList<>(peers);
+        for (int i = 0; i < peers; i++) {
+            responses.add(ClientResponse.create(status).header(PEER_HEADER, peer(i)).build());
+        }
+        return responses;
+    }
+
+    static class MemoryRecordStore implements RecordStore {
+
+        private final ConcurrentHashMap<String, Record> records = new ConcurrentHashMap<>();
+
+        @Override
+        public Optional<Record> findByKey(String key) {
+            return Optional.ofNullable(records.get(key));
+        }
+
+        @Override
+        public List<Record> findByKeyIn(Collection<String> keys) {
+            List<Record> result = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                findByKey(key).ifPresent(result::add);
+            }
+            return result;
+        }
+
+        @Override
+        public List<Record> findAll() {
+            return new ArrayList<>(records.values());
+        }
+
+        @Override
+        public <S extends Record> S save(S record) {
+            records.put(record.getKey(), record);
+            return record;
+        }
+
+        @Override
+        public <S extends Record> List<S> saveAll(Iterable<S> records) {
+            List<S> result = new ArrayList<>();
+            for (S record : records) {
+                result.add(save(record));
+            }
+            return result;
+        }
+
+        @Override
+        public void deleteAll() {
+            records.clear();
+        }
+
+        @Override
+        public Long findLastAppliedIndex() {
+            return null;
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package org.magemello.sys.node;
 
+import java.util.List;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.magemello.sys.node.channel.PeerChannelFilter;
+import org.magemello.sys.node.codec.BinaryHttpMessageConverter;
+import org.magemello.sys.node.codec.PeerCodec;
+import org.magemello.sys.node.fault.FaultExchangeFilter;
 import org.magemello.sys.node.repository.RecordRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +20,10 @@ import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.http.client.reactive.WebClientFactory;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.config.EnableWebFlux;
 import org.springframework.web.servlet.HandlerInterceptor;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -48,20 +58,41 @@ public class NodeApplication {
         };
     }
 
+    @Bean(destroyMethod = "dispose")
+    public WebClientFactory peerConnector(@Value("${client.pool.size:16}") Integer poolSize,
+                                          @Value("${client.pool.acquire-timeout:1000}") Long acquireTimeout,
+                                          @Value("${client.pool.idle-timeout:30000}") Long idleTimeout) {
+        return WebClientFactory.newPooledConnector(poolSize, acquireTimeout, idleTimeout);
+    }
+
+    @Bean
+    public WebClient peerWebClient(WebClientFactory peerConnector, FaultExchangeFilter faultExchangeFilter,
+                                   PeerChannelFilter peerChannelFilter) {
+        return WebClientFactory.newWebClient(peerConnector)
+                .mutate()
+                .exchangeStrategies(ExchangeStrategies.builder().codecs(PeerCodec::register).build())
+                .filter(faultExchangeFilter)
+                .filter(peerChannelFilter)
+                .build();
+    }
+
 }
 
 @Configuration
 class WebMvcConfig implements WebMvcConfigurer {
 
-    @Value("${server.delay:0}")
-    private Long serverDelay;
-
     @Value("${server.port}")
     private String serverPort;
 
     @Value("${server.address}")
     private String serverAddress;
 
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // last, so that only a peer explicitly asking for it gets binary
+        converters.add(new BinaryHttpMessageConverter());
+    }
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new HandlerInterceptor() {
@@ -70,10 +101,6 @@ class WebMvcConfig implements WebMvcConfigurer {
             public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
                     throws Exception {
 
-                String pathInfo = request.getRequestURI();
-                if (!pathInfo.startsWith("/demo"))
-                    Thread.sleep(serverDelay);
-
                 if (response.getHeader("x-sys-ip") == null) {
                     response.addHeader("x-sys-ip", serverAddress + ":" + serverPort);
                 }
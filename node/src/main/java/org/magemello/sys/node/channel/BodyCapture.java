@@ -0,0 +1,108 @@
+package org.magemello.sys.node.channel;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.client.ClientRequest;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Request that nothing is sent through: the body inserter of a
+ * WebClient request writes into it, so that the encoded bytes can travel
+ * in a frame instead.
+ */
+class BodyCapture implements ClientHttpRequest {
+
+    private static final DataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+    private final HttpMethod method;
+
+    private final URI uri;
+
+    private final HttpHeaders headers = new HttpHeaders();
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    BodyCapture(ClientRequest request) {
+        this.method = request.method();
+        this.uri = request.url();
+        this.headers.putAll(request.headers());
+    }
+
+    byte[] toByteArray() {
+        return body.toByteArray();
+    }
+
+    @Override
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    @Override
+    public URI getURI() {
+        return uri;
+    }
+
+    @Override
+    public MultiValueMap<String, HttpCookie> getCookies() {
+        return new LinkedMultiValueMap<>();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public DataBufferFactory bufferFactory() {
+        return BUFFER_FACTORY;
+    }
+
+    @Override
+    public void beforeCommit(Supplier<? extends Mono<Void>> action) {
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public Mono<Void> writeWith(Publisher<? extends DataBuffer> buffers) {
+        return Flux.from(buffers).collectList().doOnNext(this::append).then();
+    }
+
+    @Override
+    public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> buffers) {
+        return writeWith(Flux.from(buffers).concatMap(Flux::from));
+    }
+
+    @Override
+    public Mono<Void> setComplete() {
+        return Mono.empty();
+    }
+
+    private void append(List<? extends DataBuffer> buffers) {
+        for (DataBuffer buffer : buffers) {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            body.write(bytes, 0, bytes.length);
+            DataBufferUtils.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.magemello.sys.node.channel;
+
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpMethod.POST;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.magemello.sys.node.protocols.ac.controller.ACProtocolController;
+import org.magemello.sys.node.protocols.ac.domain.Decisions;
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+import org.magemello.sys.node.protocols.ap.controller.APProtocolController;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.protocols.cp.controller.CPProtocolController;
+import org.magemello.sys.node.protocols.cp.domain.Update;
+import org.magemello.sys.node.protocols.cp.domain.VoteRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * The protocol endpoints reachable through the peer channels, bound to the
+ * same controller methods that serve them over HTTP. Batch routes come
+ * before the {id} ones, the first matching route wins.
+ */
+@Component
+@SuppressWarnings("unchecked")
+public class ChannelRoutes {
+
+    @Autowired
+    private PeerChannelServer server;
+
+    @Autowired
+    private ACProtocolController ac;
+
+    @Autowired
+    private APProtocolController ap;
+
+    @Autowired
+    private CPProtocolController cp;
+
+    @PostConstruct
+    public void init() {
+        server.routeAsync(POST, "/ac/propose", (variables, body) -> ac.propose((Transaction) body));
+        server.routeAsync(POST, "/ac/propose/_batch", (variables, body) -> ac.proposeAll((List<Transaction>) body));
+        server.routeAsync(POST, "/ac/decisions", (variables, body) -> ac.decide((Decisions) body));
+        server.route(POST, "/ac/commit/_batch", (variables, body) -> ac.commitAll((List<String>) body));
+        server.route(POST, "/ac/rollback/_batch", (variables, body) -> ac.rollbackAll((List<String>) body));
+        server.route(POST, "/ac/commit/{id}", (variables, body) -> ac.commit(variables.get("id")));
+        server.route(POST, "/ac/rollback/{id}", (variables, body) -> ac.rollback(variables.get("id")));
+
+        server.route(POST, "/ap/propose", (variables, body) -> ap.propose((Transaction) body));
+        server.route(POST, "/ap/propose/_batch", (variables, body) -> ap.proposeAll((List<Transaction>) body));
+        server.route(POST, "/ap/commit/_batch", (variables, body) -> ap.commitAll((List<String>) body));
+        server.route(POST, "/ap/rollback/_batch", (variables, body) -> ap.rollbackAll((List<String>) body));
+        server.route(POST, "/ap/commit/{id}", (variables, body) -> ap.commit(variables.get("id")));
+        server.route(POST, "/ap/rollback/{id}", (variables, body) -> ap.rollback(variables.get("id")));
+        server.route(POST, "/ap/repair", (variables, body) -> ap.repair((APRecord) body));
+        server.route(POST, "/ap/repair/_batch", (variables, body) -> ap.repairAll((List<APRecord>) body));
+        server.route(POST, "/ap/read/_batch", (variables, body) -> ap.readAll((List<String>) body));
+        server.route(GET, "/ap/read/{key}", (variables, body) -> ap.read(variables.get("key")));
+        server.route(GET, "/ap/digest/{key}", (variables, body) -> ap.digest(variables.get("key")));
+        server.route(POST, "/ap/tree/{peer}/hashes", (variables, body) -> ap.treeHashes(variables.get("peer"), (List<Integer>) body));
+        server.route(POST, "/ap/tree/{peer}/leaves", (variables, body) -> ap.treeLeaves(variables.get("peer"), (List<Integer>) body));
+
+        server.route(POST, "/cp/update", (variables, body) -> cp.update((Update) body));
+        server.route(POST, "/cp/voteforme", (variables, body) -> cp.voteforme((VoteRequest) body));
+    }
+}
@@ -0,0 +1,96 @@
+package org.magemello.sys.node.channel;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Unit of a peer channel: a request (method, path and body) or the
+ * response to it, matched by the correlation id.
+ *
+ * On the wire: int length, long id, byte type, then for a request the
+ * method and the path (short length and UTF-8 bytes) and for a response a
+ * short status, and finally the body, encoded with the binary codec.
+ */
+class Frame {
+
+    static final byte REQUEST = 0;
+    static final byte RESPONSE = 1;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    final long id;
+    final byte type;
+    final String method;
+    final String path;
+    final int status;
+    final byte[] body;
+
+    private Frame(long id, byte type, String method, String path, int status, byte[] body) {
+        this.id = id;
+        this.type = type;
+        this.method = method;
+        this.path = path;
+        this.status = status;
+        this.body = body != null ? body : EMPTY;
+    }
+
+    static Frame request(long id, String method, String path, byte[] body) {
+        return new Frame(id, REQUEST, method, path, 0, body);
+    }
+
+    static Frame response(long id, int status, byte[] body) {
+        return new Frame(id, RESPONSE, null, null, status, body);
+    }
+
+    ByteBuf encode(ByteBufAllocator allocator) {
+        byte[] methodBytes = type == REQUEST ? method.getBytes(StandardCharsets.UTF_8) : EMPTY;
+        byte[] pathBytes = type == REQUEST ? path.getBytes(StandardCharsets.UTF_8) : EMPTY;
+        int length = 8 + 1 + (type == REQUEST ? 4 + methodBytes.length + pathBytes.length : 2) + body.length;
+
+        ByteBuf buffer = allocator.buffer(4 + length);
+        buffer.writeInt(length);
+        buffer.writeLong(id);
+        buffer.writeByte(type);
+        if (type == REQUEST) {
+            buffer.writeShort(methodBytes.length);
+            buffer.writeBytes(methodBytes);
+            buffer.writeShort(pathBytes.length);
+            buffer.writeBytes(pathBytes);
+        } else {
+            buffer.writeShort(status);
+        }
+        buffer.writeBytes(body);
+        return buffer;
+    }
+
+    /**
+     * @param buffer a whole frame, without the length prefix
+     */
+    static Frame decode(ByteBuf buffer) {
+        long id = buffer.readLong();
+        byte type = buffer.readByte();
+        if (type == REQUEST) {
+            String method = readString(buffer);
+            String path = readString(buffer);
+            return request(id, method, path, readBody(buffer));
+        } else {
+            int status = buffer.readUnsignedShort();
+            return response(id, status, readBody(buffer));
+        }
+    }
+
+    private static String readString(ByteBuf buffer) {
+        int length = buffer.readUnsignedShort();
+        String value = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+        buffer.skipBytes(length);
+        return value;
+    }
+
+    private static byte[] readBody(ByteBuf buffer) {
+        byte[] body = new byte[buffer.readableBytes()];
+        buffer.readBytes(body);
+        return body;
+    }
+}
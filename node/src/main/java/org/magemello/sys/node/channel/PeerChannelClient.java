@@ -0,0 +1,226 @@
+package org.magemello.sys.node.channel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.AttributeKey;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Connecting side of the peer channels: one long-lived TCP connection per
+ * peer, opened on first use and reopened after it drops, carrying any
+ * number of concurrent requests told apart by their correlation id.
+ * The requests pending on a connection fail when it closes; those sent
+ * after a reconnect belong to the new one.
+ *
+ * A connection buffers at most peer.channel.max-buffered bytes not yet
+ * written to the socket: past that a request fails at once rather than
+ * queue behind a slow peer.
+ *
+ * Like the WebClient connector, the connections are bound to
+ * server.address, so the freeze scripts cut them as well.
+ */
+@Component
+public class PeerChannelClient {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerChannelClient.class);
+
+    private static final AttributeKey<Map<Long, MonoSink<Frame>>> PENDING = AttributeKey.valueOf("sysPending");
+
+    @Value("${peer.transport:channel}")
+    private String transport;
+
+    @Value("${server.address}")
+    private String serverAddress;
+
+    @Value("${peer.channel.port-offset:1000}")
+    private Integer portOffset;
+
+    @Value("${peer.channel.max-frame:16777216}")
+    private Integer maxFrame;
+
+    @Value("${peer.channel.max-buffered:1048576}")
+    private Integer maxBuffered;
+
+    @Value("${client.timeout:3000}")
+    private Integer connectTimeout;
+
+    private final Map<String, PeerChannel> channels = new ConcurrentHashMap<>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private EventLoopGroup group;
+
+    private Bootstrap bootstrap;
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        ResponseHandler responseHandler = new ResponseHandler();
+        group = new NioEventLoopGroup();
+        bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .localAddress(new InetSocketAddress(serverAddress, 0))
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(maxBuffered / 2, maxBuffered))
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline()
+                                .addLast(new FlushConsolidationHandler(256, true))
+                                .addLast(new LengthFieldBasedFrameDecoder(maxFrame, 0, 4, 0, 4))
+                                .addLast(responseHandler);
+                    }
+                });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (group != null) {
+            group.shutdownGracefully();
+        }
+    }
+
+    public boolean isEnabled() {
+        return "channel".equals(transport);
+    }
+
+    /**
+     * Sends a request to the peer (its HTTP address, as in the peers
+     * property); the response frame is emitted when it arrives. Cancelling
+     * forgets the request.
+     */
+    Mono<Frame> exchange(String peer, String method, String path, byte[] body) {
+        PeerChannel peerChannel = peerChannel(peer);
+        return Mono.create(sink -> peerChannel.send(Frame.request(ids.incrementAndGet(), method, path, body), sink));
+    }
+
+    private PeerChannel peerChannel(String peer) {
+        PeerChannel peerChannel = channels.get(peer);
+        if (peerChannel == null) {
+            channels.putIfAbsent(peer, new PeerChannel(peer));
+            peerChannel = channels.get(peer);
+        }
+        return peerChannel;
+    }
+
+    private class PeerChannel {
+        final InetSocketAddress address;
+        private ChannelFuture connection;
+
+        PeerChannel(String peer) {
+            int colon = peer.lastIndexOf(':');
+            this.address = new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)) + portOffset);
+        }
+
+        synchronized ChannelFuture connection() {
+            if (connection == null || connection.isDone() && !connection.channel().isActive()) {
+                Map<Long, MonoSink<Frame>> pending = new ConcurrentHashMap<>();
+                connection = bootstrap.connect(address);
+                connection.channel().attr(PENDING).set(pending);
+                connection.channel().closeFuture().addListener(closed -> failAll(pending, new IOException("Peer channel to " + address + " closed")));
+                log.debug("\nOpening peer channel to {}", address);
+            }
+            return connection;
+        }
+
+        /**
+         * The request is pending on the connection it goes out on, a
+         * request written on a closed one fails like the write.
+         */
+        void send(Frame frame, MonoSink<Frame> sink) {
+            ChannelFuture connection = connection();
+            Map<Long, MonoSink<Frame>> pending = connection.channel().attr(PENDING).get();
+            pending.put(frame.id, sink);
+            sink.onDispose(() -> pending.remove(frame.id));
+
+            connection.addListener((ChannelFutureListener) connected -> {
+                if (!connected.isSuccess()) {
+                    fail(pending, frame.id, connected.cause());
+                    return;
+                }
+                Channel channel = connected.channel();
+                if (!channel.isWritable()) {
+                    fail(pending, frame.id, new IOException("Peer channel to " + address + " not writable, "
+                            + channel.bytesBeforeWritable() + " bytes to drain first"));
+                    return;
+                }
+                channel.writeAndFlush(frame.encode(channel.alloc())).addListener((ChannelFutureListener) written -> {
+                    if (!written.isSuccess()) {
+                        fail(pending, frame.id, written.cause());
+                    }
+                });
+            });
+        }
+    }
+
+    private static void fail(Map<Long, MonoSink<Frame>> pending, long id, Throwable cause) {
+        MonoSink<Frame> sink = pending.remove(id);
+        if (sink != null) {
+            sink.error(cause);
+        }
+    }
+
+    private static void failAll(Map<Long, MonoSink<Frame>> pending, Throwable cause) {
+        for (Long id : pending.keySet()) {
+            fail(pending, id, cause);
+        }
+    }
+
+    @Sharable
+    private static class ResponseHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf buffer) {
+            Map<Long, MonoSink<Frame>> pending = ctx.channel().attr(PENDING).get();
+            if (pending != null) {
+                Frame frame = Frame.decode(buffer);
+                MonoSink<Frame> sink = pending.remove(frame.id);
+                if (sink != null) {
+                    sink.success(frame);
+                }
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.info("\nPeer channel to {} closed: {}", ctx.channel().remoteAddress(), cause.getMessage());
+            ctx.close();
+        }
+    }
+}
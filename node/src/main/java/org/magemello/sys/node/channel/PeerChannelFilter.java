@@ -0,0 +1,80 @@
+package org.magemello.sys.node.channel;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.magemello.sys.node.codec.BinaryCodec;
+import org.magemello.sys.node.codec.PeerCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Moves the protocol calls of the peer WebClient onto the peer channels
+ * when peer.transport is channel. A protocol call is one that accepts the
+ * binary encoding; anything else (like the reads forwarded to the CP
+ * leader, whose body goes back to the user) still goes over HTTP.
+ *
+ * The protocol clients do not notice: they still get a ClientResponse,
+ * with the status, the body and the x-sys-ip header of the peer.
+ */
+@Component
+public class PeerChannelFilter implements ExchangeFilterFunction {
+
+    private static final DataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+    @Autowired
+    private PeerChannelClient peerChannelClient;
+
+    private final ExchangeStrategies strategies = ExchangeStrategies.builder().codecs(PeerCodec::register).build();
+
+    private final BodyInserter.Context context = new BodyInserter.Context() {
+        @Override
+        public List<HttpMessageWriter<?>> messageWriters() {
+            return strategies.messageWriters();
+        }
+
+        @Override
+        public Optional<ServerHttpRequest> serverRequest() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Map<String, Object> hints() {
+            return Collections.emptyMap();
+        }
+    };
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        if (!peerChannelClient.isEnabled() || !request.headers().getAccept().contains(BinaryCodec.MEDIA_TYPE)) {
+            return next.exchange(request);
+        }
+
+        String peer = request.url().getHost() + ":" + request.url().getPort();
+        BodyCapture capture = new BodyCapture(request);
+        return request.body().insert(capture, context)
+                .then(Mono.defer(() -> peerChannelClient.exchange(peer, request.method().name(), request.url().getRawPath(), capture.toByteArray())))
+                .map(frame -> ClientResponse.create(HttpStatus.valueOf(frame.status), strategies)
+                        .header("x-sys-ip", peer)
+                        .header(HttpHeaders.CONTENT_TYPE, BinaryCodec.MEDIA_TYPE.toString())
+                        .body(Flux.just(BUFFER_FACTORY.wrap(frame.body)))
+                        .build());
+    }
+}
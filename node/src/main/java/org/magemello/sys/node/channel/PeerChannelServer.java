@@ -0,0 +1,269 @@
+package org.magemello.sys.node.channel;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.magemello.sys.node.codec.BinaryCodec;
+import org.magemello.sys.node.fault.FaultInjector;
+import org.magemello.sys.node.fault.FaultRule;
+import org.magemello.sys.node.fault.FaultRule.Direction;
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import reactor.core.publisher.Mono;
+
+/**
+ * Accepting side of the peer channels: a TCP port (the HTTP port plus
+ * peer.channel.port-offset) where the peers keep one long-lived connection
+ * each and send their protocol requests as frames.
+ *
+ * Requests are dispatched to the routes registered by {@link ChannelRoutes}
+ * on a worker pool, never on the event loop, and answered in whatever
+ * order they complete; an async route answers when its Mono does. The fault rules apply as on HTTP: a delayed
+ * request is scheduled on the event loop timer, a dropped one is ignored.
+ *
+ * The pool queues at most peer.channel.queue-size requests, the others
+ * are answered 503 at once (counted in peer_channel_rejected), as are the
+ * storage calls refused by the StorageExecutor.
+ */
+@Component
+public class PeerChannelServer {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerChannelServer.class);
+
+    @Value("${peer.transport:channel}")
+    private String transport;
+
+    @Value("${server.address}")
+    private String serverAddress;
+
+    @Value("${server.port}")
+    private Integer serverPort;
+
+    @Value("${peer.channel.port-offset:1000}")
+    private Integer portOffset;
+
+    @Value("${peer.channel.workers:16}")
+    private Integer workers;
+
+    @Value("${peer.channel.queue-size:1024}")
+    private Integer queueSize;
+
+    @Value("${peer.channel.max-frame:16777216}")
+    private Integer maxFrame;
+
+    @Autowired
+    private FaultInjector faultInjector;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    private final List<Route> routes = new CopyOnWriteArrayList<>();
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+
+    private EventLoopGroup bossGroup;
+
+    private EventLoopGroup workerGroup;
+
+    private ThreadPoolExecutor executor;
+
+    private LongAdder rejected;
+
+    public interface Handler {
+        ResponseEntity<?> handle(Map<String, String> variables, Object body);
+    }
+
+    public interface AsyncHandler {
+        Mono<? extends ResponseEntity<?>> handle(Map<String, String> variables, Object body);
+    }
+
+    public void route(HttpMethod method, String pattern, Handler handler) {
+        routeAsync(method, pattern, (variables, body) -> Mono.just(handler.handle(variables, body)));
+    }
+
+    public void routeAsync(HttpMethod method, String pattern, AsyncHandler handler) {
+        routes.add(new Route(method.name(), pattern, handler));
+    }
+
+    /**
+     * @return the routes as "METHOD pattern", in the order they are matched
+     */
+    List<String> getRoutes() {
+        List<String> patterns = new ArrayList<>();
+        for (Route route : routes) {
+            patterns.add(route.method + " " + route.pattern);
+        }
+        return patterns;
+    }
+
+    @PostConstruct
+    public void start() throws InterruptedException {
+        if (!"channel".equals(transport)) {
+            return;
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        rejected = metricsRegistry.counter("peer_channel_rejected");
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "peer-channel-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Peer channel queue full (" + queueSize + " requests)");
+                });
+        metricsRegistry.gauge("peer_channel_queue_depth", () -> executor.getQueue().size());
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+
+        RequestHandler requestHandler = new RequestHandler();
+        new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline()
+                                .addLast(new FlushConsolidationHandler(256, true))
+                                .addLast(new LengthFieldBasedFrameDecoder(maxFrame, 0, 4, 0, 4))
+                                .addLast(requestHandler);
+                    }
+                })
+                .bind(serverAddress, serverPort + portOffset)
+                .sync();
+
+        log.info("\nPeer channel listening on {}:{}", serverAddress, serverPort + portOffset);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+            executor.shutdownNow();
+        }
+    }
+
+    private Mono<Frame> dispatch(Frame request) {
+        try {
+            for (Route route : routes) {
+                if (route.method.equals(request.method) && matcher.match(route.pattern, request.path)) {
+                    Map<String, String> variables = matcher.extractUriTemplateVariables(route.pattern, request.path);
+                    Object body = request.body.length > 0 ? BinaryCodec.decode(ByteBuffer.wrap(request.body)) : null;
+                    return route.handler.handle(variables, body)
+                            .map(entity -> response(request.id, entity))
+                            .onErrorResume(e -> Mono.just(failed(request, e)));
+                }
+            }
+            return Mono.just(Frame.response(request.id, HttpStatus.NOT_FOUND.value(), null));
+        } catch (Exception e) {
+            return Mono.just(failed(request, e));
+        }
+    }
+
+    private static Frame failed(Frame request, Throwable e) {
+        if (e instanceof RejectedExecutionException) {
+            log.info("\nPeer request {} {} refused: {}", request.method, request.path, e.getMessage());
+            return Frame.response(request.id, HttpStatus.SERVICE_UNAVAILABLE.value(), null);
+        }
+        if (e instanceof IllegalArgumentException || e instanceof ClassCastException) {
+            log.info("\nBad peer request {} {}: {}", request.method, request.path, e.getMessage());
+            return Frame.response(request.id, HttpStatus.BAD_REQUEST.value(), null);
+        }
+        log.info("\nPeer request {} {} failed: {}", request.method, request.path, e.toString());
+        return Frame.response(request.id, HttpStatus.INTERNAL_SERVER_ERROR.value(), null);
+    }
+
+    /**
+     * Text bodies are for humans, a peer only needs the status.
+     */
+    private static Frame response(long id, ResponseEntity<?> entity) {
+        Object body = entity.getBody();
+        byte[] bytes = body == null || body instanceof String ? null : BinaryCodec.encode(body);
+        return Frame.response(id, entity.getStatusCodeValue(), bytes);
+    }
+
+    @Sharable
+    private class RequestHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf buffer) {
+            Frame request = Frame.decode(buffer);
+            Runnable task = () -> dispatch(request).subscribe(response -> ctx.writeAndFlush(response.encode(ctx.alloc())));
+
+            String peer = ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress().getHostAddress();
+            FaultRule rule = faultInjector.match(Direction.IN, peer, request.path);
+            if (rule == null) {
+                execute(ctx, request, task);
+            } else if (!faultInjector.drops(rule)) {
+                ctx.executor().schedule(() -> execute(ctx, request, task), faultInjector.delay(rule), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void execute(ChannelHandlerContext ctx, Frame request, Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                ctx.writeAndFlush(failed(request, e).encode(ctx.alloc()));
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.info("\nPeer channel from {} closed: {}", ctx.channel().remoteAddress(), cause.getMessage());
+            ctx.close();
+        }
+    }
+
+    private static class Route {
+        final String method;
+        final String pattern;
+        final AsyncHandler handler;
+
+        Route(String method, String pattern, AsyncHandler handler) {
+            this.method = method;
+            this.pattern = pattern;
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package org.magemello.sys.node.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.magemello.sys.node.protocols.ac.domain.Decisions;
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.protocols.cp.domain.CPRecord;
+import org.magemello.sys.node.protocols.cp.domain.Update;
+import org.magemello.sys.node.protocols.cp.domain.VoteRequest;
+import org.springframework.http.MediaType;
+
+/**
+ * Compact binary encoding of the messages exchanged by the peers, used
+ * instead of JSON when both sides agree on {@link #MEDIA_TYPE}.
+ *
+ * A message is a version byte followed by one tagged value. Numbers are
+ * zigzag varints, strings are a varint length (0 for null, n+1 otherwise)
+ * followed by UTF-8 bytes, and every message class starts with a bitmask of
+ * its non-null numeric fields. Lists are tagged per element, so a list of
+ * any supported type needs no type information to be decoded.
+ */
+public final class BinaryCodec {
+
+    public static final MediaType MEDIA_TYPE = new MediaType("application", "x-sysdist-binary");
+
+    public static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte TRANSACTION = 1;
+    private static final byte AP_RECORD = 2;
+    private static final byte CP_RECORD = 3;
+    private static final byte UPDATE = 4;
+    private static final byte VOTE_REQUEST = 5;
+    private static final byte LONG = 6;
+    private static final byte INTEGER = 7;
+    private static final byte STRING = 8;
+    private static final byte LIST = 9;
+    private static final byte DECISIONS = 10;
+
+    private static final List<Class<?>> SUPPORTED = Arrays.asList(
+            Transaction.class, APRecord.class, CPRecord.class, Update.class, VoteRequest.class,
+            Decisions.class, Long.class, Integer.class, String.class, List.class);
+
+    private BinaryCodec() {
+    }
+
+    public static boolean supports(Class<?> clazz) {
+        for (Class<?> supported : SUPPORTED) {
+            if (supported.isAssignableFrom(clazz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static byte[] encode(Object value) {
+        Writer writer = new Writer();
+        writer.writeByte(VERSION);
+        writeValue(writer, value);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the message has an unknown
+     * version or is malformed
+     */
+    public static Object decode(ByteBuffer buffer) {
+        try {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported binary message version " + version);
+            }
+            return readValue(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated binary message", e);
+        }
+    }
+
+    private static void writeValue(Writer writer, Object value) {
+        if (value == null) {
+            writer.writeByte(NULL);
+        } else if (value instanceof Transaction) {
+            writer.writeByte(TRANSACTION);
+            writeTransaction(writer, (Transaction) value);
+        } else if (value instanceof APRecord) {
+            writer.writeByte(AP_RECORD);
+            writeAPRecord(writer, (APRecord) value);
+        } else if (value instanceof CPRecord) {
+            writer.writeByte(CP_RECORD);
+            writeCPRecord(writer, (CPRecord) value);
+        } else if (value instanceof Update) {
+            writer.writeByte(UPDATE);
+            writeUpdate(writer, (Update) value);
+        } else if (value instanceof VoteRequest) {
+            writer.writeByte(VOTE_REQUEST);
+            VoteRequest vote = (VoteRequest) value;
+            writer.writeMask(vote.getPort(), vote.getTerm(), vote.getLastLogIndex(), vote.getLastLogTerm());
+            writer.writeNumber(vote.getPort());
+            writer.writeNumber(vote.getTerm());
+            writer.writeNumber(vote.getLastLogIndex());
+            writer.writeNumber(vote.getLastLogTerm());
+        } else if (value instanceof Decisions) {
+            writer.writeByte(DECISIONS);
+            Decisions decisions = (Decisions) value;
+            writeValue(writer, decisions.getCommit());
+            writeValue(writer, decisions.getRollback());
+            writeValue(writer, decisions.getPropose());
+        } else if (value instanceof Long) {
+            writer.writeByte(LONG);
+            writer.writeVarLong((Long) value);
+        } else if (value instanceof Integer) {
+            writer.writeByte(INTEGER);
+            writer.writeVarLong((Integer) value);
+        } else if (value instanceof String) {
+            writer.writeByte(STRING);
+            writer.writeString((String) value);
+        } else if (value instanceof List) {
+            writer.writeByte(LIST);
+            List<?> list = (List<?>) value;
+            writer.writeVarLong(list.size());
+            for (Object element : list) {
+                writeValue(writer, element);
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot encode " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRANSACTION:
+                return readTransaction(buffer);
+            case AP_RECORD:
+                return readAPRecord(buffer);
+            case CP_RECORD:
+                return readCPRecord(buffer);
+            case UPDATE:
+                return readUpdate(buffer);
+            case VOTE_REQUEST: {
+                int mask = buffer.get();
+                return new VoteRequest(readInteger(buffer, mask, 0), readInteger(buffer, mask, 1),
+                        readLong(buffer, mask, 2), readInteger(buffer, mask, 3));
+            }
+            case DECISIONS:
+                return readDecisions(buffer);
+            case LONG:
+                return readVarLong(buffer);
+            case INTEGER:
+                return (int) readVarLong(buffer);
+            case STRING:
+                return readString(buffer);
+            case LIST: {
+                int size = checkedSize(buffer);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer));
+                }
+                return list;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown binary message tag " + tag);
+        }
+    }
+
+    private static void writeTransaction(Writer writer, Transaction transaction) {
+        writer.writeString(transaction.get_ID());
+        writer.writeString(transaction.getKey());
+        writer.writeString(transaction.getValue());
+    }
+
+    private static Transaction readTransaction(ByteBuffer buffer) {
+        return new Transaction(readString(buffer), readString(buffer), readString(buffer));
+    }
+
+    private static Decisions readDecisions(ByteBuffer buffer) {
+        return new Decisions(readList(buffer, String.class), readList(buffer, String.class), readList(buffer, Transaction.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> readList(ByteBuffer buffer, Class<T> type) {
+        Object value = readValue(buffer);
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Expected a list in binary message, got " + value.getClass().getName());
+        }
+        for (Object element : (List<?>) value) {
+            if (!type.isInstance(element)) {
+                throw new IllegalArgumentException("Expected a list of " + type.getSimpleName() + " in binary message");
+            }
+        }
+        return (List<T>) value;
+    }
+
+    private static void writeAPRecord(Writer writer, APRecord record) {
+        writer.writeMask(record.getTimestamp());
+        writer.writeString(record.getKey());
+        writer.writeString(record.getVal());
+        writer.writeNumber(record.getTimestamp());
+    }
+
+    private static APRecord readAPRecord(ByteBuffer buffer) {
+        int mask = buffer.get();
+        return new APRecord(readString(buffer), readString(buffer), readLong(buffer, mask, 0));
+    }
+
+    private static void writeCPRecord(Writer writer, CPRecord record) {
+        writer.writeMask(record.getTerm(), record.getLogIndex());
+        writer.writeString(record.getKey());
+        writer.writeString(record.getVal());
+        writer.writeNumber(record.getTerm());
+        writer.writeNumber(record.getLogIndex());
+    }
+
+    private static CPRecord readCPRecord(ByteBuffer buffer) {
+        int mask = buffer.get();
+        return new CPRecord(readString(buffer), readString(buffer), readInteger(buffer, mask, 0), readLong(buffer, mask, 1));
+    }
+
+    private static void writeUpdate(Writer writer, Update update) {
+        writer.writeMask(update.from, update.term, update.tick, update.prevLogIndex, update.prevLogTerm, update.commitIndex, update.data);
+        writer.writeNumber(update.from);
+        writer.writeNumber(update.term);
+        writer.writeNumber(update.tick);
+        writer.writeNumber(update.prevLogIndex);
+        writer.writeNumber(update.prevLogTerm);
+        writer.writeNumber(update.commitIndex);
+        if (update.data != null) {
+            writer.writeVarLong(update.data.size());
+            for (CPRecord record : update.data) {
+                writeCPRecord(writer, record);
+            }
+        }
+    }
+
+    private static Update readUpdate(ByteBuffer buffer) {
+        int mask = buffer.get();
+        Integer from = readInteger(buffer, mask, 0);
+        Integer term = readInteger(buffer, mask, 1);
+        Integer tick = readInteger(buffer, mask, 2);
+        Long prevLogIndex = readLong(buffer, mask, 3);
+        Integer prevLogTerm = readInteger(buffer, mask, 4);
+        Long commitIndex = readLong(buffer, mask, 5);
+
+        List<CPRecord> data = null;
+        if ((mask & (1 << 6)) != 0) {
+            int size = checkedSize(buffer);
+            data = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                data.add(readCPRecord(buffer));
+            }
+        }
+        return new Update(from, term, tick, prevLogIndex, prevLogTerm, commitIndex, data);
+    }
+
+    private static Integer readInteger(ByteBuffer buffer, int mask, int field) {
+        return (mask & (1 << field)) != 0 ? (int) readVarLong(buffer) : null;
+    }
+
+    private static Long readLong(ByteBuffer buffer, int mask, int field) {
+        return (mask & (1 << field)) != 0 ? readVarLong(buffer) : null;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = checkedSize(buffer);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A size can never exceed the bytes left, so a corrupted one is caught
+     * before allocating for it.
+     */
+    private static int checkedSize(ByteBuffer buffer) {
+        long size = readVarLong(buffer);
+        if (size < 0 || size > buffer.remaining() + 1) {
+            throw new IllegalArgumentException("Invalid size " + size + " in binary message");
+        }
+        return (int) size;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long raw = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            raw |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (raw >>> 1) ^ -(raw & 1);
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in binary message");
+    }
+
+    private static class Writer {
+        private byte[] bytes = new byte[64];
+        private int size;
+
+        void writeByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            long raw = (value << 1) ^ (value >> 63);
+            while ((raw & ~0x7fL) != 0) {
+                bytes[size++] = (byte) ((raw & 0x7f) | 0x80);
+                raw >>>= 7;
+            }
+            bytes[size++] = (byte) raw;
+        }
+
+        void writeNumber(Number value) {
+            if (value != null) {
+                writeVarLong(value.longValue());
+            }
+        }
+
+        void writeMask(Object... fields) {
+            int mask = 0;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] != null) {
+                    mask |= 1 << i;
+                }
+            }
+            writeByte(mask);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.magemello.sys.node.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.util.MimeType;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Client side of the binary peer encoding, for the response bodies. A list
+ * decoded as a Flux is emitted element by element, as Jackson does for a
+ * JSON array.
+ */
+public class BinaryDecoder implements Decoder<Object> {
+
+    @Override
+    public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+        return mimeType != null && BinaryCodec.MEDIA_TYPE.isCompatibleWith(mimeType)
+                && BinaryCodec.supports(elementType.resolve(Object.class));
+    }
+
+    @Override
+    public Flux<Object> decode(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+                               MimeType mimeType, Map<String, Object> hints) {
+        return decodeToMono(inputStream, elementType, mimeType, hints).flatMapMany(value ->
+                value instanceof List && !List.class.isAssignableFrom(elementType.resolve(Object.class))
+                        ? Flux.fromIterable((List<?>) value)
+                        : Flux.just(value));
+    }
+
+    @Override
+    public Mono<Object> decodeToMono(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+                                     MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).collectList().flatMap(buffers -> {
+            int size = 0;
+            for (DataBuffer buffer : buffers) {
+                size += buffer.readableByteCount();
+            }
+            if (size == 0) {
+                buffers.forEach(DataBufferUtils::release);
+                return Mono.empty();
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(size);
+            for (DataBuffer buffer : buffers) {
+                body.put(buffer.asByteBuffer());
+                DataBufferUtils.release(buffer);
+            }
+            body.flip();
+
+            try {
+                return Mono.justOrEmpty(BinaryCodec.decode(body));
+            } catch (IllegalArgumentException e) {
+                return Mono.error(new DecodingException(e.getMessage(), e));
+            }
+        });
+    }
+
+    @Override
+    public List<MimeType> getDecodableMimeTypes() {
+        return Collections.singletonList(BinaryCodec.MEDIA_TYPE);
+    }
+}
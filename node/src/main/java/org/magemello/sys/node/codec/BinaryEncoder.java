@@ -0,0 +1,39 @@
+package org.magemello.sys.node.codec;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.util.MimeType;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Client side of the binary peer encoding, for the request bodies. It only
+ * applies when the request content type was explicitly set to
+ * {@link BinaryCodec#MEDIA_TYPE}.
+ */
+public class BinaryEncoder implements Encoder<Object> {
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return mimeType != null && BinaryCodec.MEDIA_TYPE.isCompatibleWith(mimeType)
+                && BinaryCodec.supports(elementType.resolve(Object.class));
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                   ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(value -> bufferFactory.wrap(BinaryCodec.encode(value)));
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes() {
+        return Collections.singletonList(BinaryCodec.MEDIA_TYPE);
+    }
+}
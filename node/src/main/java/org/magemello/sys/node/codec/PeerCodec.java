@@ -0,0 +1,48 @@
+package org.magemello.sys.node.codec;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ClientCodecConfigurer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Media types used by the protocol clients, selected with the peer.codec
+ * property: binary (the default) or json. The clients accept JSON answers
+ * in any case, so a peer may always fall back to it.
+ */
+@Component
+public class PeerCodec {
+
+    @Value("${peer.codec:binary}")
+    private String codec;
+
+    private MediaType contentType;
+
+    private MediaType[] accept;
+
+    @PostConstruct
+    public void init() {
+        if ("binary".equals(codec)) {
+            contentType = BinaryCodec.MEDIA_TYPE;
+            accept = new MediaType[] {BinaryCodec.MEDIA_TYPE, MediaType.APPLICATION_JSON};
+        } else {
+            contentType = MediaType.APPLICATION_JSON;
+            accept = new MediaType[] {MediaType.APPLICATION_JSON};
+        }
+    }
+
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    public MediaType[] accept() {
+        return accept;
+    }
+
+    public static void register(ClientCodecConfigurer configurer) {
+        configurer.customCodecs().encoder(new BinaryEncoder());
+        configurer.customCodecs().decoder(new BinaryDecoder());
+    }
+}
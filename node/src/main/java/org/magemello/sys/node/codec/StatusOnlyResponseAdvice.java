@@ -0,0 +1,33 @@
+package org.magemello.sys.node.codec;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * The text messages of the protocol endpoints ("AP QUORUM Commit -
+ * Transaction executed: ...") are meant for humans: a peer talking binary
+ * only looks at the status, so it gets an empty body instead.
+ */
+@ControllerAdvice
+public class StatusOnlyResponseAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (body instanceof String && BinaryCodec.MEDIA_TYPE.isCompatibleWith(selectedContentType)) {
+            return null;
+        }
+        return body;
+    }
+}
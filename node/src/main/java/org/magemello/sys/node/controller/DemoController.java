@@ -1,7 +1,8 @@
 package org.magemello.sys.node.controller;
 
 import org.magemello.sys.node.domain.Record;
-import org.magemello.sys.node.repository.RecordRepository;
+import org.magemello.sys.node.protocols.cp.service.ReplicatedLog;
+import org.magemello.sys.node.repository.RecordStore;
 import org.magemello.sys.node.service.ProtocolServiceProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,11 +26,14 @@ public class DemoController {
     private static final Logger log = LoggerFactory.getLogger(DemoController.class);
 
     @Autowired
-    RecordRepository recordRepository;
+    RecordStore recordStore;
 
     @Autowired
     ProtocolServiceProxy protocolService;
 
+    @Autowired
+    ReplicatedLog replicatedLog;
+
     @GetMapping("/dump")
     public ResponseEntity<?> dumpDatabase() throws JsonProcessingException {
 
@@ -39,7 +43,7 @@ public class DemoController {
 
         log.info("\n\n===========================");
         log.info("\nCurrent database contents:");
-        Iterable<Record> records = recordRepository.findAll();
+        Iterable<Record> records = recordStore.findAll();
         for (Record record : records) {
             log.info("\n" + writer.writeValueAsString(record));
         }
@@ -64,14 +68,16 @@ public class DemoController {
     public ResponseEntity<?> switchProtocol(@PathVariable String name) {
         cleanScreen();
         boolean res = protocolService.switchProtocol(name);
-        recordRepository.deleteAll();
+        recordStore.deleteAll();
+        replicatedLog.clear();
 
         return new ResponseEntity<>(res ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
     }
 
     @PostMapping("/cleandb")
     public ResponseEntity<?> switchProtocol() {
-        recordRepository.deleteAll();
+        recordStore.deleteAll();
+        replicatedLog.clear();
         return new ResponseEntity<>(HttpStatus.OK);
     }
 }
@@ -0,0 +1,49 @@
+package org.magemello.sys.node.controller;
+
+import java.util.List;
+
+import org.magemello.sys.node.fault.FaultInjector;
+import org.magemello.sys.node.fault.FaultRule;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController()
+@RequestMapping("/demo/faults")
+public class FaultController {
+
+    @Autowired
+    FaultInjector faultInjector;
+
+    @GetMapping
+    public List<FaultRule> rules() {
+        return faultInjector.getRules();
+    }
+
+    @PostMapping
+    public ResponseEntity<?> add(@RequestBody FaultRule rule) {
+        try {
+            return new ResponseEntity<>(faultInjector.add(rule), HttpStatus.CREATED);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> remove(@PathVariable Long id) {
+        return new ResponseEntity<>(faultInjector.remove(id) ? HttpStatus.OK : HttpStatus.NOT_FOUND);
+    }
+
+    @DeleteMapping
+    public ResponseEntity<?> clear() {
+        faultInjector.clear();
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+}
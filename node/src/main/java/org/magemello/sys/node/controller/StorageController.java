@@ -6,11 +6,15 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.Map;
+
 @RestController()
 @RequestMapping("/storage/")
 @SuppressWarnings("rawtypes")
@@ -28,4 +32,14 @@ public class StorageController {
     public Mono<ResponseEntity> get(@PathVariable String key) {
         return protocolService.get(key);
     }
+
+    @PostMapping("/_batch")
+    public Mono<ResponseEntity> setAll(@RequestBody Map<String, String> values) throws Exception {
+        return protocolService.setAll(values);
+    }
+
+    @PostMapping("/_mget")
+    public Mono<ResponseEntity> getAll(@RequestBody List<String> keys) {
+        return protocolService.getAll(keys);
+    }
 }
@@ -0,0 +1,40 @@
+package org.magemello.sys.node.fault;
+
+import java.time.Duration;
+
+import org.magemello.sys.node.fault.FaultRule.Direction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Applies the fault rules to the requests sent to the peers, before they
+ * are routed to a peer channel or over HTTP. A delay is a timer; a drop
+ * never completes, and the client timeout fires as on a lost request.
+ */
+@Component
+public class FaultExchangeFilter implements ExchangeFilterFunction {
+
+    @Autowired
+    private FaultInjector faultInjector;
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        String peer = request.url().getHost() + ":" + request.url().getPort();
+        FaultRule rule = faultInjector.match(Direction.OUT, peer, request.url().getRawPath());
+        if (rule == null) {
+            return next.exchange(request);
+        }
+
+        if (faultInjector.drops(rule)) {
+            return Mono.never();
+        }
+        return Mono.delay(Duration.ofMillis(faultInjector.delay(rule)))
+                .then(Mono.defer(() -> next.exchange(request)));
+    }
+}
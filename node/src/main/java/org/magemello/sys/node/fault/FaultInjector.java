@@ -0,0 +1,139 @@
+package org.magemello.sys.node.fault;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.magemello.sys.node.fault.FaultRule.Direction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.AntPathMatcher;
+
+/**
+ * The fault rules of this node, changed at runtime through /demo/faults.
+ * The first rule matching a request applies; /demo requests never match,
+ * so that a node can always be healed.
+ *
+ * server.delay, if set, becomes a delay rule on every request received.
+ */
+@Service
+public class FaultInjector {
+
+    private static final Logger log = LoggerFactory.getLogger(FaultInjector.class);
+
+    @Value("${server.delay:0}")
+    private Long serverDelay;
+
+    @Value("${fault.drop-timeout:10000}")
+    private Long dropTimeout;
+
+    private final List<FaultRule> rules = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+
+    @PostConstruct
+    public void init() {
+        if (serverDelay > 0) {
+            FaultRule rule = new FaultRule();
+            rule.setDelay(serverDelay);
+            add(rule);
+        }
+    }
+
+    public List<FaultRule> getRules() {
+        return new ArrayList<>(rules);
+    }
+
+    public FaultRule add(FaultRule rule) {
+        if (rule.getDelay() < 0 || rule.getJitter() < 0 || rule.getDrop() < 0 || rule.getDrop() > 1) {
+            throw new IllegalArgumentException("Delay and jitter must be positive, drop between 0 and 1: " + rule);
+        }
+        if (rule.getDirection() == null) {
+            rule.setDirection(Direction.IN);
+        }
+        if (rule.getDistribution() == null) {
+            rule.setDistribution(FaultRule.Distribution.UNIFORM);
+        }
+
+        rule.setId(ids.incrementAndGet());
+        rules.add(rule);
+        log.info("\n- fault rule added {}", rule);
+        return rule;
+    }
+
+    public boolean remove(long id) {
+        return rules.removeIf(rule -> rule.getId() == id);
+    }
+
+    public void clear() {
+        rules.clear();
+        log.info("\n- fault rules cleared");
+    }
+
+    /**
+     * @param peer the other side, host or host:port
+     * @return the rule applying to the request, null if none does
+     */
+    public FaultRule match(Direction direction, String peer, String path) {
+        if (rules.isEmpty() || path.startsWith("/demo")) {
+            return null;
+        }
+
+        for (FaultRule rule : rules) {
+            if ((rule.isPartition() || rule.getDirection() == Direction.BOTH || rule.getDirection() == direction)
+                    && (rule.getPeer() == null || host(rule.getPeer()).equals(host(peer)))
+                    && (rule.getPath() == null || matcher.match(rule.getPath(), path))) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    public boolean drops(FaultRule rule) {
+        return rule.isPartition() || rule.getDrop() > 0 && ThreadLocalRandom.current().nextDouble() < rule.getDrop();
+    }
+
+    /**
+     * @return the delay of one request, in milliseconds
+     */
+    public long delay(FaultRule rule) {
+        if (rule.getJitter() == 0) {
+            return rule.getDelay();
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double jitter;
+        switch (rule.getDistribution()) {
+            case NORMAL:
+                jitter = Math.max(0, random.nextGaussian() * rule.getJitter());
+                break;
+            case EXPONENTIAL:
+                jitter = -Math.log(1 - random.nextDouble()) * rule.getJitter();
+                break;
+            default:
+                jitter = random.nextDouble() * rule.getJitter();
+        }
+        return rule.getDelay() + Math.round(jitter);
+    }
+
+    /**
+     * @return how long a dropped request received is held before giving up
+     * on it, well after the caller timed out
+     */
+    public long getDropTimeout() {
+        return dropTimeout;
+    }
+
+    private static String host(String address) {
+        int colon = address.lastIndexOf(':');
+        return colon < 0 ? address : address.substring(0, colon);
+    }
+}
@@ -0,0 +1,140 @@
+package org.magemello.sys.node.fault;
+
+/**
+ * A fault injected on the requests matching a peer and a path: a delay
+ * (fixed plus jitter), a probability of dropping the request, or a
+ * partition, where every request to and from the peer is dropped.
+ *
+ * A dropped request is never answered, the caller finds out by timing out
+ * as it would with a lost packet.
+ */
+public class FaultRule {
+
+    public enum Direction {
+        /** requests received by this node */
+        IN,
+        /** requests sent by this node */
+        OUT,
+        BOTH
+    }
+
+    public enum Distribution {
+        /** jitter uniform in [0, jitter] */
+        UNIFORM,
+        /** jitter normal around 0 with jitter as standard deviation, negative values cut */
+        NORMAL,
+        /** jitter exponential with jitter as mean, a long tail of slow requests */
+        EXPONENTIAL
+    }
+
+    private Long id;
+
+    private String peer;
+
+    private String path;
+
+    private Direction direction = Direction.IN;
+
+    private long delay;
+
+    private long jitter;
+
+    private Distribution distribution = Distribution.UNIFORM;
+
+    private double drop;
+
+    private boolean partition;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the peer address, host or host:port, null for any peer
+     */
+    public String getPeer() {
+        return peer;
+    }
+
+    public void setPeer(String peer) {
+        this.peer = peer;
+    }
+
+    /**
+     * @return an ant pattern on the request path, null for any path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public void setDirection(Direction direction) {
+        this.direction = direction;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public long getJitter() {
+        return jitter;
+    }
+
+    public void setJitter(long jitter) {
+        this.jitter = jitter;
+    }
+
+    public Distribution getDistribution() {
+        return distribution;
+    }
+
+    public void setDistribution(Distribution distribution) {
+        this.distribution = distribution;
+    }
+
+    public double getDrop() {
+        return drop;
+    }
+
+    public void setDrop(double drop) {
+        this.drop = drop;
+    }
+
+    public boolean isPartition() {
+        return partition;
+    }
+
+    public void setPartition(boolean partition) {
+        this.partition = partition;
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+                "id=" + id +
+                ", peer='" + peer + '\'' +
+                ", path='" + path + '\'' +
+                ", direction=" + direction +
+                ", delay=" + delay +
+                ", jitter=" + jitter +
+                ", distribution=" + distribution +
+                ", drop=" + drop +
+                ", partition=" + partition +
+                '}';
+    }
+}
@@ -0,0 +1,76 @@
+package org.magemello.sys.node.fault;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.magemello.sys.node.fault.FaultRule.Direction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Applies the fault rules to the requests received over HTTP without
+ * holding a server thread: a delayed request is put in async mode and
+ * dispatched again when its timer fires (the async dispatch skips this
+ * filter); a dropped one stays in async mode, unanswered, until
+ * fault.drop-timeout.
+ */
+@Component
+public class FaultServletFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private FaultInjector faultInjector;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+
+        FaultRule rule = faultInjector.match(Direction.IN, request.getRemoteAddr(), request.getRequestURI());
+        if (rule == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        AsyncContext async = request.startAsync(request, response);
+        if (faultInjector.drops(rule)) {
+            async.setTimeout(faultInjector.getDropTimeout());
+            async.addListener(new DropListener());
+            return;
+        }
+
+        async.setTimeout(0);
+        Mono.delay(Duration.ofMillis(faultInjector.delay(rule))).subscribe(tick -> async.dispatch());
+    }
+
+    private static class DropListener implements AsyncListener {
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            ((HttpServletResponse) event.getSuppliedResponse()).setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            event.getAsyncContext().complete();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.magemello.sys.node.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Latency histograms, counters and gauges of the node, optionally labelled with a
+ * peer, rendered in the Prometheus text format.
+ *
+ * Lookups of an existing metric do not allocate and recording is
+ * allocation-free, so the hot paths can record on every message.
+ */
+@Component
+public class MetricsRegistry {
+
+    public static final String NO_PEER = "";
+
+    private static final String PREFIX = "sysdist_";
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, LatencyHistogram>> latencies = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, LongAdder>> counters = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Timer>> timers = new ConcurrentHashMap<>();
+
+    public LatencyHistogram latency(String name) {
+        return latency(name, NO_PEER);
+    }
+
+    public LatencyHistogram latency(String name, String peer) {
+        Map<String, LatencyHistogram> family = family(latencies, name);
+        LatencyHistogram histogram = family.get(peer);
+        if (histogram == null) {
+            family.putIfAbsent(peer, new LatencyHistogram());
+            histogram = family.get(peer);
+        }
+        return histogram;
+    }
+
+    public LongAdder counter(String name) {
+        return counter(name, NO_PEER);
+    }
+
+    public LongAdder counter(String name, String peer) {
+        Map<String, LongAdder> family = family(counters, name);
+        LongAdder counter = family.get(peer);
+        if (counter == null) {
+            family.putIfAbsent(peer, new LongAdder());
+            counter = family.get(peer);
+        }
+        return counter;
+    }
+
+    /**
+     * A value read when scraped, like the depth of a queue.
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * The timer of the calls to a peer: a histogram name and the counters
+     * name_errors and name_cancelled, bound on the first lookup.
+     */
+    public Timer timer(String name, String peer) {
+        Map<String, Timer> family = family(timers, name);
+        Timer timer = family.get(peer);
+        if (timer == null) {
+            family.putIfAbsent(peer, new Timer(latency(name, peer), counter(name + "_errors", peer), counter(name + "_cancelled", peer)));
+            timer = family.get(peer);
+        }
+        return timer;
+    }
+
+    /**
+     * Times a call to a peer, see {@link Timer#time}.
+     */
+    public Mono<ClientResponse> timed(String name, String peer, Mono<ClientResponse> call) {
+        return timer(name, peer).time(call);
+    }
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+
+        for (Map.Entry<String, Map<String, LatencyHistogram>> family : sorted(latencies).entrySet()) {
+            String name = PREFIX + family.getKey() + "_seconds";
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (Map.Entry<String, LatencyHistogram> entry : family.getValue().entrySet()) {
+                String peer = entry.getKey();
+                LatencyHistogram histogram = entry.getValue();
+
+                long[] percentiles = histogram.percentiles(QUANTILES);
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    out.append(name);
+                    labels(out, peer, Double.toString(QUANTILES[i]));
+                    out.append(' ').append(seconds(percentiles[i])).append('\n');
+                }
+                out.append(name).append("_sum");
+                labels(out, peer, null);
+                out.append(' ').append(seconds(histogram.getSum())).append('\n');
+                out.append(name).append("_count");
+                labels(out, peer, null);
+                out.append(' ').append(histogram.getCount()).append('\n');
+            }
+        }
+
+        for (Map.Entry<String, Map<String, LongAdder>> family : sorted(counters).entrySet()) {
+            String name = PREFIX + family.getKey() + "_total";
+            out.append("# TYPE ").append(name).append(" counter\n");
+            for (Map.Entry<String, LongAdder> entry : family.getValue().entrySet()) {
+                out.append(name);
+                labels(out, entry.getKey(), null);
+                out.append(' ').append(entry.getValue().sum()).append('\n');
+            }
+        }
+
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            String name = PREFIX + gauge.getKey();
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(' ').append(gauge.getValue().getAsLong()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private static <T> Map<String, T> family(ConcurrentHashMap<String, ConcurrentHashMap<String, T>> metrics, String name) {
+        ConcurrentHashMap<String, T> family = metrics.get(name);
+        if (family == null) {
+            metrics.putIfAbsent(name, new ConcurrentHashMap<>());
+            family = metrics.get(name);
+        }
+        return family;
+    }
+
+    private static <T> Map<String, Map<String, T>> sorted(ConcurrentHashMap<String, ConcurrentHashMap<String, T>> metrics) {
+        Map<String, Map<String, T>> sorted = new TreeMap<>();
+        metrics.forEach((name, family) -> sorted.put(name, new TreeMap<>(family)));
+        return sorted;
+    }
+
+    private static void labels(StringBuilder out, String peer, String quantile) {
+        boolean hasPeer = !NO_PEER.equals(peer);
+        if (!hasPeer && quantile == null) {
+            return;
+        }
+
+        out.append('{');
+        if (hasPeer) {
+            out.append("peer=\"").append(peer).append('"');
+        }
+        if (quantile != null) {
+            out.append(hasPeer ? "," : "").append("quantile=\"").append(quantile).append('"');
+        }
+        out.append('}');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
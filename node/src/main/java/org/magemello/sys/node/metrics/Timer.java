@@ -0,0 +1,107 @@
+package org.magemello.sys.node.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.reactivestreams.Subscription;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoOperator;
+import reactor.util.context.Context;
+
+/**
+ * The latency histogram and the error and cancelled counters of the calls
+ * to a peer, bound once per name and peer by {@link MetricsRegistry#timer}.
+ * Timing a call adds a single operator, recording allocates nothing.
+ */
+public class Timer {
+
+    private final LatencyHistogram latency;
+    private final LongAdder errors;
+    private final LongAdder cancelled;
+
+    Timer(LatencyHistogram latency, LongAdder errors, LongAdder cancelled) {
+        this.latency = latency;
+        this.errors = errors;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Times the call from its subscription: the latency is recorded when
+     * the response arrives, error statuses and calls cancelled (timed out)
+     * are counted.
+     */
+    public Mono<ClientResponse> time(Mono<ClientResponse> call) {
+        return new TimedCall(call, this);
+    }
+
+    private static final class TimedCall extends MonoOperator<ClientResponse, ClientResponse> {
+
+        private final Timer timer;
+
+        TimedCall(Mono<ClientResponse> call, Timer timer) {
+            super(call);
+            this.timer = timer;
+        }
+
+        @Override
+        public void subscribe(CoreSubscriber<? super ClientResponse> actual) {
+            source.subscribe(new TimedSubscriber(actual, timer));
+        }
+    }
+
+    private static final class TimedSubscriber implements CoreSubscriber<ClientResponse>, Subscription {
+
+        private final CoreSubscriber<? super ClientResponse> actual;
+        private final Timer timer;
+        private final long start = System.nanoTime();
+        private Subscription subscription;
+
+        TimedSubscriber(CoreSubscriber<? super ClientResponse> actual, Timer timer) {
+            this.actual = actual;
+            this.timer = timer;
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            actual.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(ClientResponse response) {
+            timer.latency.record(System.nanoTime() - start);
+            if (response.statusCode().isError()) {
+                timer.errors.increment();
+            }
+            actual.onNext(response);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            actual.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            actual.onComplete();
+        }
+
+        @Override
+        public void request(long n) {
+            subscription.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            timer.cancelled.increment();
+            subscription.cancel();
+        }
+    }
+}
@@ -1,85 +1,290 @@
 package org.magemello.sys.node.protocols.ac.clients;
 
+import org.magemello.sys.node.codec.PeerCodec;
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.magemello.sys.node.protocols.ac.domain.Decisions;
 import org.magemello.sys.node.protocols.ac.domain.Transaction;
 import org.magemello.sys.node.service.P2PService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.WebClientFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import static org.springframework.http.client.reactive.WebClientFactory.newWebClient;
 
+/**
+ * The coordinator side of the AC two-phase commit. The commit and rollback
+ * decisions are not sent one request each: they wait up to
+ * ac.decisions.linger-us in a per-peer buffer and go out together on
+ * /ac/decisions, or earlier with the next propose to the same peer, or as
+ * soon as ac.decisions.max-batch of them are buffered.
+ */
 @Service
 public class ACProtocolClient {
 
     @Value("${client.timeout:3}")
     private Integer clientTimeout;
 
+    @Value("${ac.decisions.linger-us:200}")
+    private Long decisionsLinger;
+
+    @Value("${ac.decisions.max-batch:256}")
+    private Integer decisionsMaxBatch;
+
+    private final Map<String, PendingDecisions> pendingDecisions = new ConcurrentHashMap<>();
+
     @Autowired
     private P2PService p2pService;
 
-    public Mono<List<ClientResponse>> propose(Transaction transaction) {
-        return Flux.fromIterable(p2pService.getPeers())
-                .flatMap(peer -> createWebClientPropose(transaction, peer), p2pService.getPeers().size())
+    @Autowired
+    private WebClient webClient;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private PeerCodec peerCodec;
+
+    /**
+     * @param peers the owners of the keys, see {@link P2PService#getPeers(java.util.Collection)}
+     */
+    public Mono<List<ClientResponse>> propose(List<Transaction> transactions, List<String> peers) {
+        return Flux.fromIterable(peers)
+                .flatMap(peer -> metricsRegistry.timed("ac_propose", peer, createWebClientPropose(transactions, peer)), Math.max(1, peers.size()))
                 .timeout(Duration.ofMillis(clientTimeout))
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.REQUEST_TIMEOUT).build())).collectList();
     }
 
-    public Mono<Boolean> commit(String id) {
-        return Flux.fromIterable(p2pService.getPeers())
-                .flatMap(peer -> createWebClientCommit(id, peer), p2pService.getPeers().size())
+    /**
+     * @return whether every peer acknowledged the commit, once the batch of
+     * decisions carrying it is answered
+     */
+    public Mono<Boolean> commit(List<String> ids, List<String> peers) {
+        return Flux.fromIterable(peers)
+                .flatMap(peer -> decide(peer, ids, true), Math.max(1, peers.size()))
                 .timeout(Duration.ofMillis(clientTimeout))
-                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.REQUEST_TIMEOUT).build()))
-                .all(response -> !response.statusCode().isError());
+                .onErrorResume(throwable -> Mono.just(false))
+                .all(committed -> committed);
     }
 
-    public Mono<Boolean> rollback(String id, List<ClientResponse> clientResponses) {
+    public Mono<Boolean> rollback(List<String> ids, List<ClientResponse> clientResponses) {
 
         List<String> peers = getNotFailingPeers(clientResponses);
 
         return Flux.fromIterable(peers)
-                .flatMap(peer -> createWebClientRollBack(id, peer), p2pService.getPeers().size())
+                .flatMap(peer -> decide(peer, ids, false), Math.max(1, peers.size()))
                 .timeout(Duration.ofMillis(clientTimeout))
-                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.REQUEST_TIMEOUT).build()))
-                .all(response -> !response.statusCode().isError());
+                .onErrorResume(throwable -> Mono.just(false))
+                .all(rolledBack -> rolledBack);
+    }
+
+    /**
+     * Reads a key this node does not own through the storage API of one of
+     * its owners.
+     */
+    public Mono<ResponseEntity<String>> read(String key, String peer) {
+        return metricsRegistry.timed("ac_read", peer, createWebClientRead(key, peer))
+                .flatMap(clientResponse -> clientResponse.toEntity(String.class))
+                .timeout(Duration.ofMillis(clientTimeout));
+    }
+
+    public Mono<Map<String, String>> readAll(List<String> keys, String peer) {
+        return metricsRegistry.timed("ac_read_batch", peer, createWebClientReadAll(keys, peer))
+                .flatMap(clientResponse -> clientResponse.statusCode().isError()
+                        ? WebClientFactory.drained(clientResponse).then(Mono.<Map<String, String>>error(new IllegalStateException(peer + " answered " + clientResponse.statusCode())))
+                        : clientResponse.bodyToMono(new ParameterizedTypeReference<Map<String, String>>() {
+                        }))
+                .timeout(Duration.ofMillis(clientTimeout));
+    }
+
+    /**
+     * Buffers the decision for the peer; the first one buffered starts the
+     * linger timer.
+     */
+    private Mono<Boolean> decide(String peer, List<String> ids, boolean commit) {
+        return Mono.create(sink -> {
+            PendingDecisions pending = pendingDecisions.get(peer);
+            if (pending == null) {
+                pendingDecisions.putIfAbsent(peer, new PendingDecisions());
+                pending = pendingDecisions.get(peer);
+            }
+
+            boolean full;
+            boolean schedule;
+            synchronized (pending) {
+                (commit ? pending.commit : pending.rollback).addAll(ids);
+                pending.sinks.add(sink);
+                full = pending.size() >= decisionsMaxBatch || decisionsLinger <= 0;
+                schedule = !full && !pending.scheduled;
+                pending.scheduled |= schedule;
+            }
+
+            if (full) {
+                flush(peer);
+            } else if (schedule) {
+                Mono.delay(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(decisionsLinger)))
+                        .subscribe(tick -> flush(peer));
+            }
+        });
+    }
+
+    private void flush(String peer) {
+        PendingDecisions taken = take(peer);
+        if (taken == null) {
+            return;
+        }
+
+        metricsRegistry.timed("ac_decisions", peer, createWebClientDecisions(new Decisions(taken.commit, taken.rollback, null), taken, peer))
+                .subscribe();
+    }
+
+    /**
+     * @return the decisions buffered for the peer, now owned by the caller,
+     * or null if there are none
+     */
+    private PendingDecisions take(String peer) {
+        PendingDecisions pending = pendingDecisions.get(peer);
+        if (pending == null) {
+            return null;
+        }
+
+        synchronized (pending) {
+            if (pending.sinks.isEmpty()) {
+                return null;
+            }
+            PendingDecisions taken = new PendingDecisions();
+            taken.commit = pending.commit;
+            taken.rollback = pending.rollback;
+            taken.sinks = pending.sinks;
+            pending.commit = new ArrayList<>();
+            pending.rollback = new ArrayList<>();
+            pending.sinks = new ArrayList<>();
+            pending.scheduled = false;
+            return taken;
+        }
+    }
+
+    /**
+     * The decisions buffered for the peer travel with the proposals, the
+     * status answered is the proposals' one. The request goes on if the
+     * proposals are given up (the propose timeout), so that the decisions
+     * complete with what the peer actually applied.
+     */
+    private Mono<ClientResponse> createWebClientPropose(List<Transaction> transactions, String peer) {
+        return Mono.defer(() -> {
+            PendingDecisions taken = take(peer);
+            if (taken == null) {
+                return createWebClientProposeOnly(transactions, peer);
+            }
+
+            metricsRegistry.counter("ac_decisions_piggybacked", peer).add(taken.size());
+            Mono<ClientResponse> answer = createWebClientDecisions(new Decisions(taken.commit, taken.rollback, transactions), taken, peer).cache();
+            answer.subscribe();
+            return answer;
+        });
+    }
+
+    /**
+     * The decisions are acknowledged when the peer applied all of them, as
+     * told by the count in the body, whatever the status; a failed
+     * delivery fails them.
+     */
+    private Mono<ClientResponse> createWebClientDecisions(Decisions decisions, PendingDecisions taken, String peer) {
+        return webClient
+                .post()
+                .uri("http://" + peer + "/ac/decisions")
+                .contentType(peerCodec.contentType())
+                .syncBody(decisions)
+                .accept(peerCodec.accept())
+                .exchange()
+                .flatMap(response -> response.bodyToMono(Integer.class)
+                        .onErrorResume(throwable -> Mono.empty())
+                        .defaultIfEmpty(0)
+                        .map(decided -> {
+                            taken.complete(decided == taken.size());
+                            return ClientResponse.from(response).body("").build();
+                        }))
+                .onErrorResume(throwable -> {
+                    taken.complete(false);
+                    return Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build());
+                });
+    }
+
+    private Mono<ClientResponse> createWebClientProposeOnly(List<Transaction> transactions, String peer) {
+        if (transactions.size() == 1) {
+            return createWebClientPropose(transactions.get(0), peer);
+        }
+
+        return webClient
+                .post()
+                .uri("http://" + peer + "/ac/propose/_batch")
+                .contentType(peerCodec.contentType())
+                .syncBody(transactions)
+                .accept(peerCodec.accept())
+                .exchange()
+                .flatMap(WebClientFactory::drained)
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 
     private Mono<ClientResponse> createWebClientPropose(Transaction transaction, String peer) {
-        return newWebClient()
+        return webClient
                 .post()
                 .uri("http://" + peer + "/ac/propose")
+                .contentType(peerCodec.contentType())
                 .syncBody(transaction)
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(peerCodec.accept())
                 .exchange()
+                .flatMap(WebClientFactory::drained)
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
 
     }
 
-    private Mono<ClientResponse> createWebClientCommit(String id, String peer) {
-        return newWebClient()
-                .post()
-                .uri("http://" + peer + "/ac/commit/" + id)
-                .accept(MediaType.APPLICATION_JSON)
+    private Mono<ClientResponse> createWebClientRead(String key, String peer) {
+        return webClient
+                .get()
+                .uri("http://" + peer + "/storage/" + key)
                 .exchange()
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 
-    private Mono<ClientResponse> createWebClientRollBack(String id, String peer) {
-        return newWebClient()
+    private Mono<ClientResponse> createWebClientReadAll(List<String> keys, String peer) {
+        return webClient
                 .post()
-                .uri("http://" + peer + "/ac/rollback/" + id)
-                .accept(MediaType.APPLICATION_JSON)
+                .uri("http://" + peer + "/storage/_mget")
+                .syncBody(keys)
                 .exchange()
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 
+    private static class PendingDecisions {
+        List<String> commit = new ArrayList<>();
+        List<String> rollback = new ArrayList<>();
+        List<MonoSink<Boolean>> sinks = new ArrayList<>();
+        boolean scheduled;
+
+        int size() {
+            return commit.size() + rollback.size();
+        }
+
+        void complete(boolean acknowledged) {
+            sinks.forEach(sink -> sink.success(acknowledged));
+        }
+    }
+
     private List<String> getNotFailingPeers(List<ClientResponse> clientResponses) {
         return clientResponses.stream()
                 .filter(clientResponse -> !clientResponse.statusCode().isError())
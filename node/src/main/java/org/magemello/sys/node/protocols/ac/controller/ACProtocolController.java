@@ -1,6 +1,7 @@
 package org.magemello.sys.node.protocols.ac.controller;
 
 import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.protocols.ac.domain.Decisions;
 import org.magemello.sys.node.protocols.ac.domain.Transaction;
 import org.magemello.sys.node.protocols.ac.service.ACProtocolService;
 import org.slf4j.Logger;
@@ -9,6 +10,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
 
 @RestController()
 @RequestMapping("ac")
@@ -19,18 +23,95 @@ public class ACProtocolController {
     @Autowired
     private ACProtocolService acProtocolService;
 
+    /**
+     * Answered once the proposal is admitted, possibly after waiting for
+     * the proposal ahead on the same key.
+     */
     @PostMapping("propose")
-    public ResponseEntity<String> propose(@RequestBody Transaction transaction) {
+    public Mono<ResponseEntity<String>> propose(@RequestBody Transaction transaction) {
         log.info("/propose for transaction {}\n", transaction.get_ID());
         if (isAValidTransaction(transaction)) {
-            if (acProtocolService.propose(transaction)) {
-                return createResponse("AC 2PC Propose - Accepted transaction proposal: " + transaction.toString(), HttpStatus.OK);
-            } else {
-                return createResponse("AC 2PC Propose - Transaction for key: " + transaction.toString(), HttpStatus.BAD_REQUEST);
-            }
+            return acProtocolService.propose(transaction).map(accepted -> accepted
+                    ? createResponse("AC 2PC Propose - Accepted transaction proposal: " + transaction.toString(), HttpStatus.OK)
+                    : createResponse("AC 2PC Propose - Transaction for key: " + transaction.toString(), HttpStatus.BAD_REQUEST));
+        } else {
+            return Mono.just(createResponse("AC 2PC Propose - Refused proposal for key: " + transaction.toString(), HttpStatus.BAD_REQUEST));
+        }
+    }
+
+    /**
+     * Answered once all the proposals are admitted, possibly after waiting
+     * for the proposals ahead on their keys.
+     */
+    @PostMapping("propose/_batch")
+    public Mono<ResponseEntity<String>> proposeAll(@RequestBody List<Transaction> transactions) {
+        log.info("/propose for {} transactions\n", transactions.size());
+        if (transactions.stream().allMatch(this::isAValidTransaction)) {
+            return acProtocolService.proposeAll(transactions).map(accepted -> accepted
+                    ? createResponse("AC 2PC Propose - Accepted " + transactions.size() + " transaction proposals", HttpStatus.OK)
+                    : createResponse("AC 2PC Propose - Transactions for keys: " + transactions.toString(), HttpStatus.BAD_REQUEST));
+        } else {
+            return Mono.just(createResponse("AC 2PC Propose - Refused proposals: " + transactions.toString(), HttpStatus.BAD_REQUEST));
+        }
+    }
+
+    @PostMapping("commit/_batch")
+    public ResponseEntity<String> commitAll(@RequestBody List<String> ids) {
+        log.info("/commit for transactions {}\n", ids);
+
+        List<Record> committedRecords = acProtocolService.commitAll(ids);
+        if (committedRecords.size() == ids.size()) {
+            return createResponse("AC 2PC Commit - Transactions executed: " + committedRecords.toString(), HttpStatus.OK);
+        } else {
+            return createResponse("AC 2PC Commit - Executed only " + committedRecords.size() + " of " + ids.size() + " transactions", HttpStatus.NOT_FOUND);
+        }
+    }
+
+    @PostMapping("rollback/_batch")
+    public ResponseEntity<String> rollbackAll(@RequestBody List<String> ids) {
+        log.info("/rollback for transactions {}\n", ids);
+
+        List<Transaction> transactionsRollBack = acProtocolService.rollbackAll(ids);
+        if (transactionsRollBack.size() == ids.size()) {
+            return createResponse("AC 2PC Rollback - Executed: " + transactionsRollBack.toString(), HttpStatus.OK);
         } else {
-            return createResponse("AC 2PC Propose - Refused proposal for key: " + transaction.toString(), HttpStatus.BAD_REQUEST);
+            return createResponse("AC 2PC Rollback - Executed only " + transactionsRollBack.size() + " of " + ids.size() + " transactions", HttpStatus.NOT_FOUND);
+        }
+    }
+
+    /**
+     * The decisions batched by a coordinator: the commits and rollbacks are
+     * applied first, freeing their keys for the proposals queued on them,
+     * then the piggybacked proposals are handled as by propose. The status
+     * is the proposals' one if there are any, the body is always the
+     * number of decisions applied, for the coordinator to tell which of
+     * them went through.
+     */
+    @PostMapping("decisions")
+    public Mono<ResponseEntity<Integer>> decide(@RequestBody Decisions decisions) {
+        log.info("/decisions commit {} rollback {} propose {}\n", decisions.getCommit(), decisions.getRollback(), decisions.getPropose().size());
+
+        int decided = 0;
+        if (!decisions.getCommit().isEmpty()) {
+            decided += acProtocolService.commitAll(decisions.getCommit()).size();
+        }
+        if (!decisions.getRollback().isEmpty()) {
+            decided += acProtocolService.rollbackAll(decisions.getRollback()).size();
+        }
+        int applied = decided;
+
+        List<Transaction> proposals = decisions.getPropose();
+        if (proposals.size() == 1) {
+            return propose(proposals.get(0)).map(response -> ResponseEntity.status(response.getStatusCode()).body(applied));
+        } else if (!proposals.isEmpty()) {
+            return proposeAll(proposals).map(response -> ResponseEntity.status(response.getStatusCode()).body(applied));
+        }
+
+        int total = decisions.getCommit().size() + decisions.getRollback().size();
+        if (applied != total) {
+            log.info("- executed only {} of {} decisions\n", applied, total);
         }
+        return Mono.just(ResponseEntity.status(applied == total ? HttpStatus.OK : HttpStatus.NOT_FOUND).body(applied));
     }
 
     @PostMapping("commit/{id}")
@@ -0,0 +1,60 @@
+package org.magemello.sys.node.protocols.ac.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The 2PC decisions a coordinator sends to a participant in one message:
+ * the ids of the transactions to commit and to roll back and, when piggybacked
+ * on the next propose to the same peer, the transactions proposed.
+ */
+public class Decisions {
+
+    private List<String> commit = new ArrayList<>();
+
+    private List<String> rollback = new ArrayList<>();
+
+    private List<Transaction> propose = new ArrayList<>();
+
+    public Decisions() {
+    }
+
+    public Decisions(List<String> commit, List<String> rollback, List<Transaction> propose) {
+        setCommit(commit);
+        setRollback(rollback);
+        setPropose(propose);
+    }
+
+    public List<String> getCommit() {
+        return commit;
+    }
+
+    public void setCommit(List<String> commit) {
+        this.commit = commit != null ? commit : new ArrayList<>();
+    }
+
+    public List<String> getRollback() {
+        return rollback;
+    }
+
+    public void setRollback(List<String> rollback) {
+        this.rollback = rollback != null ? rollback : new ArrayList<>();
+    }
+
+    public List<Transaction> getPropose() {
+        return propose;
+    }
+
+    public void setPropose(List<Transaction> propose) {
+        this.propose = propose != null ? propose : new ArrayList<>();
+    }
+
+    @Override
+    public String toString() {
+        return "Decisions{" +
+                "commit=" + commit +
+                ", rollback=" + rollback +
+                ", propose=" + propose +
+                '}';
+    }
+}
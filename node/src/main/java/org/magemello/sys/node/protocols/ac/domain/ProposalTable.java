@@ -0,0 +1,413 @@
+package org.magemello.sys.node.protocols.ac.domain;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pending proposals of a participant, indexed both by transaction id and by
+ * key so that every operation is O(1).
+ *
+ * A key is reserved with an atomic insert-if-absent on the key index: the
+ * winner owns the key until its proposal is committed or rolled back, and
+ * any concurrent proposal on the same key is refused.
+ *
+ * With {@link #enqueue(Transaction, int)} a proposal on a taken key waits
+ * instead, in a queue per key: when the owner is removed the key goes
+ * straight to the first waiting proposal, so proposals on a hot key are
+ * admitted one after the other, in arrival order. Queues are only touched
+ * inside a compute on the key index, which makes every hand-over atomic.
+ *
+ * A batch, with {@link #enqueueAll(List, int)}, takes its keys one after
+ * the other in key order, waiting in each key's queue, so two batches on
+ * this participant never hold keys the other one waits for. Across
+ * participants a cycle is still possible (two coordinators whose proposals
+ * arrive in opposite orders): the caller breaks it by cancelling after a
+ * timeout.
+ */
+public class ProposalTable {
+
+    private final ConcurrentHashMap<String, Transaction> byId = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, String> byKey = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Deque<Waiter>> waiting = new ConcurrentHashMap<>();
+
+    /**
+     * A proposal admitted, refused, or still waiting for its key.
+     */
+    public static class Waiter {
+        private final Transaction transaction;
+        private final CompletableFuture<Boolean> admission = new CompletableFuture<>();
+
+        Waiter(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * @return completed with true once the proposal is pending, with
+         * false if it was refused
+         */
+        public CompletableFuture<Boolean> getAdmission() {
+            return admission;
+        }
+    }
+
+    /**
+     * A batch of proposals admitted, refused, or still taking its keys.
+     */
+    public static class Batch {
+        private final List<Transaction> transactions;
+        private final CompletableFuture<Boolean> admission = new CompletableFuture<>();
+
+        // guarded by this
+        private int admitted;
+        private Waiter waiter;
+        private boolean cancelled;
+
+        Batch(List<Transaction> transactions) {
+            this.transactions = transactions;
+        }
+
+        public List<Transaction> getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * @return completed with true once all the proposals are pending,
+         * with false if the batch was refused
+         */
+        public CompletableFuture<Boolean> getAdmission() {
+            return admission;
+        }
+
+        synchronized boolean waitFor(Waiter waiter) {
+            if (cancelled) {
+                return false;
+            }
+            this.waiter = waiter;
+            return true;
+        }
+
+        synchronized boolean admitted(Waiter waiter) {
+            if (cancelled) {
+                return false;
+            }
+            this.waiter = null;
+            admitted++;
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the key was free and the proposal is now pending
+     */
+    public boolean propose(Transaction transaction) {
+        if (byKey.putIfAbsent(transaction.getKey(), transaction.get_ID()) != null) {
+            return false;
+        }
+        byId.put(transaction.get_ID(), transaction);
+        return true;
+    }
+
+    /**
+     * All or nothing: if one of the keys is taken the keys already reserved
+     * by this batch are released.
+     *
+     * @return null if all the proposals are now pending, otherwise the first
+     * one refused
+     */
+    public Transaction proposeAll(List<Transaction> transactions) {
+        List<Transaction> reserved = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            if (byKey.putIfAbsent(transaction.getKey(), transaction.get_ID()) != null) {
+                for (Transaction owned : reserved) {
+                    release(owned.getKey(), owned.get_ID());
+                }
+                return transaction;
+            }
+            reserved.add(transaction);
+        }
+
+        for (Transaction transaction : transactions) {
+            byId.put(transaction.get_ID(), transaction);
+        }
+        return null;
+    }
+
+    /**
+     * Admits the proposal if its key is free, otherwise queues it behind
+     * the owner; refused at once if maxWaiting proposals already wait.
+     */
+    public Waiter enqueue(Transaction transaction, int maxWaiting) {
+        Waiter waiter = new Waiter(transaction);
+        Boolean[] result = new Boolean[1];
+        byKey.compute(transaction.getKey(), (key, owner) -> {
+            if (owner == null) {
+                byId.put(transaction.get_ID(), transaction);
+                result[0] = true;
+                return transaction.get_ID();
+            }
+            Deque<Waiter> queue = waiting.computeIfAbsent(key, k -> new ArrayDeque<>());
+            if (queue.size() >= maxWaiting) {
+                result[0] = false;
+            } else {
+                queue.add(waiter);
+            }
+            return owner;
+        });
+
+        // completed outside the compute, whatever runs next must not hold the key index
+        if (result[0] != null) {
+            waiter.admission.complete(result[0]);
+        }
+        return waiter;
+    }
+
+    /**
+     * Admits the proposals of a batch, all or nothing: their keys are
+     * taken in key order, each one through its queue as by
+     * {@link #enqueue(Transaction, int)}. Refused at once if two proposals
+     * share a key, and as soon as one of the queues is full, releasing the
+     * keys already taken.
+     */
+    public Batch enqueueAll(List<Transaction> transactions, int maxWaiting) {
+        List<Transaction> ordered = new ArrayList<>(transactions);
+        ordered.sort(Comparator.comparing(Transaction::getKey));
+        Batch batch = new Batch(ordered);
+
+        Set<String> keys = new HashSet<>();
+        for (Transaction transaction : ordered) {
+            if (!keys.add(transaction.getKey())) {
+                batch.admission.complete(false);
+                return batch;
+            }
+        }
+
+        advance(batch, maxWaiting);
+        return batch;
+    }
+
+    /**
+     * Takes the next key of the batch, and the following ones as long as
+     * they are free; goes on from the hand-over when one is not. Keys are
+     * only released outside the batch lock, a release may run the
+     * hand-over of another batch.
+     */
+    private void advance(Batch batch, int maxWaiting) {
+        while (true) {
+            Transaction next;
+            synchronized (batch) {
+                if (batch.cancelled) {
+                    return;
+                }
+                if (batch.admitted == batch.transactions.size()) {
+                    break;
+                }
+                next = batch.transactions.get(batch.admitted);
+            }
+
+            Waiter waiter = enqueue(next, maxWaiting);
+            if (!waiter.admission.isDone()) {
+                if (!batch.waitFor(waiter)) {
+                    // cancelled meanwhile
+                    if (!cancel(waiter)) {
+                        remove(next.get_ID());
+                    }
+                    return;
+                }
+                waiter.admission.thenAccept(admitted -> {
+                    if (admitted && batch.admitted(waiter)) {
+                        advance(batch, maxWaiting);
+                    } else if (admitted) {
+                        remove(next.get_ID());
+                    } else {
+                        abort(batch);
+                    }
+                });
+                return;
+            }
+
+            if (!waiter.admission.join()) {
+                abort(batch);
+                return;
+            }
+            if (!batch.admitted(waiter)) {
+                remove(next.get_ID());
+                return;
+            }
+        }
+        batch.admission.complete(true);
+    }
+
+    /**
+     * A key of the batch was refused: the keys already taken are released.
+     */
+    private void abort(Batch batch) {
+        List<Transaction> taken;
+        synchronized (batch) {
+            if (batch.cancelled) {
+                return;
+            }
+            batch.cancelled = true;
+            taken = new ArrayList<>(batch.transactions.subList(0, batch.admitted));
+        }
+        taken.forEach(transaction -> remove(transaction.get_ID()));
+        batch.admission.complete(false);
+    }
+
+    /**
+     * Gives up waiting for the keys of the batch, after a timeout.
+     *
+     * @return false if the batch was admitted meanwhile (its proposals are
+     * pending and must be answered as accepted)
+     */
+    public boolean cancel(Batch batch) {
+        List<Transaction> taken;
+        Waiter waiter;
+        synchronized (batch) {
+            if (batch.admission.isDone() || batch.cancelled) {
+                return !batch.admission.getNow(false);
+            }
+            batch.cancelled = true;
+            taken = new ArrayList<>(batch.transactions.subList(0, batch.admitted));
+            waiter = batch.waiter;
+        }
+
+        // a waiter admitted meanwhile sees the batch cancelled and releases its key
+        if (waiter != null) {
+            cancel(waiter);
+        }
+        taken.forEach(transaction -> remove(transaction.get_ID()));
+        batch.admission.complete(false);
+        return true;
+    }
+
+    /**
+     * Gives up waiting, after a timeout.
+     *
+     * @return false if the proposal was admitted meanwhile (it is pending
+     * and must be answered as accepted)
+     */
+    public boolean cancel(Waiter waiter) {
+        String key = waiter.transaction.getKey();
+        boolean[] removed = new boolean[1];
+        byKey.computeIfPresent(key, (k, owner) -> {
+            Deque<Waiter> queue = waiting.get(k);
+            if (queue != null && queue.remove(waiter)) {
+                removed[0] = true;
+                if (queue.isEmpty()) {
+                    waiting.remove(k);
+                }
+            }
+            return owner;
+        });
+
+        if (removed[0]) {
+            waiter.admission.complete(false);
+        }
+        return removed[0];
+    }
+
+    public int waiting(String key) {
+        Deque<Waiter> queue = waiting.get(key);
+        return queue == null ? 0 : queue.size();
+    }
+
+    public Transaction get(String id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Removes the proposal and frees its key; only one of many concurrent
+     * callers gets the transaction back.
+     */
+    public Transaction remove(String id) {
+        Transaction transaction = byId.remove(id);
+        if (transaction != null) {
+            release(transaction.getKey(), id);
+        }
+        return transaction;
+    }
+
+    /**
+     * First half of a remove: only one of many concurrent callers gets the
+     * transaction back, and its key stays reserved until
+     * {@link #release(Transaction)}, so that nothing else on the key is
+     * admitted before the decision is persisted.
+     */
+    public Transaction claim(String id) {
+        return byId.remove(id);
+    }
+
+    public void release(Transaction transaction) {
+        release(transaction.getKey(), transaction.get_ID());
+    }
+
+    /**
+     * Frees the key, or hands it to the first proposal waiting for it.
+     */
+    private void release(String key, String id) {
+        Waiter[] next = new Waiter[1];
+        byKey.computeIfPresent(key, (k, owner) -> {
+            if (!owner.equals(id)) {
+                return owner;
+            }
+            Deque<Waiter> queue = waiting.get(k);
+            if (queue == null) {
+                return null;
+            }
+            next[0] = queue.poll();
+            if (queue.isEmpty()) {
+                waiting.remove(k);
+            }
+            if (next[0] == null) {
+                return null;
+            }
+            byId.put(next[0].transaction.get_ID(), next[0].transaction);
+            return next[0].transaction.get_ID();
+        });
+
+        if (next[0] != null) {
+            next[0].admission.complete(true);
+        }
+    }
+
+    public boolean isProposed(String key) {
+        return byKey.containsKey(key);
+    }
+
+    public void restore(Collection<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            propose(transaction);
+        }
+    }
+
+    public void clear() {
+        List<Waiter> waiters = new ArrayList<>();
+        waiting.values().forEach(waiters::addAll);
+        waiting.clear();
+        byId.clear();
+        byKey.clear();
+        waiters.forEach(waiter -> waiter.admission.complete(false));
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public boolean isEmpty() {
+        return byId.isEmpty();
+    }
+}
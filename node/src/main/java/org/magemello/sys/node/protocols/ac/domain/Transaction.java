@@ -1,7 +1,11 @@
 package org.magemello.sys.node.protocols.ac.domain;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Transaction {
 
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
     private String _ID;
 
     private String key;
@@ -12,7 +16,13 @@ public class Transaction {
     }
 
     public Transaction(String key, String value) {
-        this._ID = Long.toHexString(System.currentTimeMillis());
+        this._ID = Long.toHexString(System.currentTimeMillis()) + "-" + Long.toHexString(SEQUENCE.incrementAndGet());
+        this.key = key;
+        this.value = value;
+    }
+
+    public Transaction(String _ID, String key, String value) {
+        this._ID = _ID;
         this.key = key;
         this.value = value;
     }
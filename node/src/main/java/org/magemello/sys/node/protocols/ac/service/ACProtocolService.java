@@ -1,23 +1,38 @@
 package org.magemello.sys.node.protocols.ac.service;
 
 import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.metrics.MetricsRegistry;
 import org.magemello.sys.node.protocols.ac.clients.ACProtocolClient;
+import org.magemello.sys.node.protocols.ac.domain.ProposalTable;
 import org.magemello.sys.node.protocols.ac.domain.Transaction;
-import org.magemello.sys.node.repository.RecordRepository;
+import org.magemello.sys.node.repository.RecordStore;
+import org.magemello.sys.node.repository.StorageExecutor;
+import org.magemello.sys.node.service.P2PService;
 import org.magemello.sys.node.service.ProtocolService;
+import org.magemello.sys.node.wal.WriteAheadLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 
 @Service("AC")
@@ -27,17 +42,85 @@ public class ACProtocolService implements ProtocolService {
     private static final Logger log = LoggerFactory.getLogger(ACProtocolService.class);
 
     @Autowired
-    private RecordRepository recordRepository;
+    private RecordStore recordStore;
+
+    @Autowired
+    private StorageExecutor storageExecutor;
 
     @Autowired
     private ACProtocolClient acProtocolClient;
 
-    private Map<String, Transaction> writeAheadLog = new LinkedHashMap<>();
+    @Autowired
+    private P2PService p2pService;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    private final ProposalTable proposals = new ProposalTable();
+
+    @Value("${ac.queue.max-waiting:16}")
+    private Integer queueMaxWaiting;
+
+    @Value("${ac.queue.wait-timeout:1000}")
+    private Long queueWaitTimeout;
+
+    @Value("${wal.dir:/tmp/sysdist-wal-${server.port}}")
+    private String walDir;
+
+    @Value("${wal.segment-size:1048576}")
+    private Integer walSegmentSize;
+
+    @Value("${wal.recycled-segments:2}")
+    private Integer walRecycledSegments;
+
+    @Value("${wal.recovered-ttl:30000}")
+    private Long walRecoveredTtl;
+
+    private WriteAheadLog writeAheadLog;
+
+    @PostConstruct
+    public void init() throws IOException {
+        writeAheadLog = new WriteAheadLog(new File(walDir, "ac"), walSegmentSize, walRecycledSegments);
+        List<Transaction> recovered = new ArrayList<>(writeAheadLog.open().values());
+        proposals.restore(recovered);
+        if (!recovered.isEmpty()) {
+            log.info("- recovered {} pending proposals\n", recovered.size());
+            expireRecovered(recovered);
+        }
+    }
+
+    /**
+     * Nothing tells which coordinator sent a recovered proposal, and it may
+     * be gone: whatever is still undecided after wal.recovered-ttl is
+     * rolled back, so that its key is not locked forever.
+     */
+    private void expireRecovered(List<Transaction> recovered) {
+        List<String> ids = recovered.stream().map(Transaction::get_ID).collect(Collectors.toList());
+        Mono.delay(Duration.ofMillis(walRecoveredTtl))
+                .flatMap(tick -> storageExecutor.call(() -> rollbackAll(ids)))
+                .subscribe(expired -> log.info("- rolled back {} expired recovered proposals\n", expired.size()),
+                        error -> log.info("- cannot expire the recovered proposals: {}\n", error.getMessage()));
+    }
+
+    @PreDestroy
+    public void close() {
+        writeAheadLog.close();
+    }
 
+    /**
+     * A key this node does not own is read from its first owner.
+     */
     @Override
     public Mono<ResponseEntity> get(String key) {
         log.info("AC Service - get for {}\n", key);
 
+        if (!p2pService.isOwner(key)) {
+            String owner = p2pService.getOwners(key).get(0);
+            log.info("- {} not owned, reading it from {}\n", key, owner);
+            return acProtocolClient.read(key, owner)
+                    .<ResponseEntity>map(entity -> ResponseEntity.status(entity.getStatusCode()).body(entity.getBody()))
+                    .onErrorResume(error -> Mono.just(ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(error.getMessage())));
+        }
         return handleGet(key);
     }
 
@@ -46,7 +129,55 @@ public class ACProtocolService implements ProtocolService {
         log.info("AC Service - Proposing to peers\n");
 
         Transaction transaction = new Transaction(key, value);
-        return handleSet(transaction);
+        return handleSet(Collections.singletonList(transaction));
+    }
+
+    /**
+     * The keys this node does not own are read in one batch per owner.
+     */
+    @Override
+    public Mono<ResponseEntity> getAll(List<String> keys) {
+        log.info("AC Service - get for {}\n", keys);
+
+        List<String> owned = new ArrayList<>();
+        Map<String, List<String>> keysByOwner = new LinkedHashMap<>();
+        for (String key : keys) {
+            if (p2pService.isOwner(key)) {
+                owned.add(key);
+            } else {
+                keysByOwner.computeIfAbsent(p2pService.getOwners(key).get(0), owner -> new ArrayList<>()).add(key);
+            }
+        }
+
+        return storageExecutor.call(() -> toMap(recordStore.findByKeyIn(owned))).<ResponseEntity>flatMap(values -> {
+            if (keysByOwner.isEmpty()) {
+                return Mono.just(ResponseEntity.ok().body(values));
+            }
+
+            return Flux.fromIterable(keysByOwner.entrySet())
+                    .flatMap(entry -> acProtocolClient.readAll(entry.getValue(), entry.getKey()))
+                    .collectList()
+                    .<ResponseEntity>map(remote -> {
+                        remote.forEach(values::putAll);
+                        return ResponseEntity.ok().body(values);
+                    })
+                    .onErrorResume(error -> Mono.just(ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(error.getMessage())));
+        });
+    }
+
+    @Override
+    public Mono<ResponseEntity> setAll(Map<String, String> values) throws Exception {
+        log.info("AC Service - Proposing batch of {} to peers\n", values.size());
+
+        List<Transaction> transactions = values.entrySet()
+                .stream()
+                .map(entry -> new Transaction(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+        if (transactions.isEmpty()) {
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Nothing to store"));
+        }
+
+        return handleSet(transactions);
     }
 
     @Override
@@ -56,41 +187,143 @@ public class ACProtocolService implements ProtocolService {
 
     @Override
     public void onCleanup() {
-        writeAheadLog.clear();
+        proposals.clear();
+        writeAheadLog.reset();
     }
 
-    public boolean propose(Transaction transaction) {
+    /**
+     * A proposal on a key already proposed waits in the key's queue, up to
+     * ac.queue.max-waiting of them for ac.queue.wait-timeout (shorter than
+     * the client timeout of the coordinator), and is admitted as soon as
+     * the one ahead commits or rolls back. It is refused only when the
+     * queue is full or the wait times out; the timeout also breaks the
+     * cycles between coordinators whose proposals reach two participants
+     * in opposite orders.
+     *
+     * The admission completes on whatever thread released the key, or on
+     * the timer; the proposal is written to the WAL on a storage thread,
+     * and frees the key again if that fails or the storage queue is full.
+     */
+    public Mono<Boolean> propose(Transaction transaction) {
+        ProposalTable.Waiter waiter = proposals.enqueue(transaction, queueMaxWaiting);
+        if (!waiter.getAdmission().isDone()) {
+            metricsRegistry.counter("ac_proposals_queued").increment();
+            log.info("- proposal {} for key {} queued, {} waiting\n", transaction.get_ID(), transaction.getKey(), proposals.waiting(transaction.getKey()));
+        }
 
-        if (!isAProposalPresentFor(transaction.getKey())) {
-            log.info("- accepted proposal {} for key {}\n", transaction.get_ID(), transaction.getKey());
-            writeAheadLog.put(transaction.get_ID(), transaction);
-            return true;
-        } else {
-            log.info("- refused proposal {} for key {} (already present)\n", transaction.get_ID(), transaction.getKey());
-            return false;
+        return Mono.fromFuture(waiter.getAdmission())
+                .timeout(Duration.ofMillis(queueWaitTimeout), Mono.fromCallable(() -> {
+                    boolean admitted = !proposals.cancel(waiter);
+                    if (!admitted) {
+                        metricsRegistry.counter("ac_proposals_queue_timeouts").increment();
+                    }
+                    return admitted;
+                }))
+                .flatMap(admitted -> admitted
+                        ? storageExecutor.call(() -> accepted(transaction)).doOnError(e -> proposals.remove(transaction.get_ID()))
+                        : Mono.just(refused(transaction)));
+    }
+
+    private boolean accepted(Transaction transaction) {
+        writeAheadLog.propose(transaction);
+        log.info("- accepted proposal {} for key {}\n", transaction.get_ID(), transaction.getKey());
+        return true;
+    }
+
+    private boolean refused(Transaction transaction) {
+        log.info("- refused proposal {} for key {} (already present)\n", transaction.get_ID(), transaction.getKey());
+        return false;
+    }
+
+    /**
+     * A batch waits for its keys like a single proposal, all or nothing:
+     * see {@link ProposalTable#enqueueAll(List, int)}.
+     */
+    public Mono<Boolean> proposeAll(List<Transaction> transactions) {
+        ProposalTable.Batch batch = proposals.enqueueAll(transactions, queueMaxWaiting);
+        if (!batch.getAdmission().isDone()) {
+            metricsRegistry.counter("ac_proposals_queued").increment();
+            log.info("- batch of {} proposals queued\n", transactions.size());
         }
+
+        return Mono.fromFuture(batch.getAdmission())
+                .timeout(Duration.ofMillis(queueWaitTimeout), Mono.fromCallable(() -> {
+                    boolean admitted = !proposals.cancel(batch);
+                    if (!admitted) {
+                        metricsRegistry.counter("ac_proposals_queue_timeouts").increment();
+                    }
+                    return admitted;
+                }))
+                .flatMap(admitted -> admitted
+                        ? storageExecutor.call(() -> acceptedAll(transactions))
+                                .doOnError(e -> transactions.forEach(transaction -> proposals.remove(transaction.get_ID())))
+                        : Mono.just(refusedAll(transactions)));
+    }
+
+    private boolean acceptedAll(List<Transaction> transactions) {
+        writeAheadLog.proposeAll(transactions);
+        log.info("- accepted batch of {} proposals\n", transactions.size());
+        return true;
+    }
+
+    private boolean refusedAll(List<Transaction> transactions) {
+        log.info("- refused batch of {} proposals (keys already present)\n", transactions.size());
+        return false;
     }
 
+    /**
+     * The key is released only once the record and the decision are
+     * persisted: the next proposal on it cannot commit before this one.
+     */
     public Record commit(String id) {
-        Transaction transaction = writeAheadLog.get(id);
+        Transaction transaction = proposals.claim(id);
 
         if (transaction != null) {
-            Record record = recordRepository.save(new Record(transaction.getKey(), transaction.getValue()));
-            writeAheadLog.remove(id);
-            log.info("- successfully committed proposal {}\n", id);
-            return record;
+            try {
+                Record record = recordStore.save(new Record(transaction.getKey(), transaction.getValue()));
+                writeAheadLog.commit(id);
+                log.info("- successfully committed proposal {}\n", id);
+                return record;
+            } finally {
+                proposals.release(transaction);
+            }
         } else {
             log.info("- failed to find proposal {}\n", id);
             return null;
         }
     }
 
+    public List<Record> commitAll(List<String> ids) {
+        List<Transaction> transactions = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Transaction transaction = proposals.claim(id);
+            if (transaction != null) {
+                transactions.add(transaction);
+            } else {
+                log.info("- failed to find proposal {}\n", id);
+            }
+        }
+
+        try {
+            List<Record> records = recordStore.saveAll(toRecords(transactions));
+            writeAheadLog.commitAll(transactions.stream().map(Transaction::get_ID).collect(Collectors.toList()));
+            log.info("- successfully committed {} proposals\n", records.size());
+            return records;
+        } finally {
+            transactions.forEach(proposals::release);
+        }
+    }
+
     public Transaction rollback(String id) {
-        Transaction transaction = writeAheadLog.get(id);
+        Transaction transaction = proposals.claim(id);
 
         if (transaction != null) {
-            transaction = writeAheadLog.remove(id);
-            log.info("- successfully rolled back proposal {}\n", id);
+            try {
+                writeAheadLog.rollback(id);
+                log.info("- successfully rolled back proposal {}\n", id);
+            } finally {
+                proposals.release(transaction);
+            }
         } else {
             log.info("- failed to find proposal {}\n", id);
         }
@@ -98,26 +331,37 @@ public class ACProtocolService implements ProtocolService {
         return transaction;
     }
 
-    private Mono<ResponseEntity> handleGet(String key) {
-        return new Mono<ResponseEntity>() {
-            @Override
-            public void subscribe(CoreSubscriber<? super ResponseEntity> actual) {
-                actual.onNext(ResponseEntity.ok().body(recordRepository.findByKey(key).toString()));
-                actual.onComplete();
+    public List<Transaction> rollbackAll(List<String> ids) {
+        List<Transaction> transactions = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Transaction transaction = rollback(id);
+            if (transaction != null) {
+                transactions.add(transaction);
             }
-        };
+        }
+        return transactions;
     }
 
-    private Mono<ResponseEntity> handleSet(Transaction transaction) {
+    private Mono<ResponseEntity> handleGet(String key) {
+        return storageExecutor.<ResponseEntity>call(() -> ResponseEntity.ok().body(recordStore.findByKey(key).toString()));
+    }
+
+    private Mono<ResponseEntity> handleSet(List<Transaction> transactions) {
         return new Mono<ResponseEntity>() {
 
             CoreSubscriber<? super ResponseEntity> actual;
 
+            Object subject = transactions.size() == 1 ? transactions.get(0) : transactions;
+
+            List<String> ids = transactions.stream().map(Transaction::get_ID).collect(Collectors.toList());
+
+            List<String> peers = p2pService.getPeers(transactions.stream().map(Transaction::getKey).collect(Collectors.toList()));
+
             @Override
             public void subscribe(CoreSubscriber<? super ResponseEntity> actual) {
                 this.actual = actual;
 
-                acProtocolClient.propose(transaction)
+                acProtocolClient.propose(transactions, peers)
                         .subscribe(this::handleProposeResult
                                 , this::handleError);
             }
@@ -125,16 +369,16 @@ public class ACProtocolService implements ProtocolService {
             private void handleProposeResult(List<ClientResponse> clientResponses) {
 
                 if (isAgreementReached(clientResponses)) {
-                    log.info("Propose for {} succeed sending commit to peers\n", transaction);
+                    log.info("Propose for {} succeed sending commit to peers\n", subject);
 
-                    acProtocolClient.commit(transaction.get_ID())
+                    acProtocolClient.commit(ids, peers)
                             .subscribe(this::handleCommitResult
                                     , this::handleError);
                 } else {
-                    log.error("Propose for {} failed sending rollback to peers\n", transaction);
+                    log.error("Propose for {} failed sending rollback to peers\n", subject);
 
                     acProtocolClient
-                            .rollback(transaction.get_ID(),
+                            .rollback(ids,
                                     clientResponses)
                             .subscribe(this::handleRollBackResult
                                     , this::handleError);
@@ -146,22 +390,25 @@ public class ACProtocolService implements ProtocolService {
             }
 
             private void handleCommitResult(Boolean resultCommit) {
-                log.info("Peers Committed {}\n", transaction);
-
-                recordRepository.save(new Record(transaction.getKey(), transaction.getValue()));
-
-                actual.onNext(ResponseEntity
-                        .status(HttpStatus.OK)
-                        .body("Stored " + transaction.toString()));
-                actual.onComplete();
+                log.info("Peers Committed {}\n", subject);
+
+                storageExecutor.call(() -> recordStore.saveAll(toRecords(transactions.stream()
+                        .filter(transaction -> p2pService.isOwner(transaction.getKey()))
+                        .collect(Collectors.toList()))))
+                        .subscribe(records -> {
+                            actual.onNext(ResponseEntity
+                                    .status(HttpStatus.OK)
+                                    .body("Stored " + subject.toString()));
+                            actual.onComplete();
+                        }, this::handleError);
             }
 
             private void handleRollBackResult(Boolean RollBack) {
-                log.info("Peers Rolled Back {}\n", transaction);
+                log.info("Peers Rolled Back {}\n", subject);
 
                 actual.onNext(ResponseEntity
                         .status(HttpStatus.BAD_REQUEST)
-                        .body("Roll Backed " + transaction.toString()));
+                        .body("Roll Backed " + subject.toString()));
                 actual.onComplete();
             }
 
@@ -174,11 +421,18 @@ public class ACProtocolService implements ProtocolService {
         };
     }
 
-    private boolean isAProposalPresentFor(String key) {
-        return this.writeAheadLog
-                .entrySet()
-                .stream()
-                .anyMatch(stringRecordEntry -> stringRecordEntry.getValue().getKey().equals(key));
+    private static List<Record> toRecords(List<Transaction> transactions) {
+        return transactions.stream()
+                .map(transaction -> new Record(transaction.getKey(), transaction.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    private static Map<String, String> toMap(List<Record> records) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Record record : records) {
+            values.put(record.getKey(), record.getVal());
+        }
+        return values;
     }
 
     @Override
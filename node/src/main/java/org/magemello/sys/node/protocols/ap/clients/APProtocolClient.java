@@ -1,21 +1,25 @@
 package org.magemello.sys.node.protocols.ap.clients;
 
-import static org.springframework.http.client.reactive.WebClientFactory.newWebClient;
-
 import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
+import org.magemello.sys.node.codec.PeerCodec;
+import org.magemello.sys.node.metrics.MetricsRegistry;
 import org.magemello.sys.node.protocols.ac.domain.Transaction;
 import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.protocols.ap.domain.RecordDigest;
 import org.magemello.sys.node.service.P2PService;
+import org.magemello.sys.node.service.ReplicaSelector;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.WebClientFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -29,93 +33,276 @@ public class APProtocolClient {
     @Autowired
     private P2PService p2pService;
 
-    public Mono<List<ClientResponse>> propose(Transaction transaction) {
-        return Flux.fromIterable(p2pService.getPeers())
-                .flatMap(peer -> createWebClientPropose(transaction, peer), p2pService.getPeers().size())
+    @Autowired
+    private WebClient webClient;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private PeerCodec peerCodec;
+
+    @Autowired
+    private ReplicaSelector replicaSelector;
+
+    /**
+     * @param peers the owners of the keys, see {@link P2PService#getPeers(java.util.Collection)}
+     */
+    public Mono<List<ClientResponse>> propose(List<Transaction> transactions, List<String> peers) {
+        return Flux.fromIterable(peers)
+                .flatMap(peer -> metricsRegistry.timed("ap_propose", peer, createWebClientPropose(transactions, peer)), Math.max(1, peers.size()))
                 .timeout(Duration.ofMillis(clientTimeout))
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.REQUEST_TIMEOUT).build()))
                 .collectList();
     }
 
-    public Flux<ClientResponse> commit(String id) {
-        return Flux.fromIterable(p2pService.getPeers())
-                .flatMap(peer -> createWebClientCommit(id, peer), p2pService.getPeers().size())
+    public Flux<ClientResponse> commit(List<String> ids, List<String> peers) {
+        return Flux.fromIterable(peers)
+                .flatMap(peer -> metricsRegistry.timed("ap_commit", peer, createWebClientCommit(ids, peer)), Math.max(1, peers.size()))
                 .timeout(Duration.ofMillis(clientTimeout))
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.REQUEST_TIMEOUT).build()))
                 .filter(response -> !response.statusCode().isError());
     }
 
-    public Mono<Boolean> rollback(String id, List<ClientResponse> clientResponses) {
+    public Mono<Boolean> rollback(List<String> ids, List<ClientResponse> clientResponses) {
 
         List<String> peers = getNotFailingPeers(clientResponses);
 
         return Flux.fromIterable(peers)
-                .flatMap(peer -> createWebClientRollBack(id, peer), p2pService.getPeers().size())
+                .flatMap(peer -> metricsRegistry.timed("ap_rollback", peer, createWebClientRollBack(ids, peer)), Math.max(1, peers.size()))
                 .timeout(Duration.ofMillis(clientTimeout))
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.REQUEST_TIMEOUT).build()))
                 .all(response -> !response.statusCode().isError());
     }
 
 
-    public Flux<ClientResponse> repair(List<ResponseEntity<APRecord>> responseEntity, APRecord record) {
+    public Flux<ClientResponse> repair(List<String> peers, APRecord record) {
+        return Flux.fromIterable(peers)
+                .flatMap(peer -> {
+                    metricsRegistry.counter("ap_repaired_records", peer).increment();
+                    return metricsRegistry.timed("ap_repair", peer, createWebClientRepair(record, peer));
+                }, p2pService.getPeers().size());
+    }
+
 
-        List<String> peers = getDisaccordingPeers(responseEntity, record);
+    public Flux<ClientResponse> repairAll(Map<String, List<APRecord>> recordsByPeer) {
+        return Flux.fromIterable(recordsByPeer.entrySet())
+                .flatMap(entry -> {
+                    metricsRegistry.counter("ap_repaired_records", entry.getKey()).add(entry.getValue().size());
+                    return metricsRegistry.timed("ap_repair_batch", entry.getKey(), createWebClientRepairAll(entry.getValue(), entry.getKey()));
+                }, p2pService.getPeers().size());
+    }
 
-        return Flux.fromIterable(peers)
-                .flatMap(peer -> createWebClientRepair(record, peer), p2pService.getPeers().size());
+    /**
+     * Replays hinted writes to a single peer.
+     */
+    public Mono<ClientResponse> handoff(List<APRecord> records, String peer) {
+        return metricsRegistry.timed("ap_hint", peer, createWebClientRepairAll(records, peer))
+                .timeout(Duration.ofMillis(clientTimeout))
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.REQUEST_TIMEOUT).build()));
     }
 
+    /**
+     * Hashes of the given Merkle tree nodes on a single peer, from the tree
+     * of the keys that peer shares with this node.
+     */
+    public Mono<List<Long>> treeHashes(List<Integer> nodes, String peer) {
+        return metricsRegistry.timed("ap_tree_hashes", peer, createWebClientTree("hashes", nodes, peer))
+                .flatMap(clientResponse -> clientResponse.statusCode().isError()
+                        ? WebClientFactory.drained(clientResponse).then(Mono.<List<Long>>error(new IllegalStateException(peer + " answered " + clientResponse.statusCode())))
+                        : clientResponse.bodyToFlux(Long.class).collectList())
+                .timeout(Duration.ofMillis(clientTimeout));
+    }
+
+    /**
+     * Records stored under the given Merkle tree leaves on a single peer.
+     */
+    public Mono<List<APRecord>> treeLeaves(List<Integer> leaves, String peer) {
+        return metricsRegistry.timed("ap_tree_leaves", peer, createWebClientTree("leaves", leaves, peer))
+                .flatMap(clientResponse -> clientResponse.statusCode().isError()
+                        ? WebClientFactory.drained(clientResponse).then(Mono.<List<APRecord>>error(new IllegalStateException(peer + " answered " + clientResponse.statusCode())))
+                        : clientResponse.bodyToFlux(APRecord.class).collectList())
+                .timeout(Duration.ofMillis(clientTimeout));
+    }
 
-    public Flux<ResponseEntity<APRecord>> read(String key) {
-        return Flux.fromIterable(p2pService.getPeers())
-                .flatMap(peer -> createWebClientRead(key, peer), p2pService.getPeers().size())
-                .flatMap(clientResponse -> clientResponse.toEntity(APRecord.class));
+    /**
+     * Digest of the record held by a single peer, see {@link RecordDigest};
+     * empty if the peer fails or does not answer in time.
+     */
+    public Mono<ResponseEntity<Long>> readDigest(String key, String peer) {
+        return replicaSelector.tracked(peer, metricsRegistry.timed("ap_digest", peer, createWebClientDigest(key, peer)))
+                .flatMap(clientResponse -> clientResponse.statusCode().isError()
+                        ? WebClientFactory.drained(clientResponse).then(Mono.<ResponseEntity<Long>>empty())
+                        : clientResponse.toEntity(Long.class))
+                .timeout(Duration.ofMillis(clientTimeout))
+                .onErrorResume(throwable -> Mono.empty());
+    }
 
+    /**
+     * Full record held by a single peer, read when its digest does not
+     * match the local one.
+     */
+    public Mono<ResponseEntity<APRecord>> read(String key, String peer) {
+        return replicaSelector.tracked(peer, metricsRegistry.timed("ap_read", peer, createWebClientRead(key, peer)))
+                .flatMap(clientResponse -> clientResponse.toEntity(APRecord.class))
+                .timeout(Duration.ofMillis(clientTimeout));
+    }
+
+    /**
+     * Asks every peer owning at least one of the keys; a peer answers only
+     * for the keys it holds.
+     */
+    public Flux<ResponseEntity<List<APRecord>>> readAll(List<String> keys) {
+        List<String> peers = p2pService.getPeers(keys);
+        return Flux.fromIterable(peers)
+                .flatMap(peer -> metricsRegistry.timed("ap_read_batch", peer, createWebClientReadAll(keys, peer)), Math.max(1, peers.size()))
+                .flatMap(clientResponse -> clientResponse.statusCode().isError()
+                        ? WebClientFactory.drained(clientResponse).then(Mono.<ResponseEntity<List<APRecord>>>empty())
+                        : clientResponse.toEntityList(APRecord.class))
+                .timeout(Duration.ofMillis(clientTimeout))
+                .onErrorResume(throwable -> Flux.empty());
+    }
+
+    private Mono<ClientResponse> createWebClientPropose(List<Transaction> transactions, String peer) {
+        if (transactions.size() == 1) {
+            return createWebClientPropose(transactions.get(0), peer);
+        }
+
+        return webClient
+                .post()
+                .uri("http://" + peer + "/ap/propose/_batch")
+                .contentType(peerCodec.contentType())
+                .syncBody(transactions)
+                .accept(peerCodec.accept())
+                .exchange()
+                .flatMap(WebClientFactory::drained)
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 
     private Mono<ClientResponse> createWebClientPropose(Transaction transaction, String peer) {
-        return newWebClient()
+        return webClient
                 .post()
                 .uri("http://" + peer + "/ap/propose")
+                .contentType(peerCodec.contentType())
                 .syncBody(transaction)
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(peerCodec.accept())
+                .exchange()
+                .flatMap(WebClientFactory::drained)
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
+    }
+
+    private Mono<ClientResponse> createWebClientCommit(List<String> ids, String peer) {
+        if (ids.size() == 1) {
+            return createWebClientCommit(ids.get(0), peer);
+        }
+
+        return webClient
+                .post()
+                .uri("http://" + peer + "/ap/commit/_batch")
+                .contentType(peerCodec.contentType())
+                .syncBody(ids)
+                .accept(peerCodec.accept())
                 .exchange()
+                .flatMap(WebClientFactory::drained)
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 
     private Mono<ClientResponse> createWebClientCommit(String id, String peer) {
-        return newWebClient()
+        return webClient
                 .post()
                 .uri("http://" + peer + "/ap/commit/" + id)
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(peerCodec.accept())
                 .exchange()
+                .flatMap(WebClientFactory::drained)
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
+    }
+
+    private Mono<ClientResponse> createWebClientRollBack(List<String> ids, String peer) {
+        if (ids.size() == 1) {
+            return createWebClientRollBack(ids.get(0), peer);
+        }
+
+        return webClient
+                .post()
+                .uri("http://" + peer + "/ap/rollback/_batch")
+                .contentType(peerCodec.contentType())
+                .syncBody(ids)
+                .accept(peerCodec.accept())
+                .exchange()
+                .flatMap(WebClientFactory::drained)
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 
     private Mono<ClientResponse> createWebClientRollBack(String id, String peer) {
-        return newWebClient()
+        return webClient
                 .post()
                 .uri("http://" + peer + "/ap/rollback/" + id)
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(peerCodec.accept())
                 .exchange()
+                .flatMap(WebClientFactory::drained)
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 
     private Mono<ClientResponse> createWebClientRepair(APRecord record, String peer) {
-        return newWebClient()
+        return webClient
                 .post()
                 .uri("http://" + peer + "/ap/repair")
+                .contentType(peerCodec.contentType())
                 .syncBody(record)
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(peerCodec.accept())
+                .exchange()
+                .flatMap(WebClientFactory::drained)
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
+    }
+
+    private Mono<ClientResponse> createWebClientRepairAll(List<APRecord> records, String peer) {
+        return webClient
+                .post()
+                .uri("http://" + peer + "/ap/repair/_batch")
+                .contentType(peerCodec.contentType())
+                .syncBody(records)
+                .accept(peerCodec.accept())
+                .exchange()
+                .flatMap(WebClientFactory::drained)
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
+    }
+
+    private Mono<ClientResponse> createWebClientReadAll(List<String> keys, String peer) {
+        return webClient
+                .post()
+                .uri("http://" + peer + "/ap/read/_batch")
+                .contentType(peerCodec.contentType())
+                .syncBody(keys)
+                .accept(peerCodec.accept())
+                .exchange()
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
+    }
+
+    private Mono<ClientResponse> createWebClientTree(String path, List<Integer> nodes, String peer) {
+        return webClient
+                .post()
+                .uri("http://" + peer + "/ap/tree/" + p2pService.getSelf() + "/" + path)
+                .contentType(peerCodec.contentType())
+                .syncBody(nodes)
+                .accept(peerCodec.accept())
+                .exchange()
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
+    }
+
+    private Mono<ClientResponse> createWebClientDigest(String key, String peer) {
+        return webClient
+                .get()
+                .uri("http://" + peer + "/ap/digest/" + key)
+                .accept(peerCodec.accept())
                 .exchange()
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 
     private Mono<ClientResponse> createWebClientRead(String key, String peer) {
-        return newWebClient()
+        return webClient
                 .get()
                 .uri("http://" + peer + "/ap/read/" + key)
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(peerCodec.accept())
                 .exchange()
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
@@ -126,16 +313,6 @@ public class APProtocolClient {
                 .map(clientResponse -> clientResponse.headers().header("x-sys-ip").stream().findFirst().get())
                 .collect(Collectors.toList());
     }
-
-    private List<String> getDisaccordingPeers(List<ResponseEntity<APRecord>> responseEntity, APRecord record) {
-        return responseEntity.stream().filter(
-                entity -> entity.getBody() == null || (entity.getBody() != null && !entity.getBody().getVal().equals(record.getVal())))
-                .map(responseEntityFromStream -> {
-
-                    return responseEntityFromStream.getHeaders().get("x-sys-ip").stream().findFirst().get();
-                })
-                .collect(Collectors.toList());
-    }
 }
 
 
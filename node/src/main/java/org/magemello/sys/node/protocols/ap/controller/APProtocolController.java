@@ -3,6 +3,7 @@ package org.magemello.sys.node.protocols.ap.controller;
 import org.magemello.sys.node.protocols.ac.domain.Transaction;
 import org.magemello.sys.node.protocols.ap.domain.APRecord;
 import org.magemello.sys.node.protocols.ap.service.APProtocolService;
+import org.magemello.sys.node.protocols.ap.service.AntiEntropyService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,6 +11,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController()
 @RequestMapping("ap")
 public class APProtocolController {
@@ -19,6 +22,9 @@ public class APProtocolController {
     @Autowired
     private APProtocolService apProtocolService;
 
+    @Autowired
+    private AntiEntropyService antiEntropyService;
+
     @PostMapping("propose")
     public ResponseEntity<String> propose(@RequestBody Transaction transaction) {
         log.info("\n/propose for transaction {}", transaction.get_ID());
@@ -33,6 +39,42 @@ public class APProtocolController {
         }
     }
 
+    @PostMapping("propose/_batch")
+    public ResponseEntity<String> proposeAll(@RequestBody List<Transaction> transactions) {
+        log.info("\n/propose for {} transactions", transactions.size());
+        if (transactions.stream().allMatch(this::isAValidTransaction)) {
+            if (apProtocolService.proposeAll(transactions)) {
+                return createResponse("AP QUORUM Propose - Accepted " + transactions.size() + " transaction proposals", HttpStatus.OK);
+            } else {
+                return createResponse("AP QUORUM Propose - Transactions for keys: " + transactions.toString(), HttpStatus.BAD_REQUEST);
+            }
+        } else {
+            return createResponse("AP QUORUM Propose - Refused proposals: " + transactions.toString(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @PostMapping("commit/_batch")
+    public ResponseEntity<String> commitAll(@RequestBody List<String> ids) {
+        log.info("\n/commit for transactions {}", ids);
+        List<APRecord> committedRecords = apProtocolService.commitAll(ids);
+        if (committedRecords.size() == ids.size()) {
+            return createResponse("AP QUORUM Commit - Transactions executed: " + committedRecords.toString(), HttpStatus.OK);
+        } else {
+            return createResponse("AP QUORUM Commit - Executed only " + committedRecords.size() + " of " + ids.size() + " transactions", HttpStatus.NOT_FOUND);
+        }
+    }
+
+    @PostMapping("rollback/_batch")
+    public ResponseEntity<String> rollbackAll(@RequestBody List<String> ids) {
+        log.info("\n/rollback for transactions {}", ids);
+        List<Transaction> transactionsRollBack = apProtocolService.rollbackAll(ids);
+        if (transactionsRollBack.size() == ids.size()) {
+            return createResponse("AP QUORUM Rollback - Executed: " + transactionsRollBack.toString(), HttpStatus.OK);
+        } else {
+            return createResponse("AP QUORUM Rollback - Executed only " + transactionsRollBack.size() + " of " + ids.size() + " transactions", HttpStatus.NOT_FOUND);
+        }
+    }
+
     @PostMapping("commit/{id}")
     public ResponseEntity<String> commit(@PathVariable String id) {
         log.info("\n/commit for transaction {}", id);
@@ -63,6 +105,21 @@ public class APProtocolController {
         return createResponse("AP QUORUM Repair - Executed: " + repairedRecord.toString(), HttpStatus.OK);
     }
 
+    @PostMapping("repair/_batch")
+    public ResponseEntity<String> repairAll(@RequestBody List<APRecord> records) {
+        log.info("\n/repair for {} records", records.size());
+        List<APRecord> repairedRecords = apProtocolService.repairAll(records);
+        return createResponse("AP QUORUM Repair - Executed: " + repairedRecords.toString(), HttpStatus.OK);
+    }
+
+    @PostMapping("read/_batch")
+    public ResponseEntity<List<APRecord>> readAll(@RequestBody List<String> keys) {
+        log.info("\n/read for keys {}", keys);
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(apProtocolService.readAll(keys));
+    }
+
     @GetMapping("read/{key}")
     public ResponseEntity<APRecord> read(@PathVariable String key) {
         log.info("\n/read for key {}", key);
@@ -72,6 +129,30 @@ public class APProtocolController {
 
     }
 
+    @GetMapping("digest/{key}")
+    public ResponseEntity<Long> digest(@PathVariable String key) {
+        log.info("\n/digest for key {}", key);
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(apProtocolService.digest(key));
+    }
+
+    @PostMapping("tree/{peer}/hashes")
+    public ResponseEntity<List<Long>> treeHashes(@PathVariable String peer, @RequestBody List<Integer> nodes) {
+        log.debug("\n/tree/hashes for {} nodes from {}", nodes.size(), peer);
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(antiEntropyService.hashes(peer, nodes));
+    }
+
+    @PostMapping("tree/{peer}/leaves")
+    public ResponseEntity<List<APRecord>> treeLeaves(@PathVariable String peer, @RequestBody List<Integer> leaves) {
+        log.info("\n/tree/leaves for {} leaves from {}", leaves.size(), peer);
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(antiEntropyService.records(peer, leaves));
+    }
+
     private boolean isAValidTransaction(@RequestBody Transaction transaction) {
         return transaction != null && transaction.getKey() != null && transaction.get_ID() != null;
     }
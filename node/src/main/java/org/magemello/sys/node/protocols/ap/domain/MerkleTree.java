@@ -0,0 +1,95 @@
+package org.magemello.sys.node.protocols.ap.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hash tree over the key space, kept up to date on every write.
+ *
+ * Keys are spread over 2^depth leaves by hash. A leaf hash is the XOR of
+ * the digests of its records (see {@link RecordDigest}) and an inner node
+ * is the XOR of its children, so a write only flips the hashes on the path
+ * from its leaf to the root. Nodes are numbered as in a binary heap: the root is 1,
+ * the children of n are 2n and 2n+1.
+ */
+public class MerkleTree {
+
+    public static final int ROOT = 1;
+
+    private final int depth;
+
+    private final long[] nodes;
+
+    private final Map<String, Long> recordHashes = new HashMap<>();
+
+    private final Map<Integer, Set<String>> leafKeys = new HashMap<>();
+
+    public MerkleTree(int depth) {
+        this.depth = depth;
+        this.nodes = new long[2 << depth];
+    }
+
+    /**
+     * @param value the new value of the key, null if it was removed
+     */
+    public synchronized void update(String key, String value) {
+        long newHash = RecordDigest.of(key, value);
+        Long oldHash = value != null ? recordHashes.put(key, newHash) : recordHashes.remove(key);
+        long delta = newHash ^ (oldHash != null ? oldHash : 0);
+        if (delta == 0) {
+            return;
+        }
+
+        int leaf = leafOf(key);
+        if (value != null) {
+            leafKeys.computeIfAbsent(leaf, l -> new HashSet<>()).add(key);
+        } else if (leafKeys.containsKey(leaf)) {
+            leafKeys.get(leaf).remove(key);
+        }
+
+        for (int node = leaf; node >= ROOT; node >>>= 1) {
+            nodes[node] ^= delta;
+        }
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(nodes, 0);
+        recordHashes.clear();
+        leafKeys.clear();
+    }
+
+    public synchronized List<Long> hashes(List<Integer> nodeIndexes) {
+        List<Long> hashes = new ArrayList<>(nodeIndexes.size());
+        for (Integer node : nodeIndexes) {
+            hashes.add(isValid(node) ? nodes[node] : 0L);
+        }
+        return hashes;
+    }
+
+    public synchronized long hash(int node) {
+        return nodes[node];
+    }
+
+    public synchronized Set<String> keys(int leaf) {
+        Set<String> keys = leafKeys.get(leaf);
+        return keys != null ? new HashSet<>(keys) : Collections.emptySet();
+    }
+
+    public boolean isLeaf(int node) {
+        return node >= (1 << depth);
+    }
+
+    public boolean isValid(int node) {
+        return node >= ROOT && node < nodes.length;
+    }
+
+    public int leafOf(String key) {
+        return (1 << depth) + (int) (RecordDigest.ofKey(key) & ((1 << depth) - 1));
+    }
+}
@@ -0,0 +1,43 @@
+package org.magemello.sys.node.protocols.ap.domain;
+
+import java.nio.charset.StandardCharsets;
+
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.util.Hashing;
+
+/**
+ * 64 bit digest of a record ({@link Hashing} over key and value). Shared by the Merkle tree and the digest reads, so replicas
+ * compare records without shipping their values.
+ *
+ * The timestamp is left out on purpose: each replica stamps its own commit
+ * time, so two replicas holding the same value would never agree on it.
+ */
+public final class RecordDigest {
+
+    /**
+     * Digest of a missing record.
+     */
+    public static final long NONE = 0L;
+
+    private RecordDigest() {
+    }
+
+    public static long of(Record record) {
+        return record != null ? of(record.getKey(), record.getVal()) : NONE;
+    }
+
+    public static long of(String key, String value) {
+        if (value == null) {
+            return NONE;
+        }
+        long hash = Hashing.fnv(key.getBytes(StandardCharsets.UTF_8), Hashing.FNV_OFFSET);
+        hash = (hash ^ 0xff) * Hashing.FNV_PRIME;
+        hash = Hashing.fnv(value.getBytes(StandardCharsets.UTF_8), hash);
+        hash = Hashing.mix(hash);
+        return hash != NONE ? hash : 1L;
+    }
+
+    public static long ofKey(String key) {
+        return Hashing.hash(key);
+    }
+}
@@ -1,10 +1,18 @@
 package org.magemello.sys.node.protocols.ap.service;
 
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.magemello.sys.node.protocols.ac.domain.ProposalTable;
 import org.magemello.sys.node.protocols.ac.domain.Transaction;
 import org.magemello.sys.node.protocols.ap.clients.APProtocolClient;
 import org.magemello.sys.node.protocols.ap.domain.APRecord;
-import org.magemello.sys.node.repository.RecordRepository;
+import org.magemello.sys.node.protocols.ap.domain.RecordDigest;
+import org.magemello.sys.node.repository.RecordStore;
+import org.magemello.sys.node.repository.StorageExecutor;
+import org.magemello.sys.node.service.P2PService;
+import org.magemello.sys.node.service.ReplicaSelector;
 import org.magemello.sys.node.service.ProtocolService;
+import org.magemello.sys.node.wal.WriteAheadLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,7 +24,13 @@ import org.springframework.web.reactive.function.client.ClientResponse;
 import reactor.core.CoreSubscriber;
 import reactor.core.publisher.Mono;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -29,12 +43,28 @@ public class APProtocolService implements ProtocolService {
     private static final Logger log = LoggerFactory.getLogger(APProtocolService.class);
 
     @Autowired
-    RecordRepository recordRepository;
+    RecordStore recordStore;
+
+    @Autowired
+    private StorageExecutor storageExecutor;
 
     @Autowired
     private APProtocolClient apProtocolClient;
 
-    private Map<String, Transaction> writeAheadLog = new LinkedHashMap<>();
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private P2PService p2pService;
+
+    @Autowired
+    private HintedHandoff hintedHandoff;
+
+    @Autowired
+    private AntiEntropyService antiEntropy;
+
+    @Autowired
+    private ReplicaSelector replicaSelector;
 
     @Value("${read-quorum:2}")
     private Integer readQuorum;
@@ -42,73 +72,247 @@ public class APProtocolService implements ProtocolService {
     @Value("${write-quorum:1}")
     private Integer writeQuorum;
 
+    private final ProposalTable proposals = new ProposalTable();
+
+    @Value("${wal.dir:/tmp/sysdist-wal-${server.port}}")
+    private String walDir;
+
+    @Value("${wal.segment-size:1048576}")
+    private Integer walSegmentSize;
+
+    @Value("${wal.recycled-segments:2}")
+    private Integer walRecycledSegments;
+
+    @Value("${wal.recovered-ttl:30000}")
+    private Long walRecoveredTtl;
+
+    private WriteAheadLog writeAheadLog;
+
+    @PostConstruct
+    public void init() throws IOException {
+        writeAheadLog = new WriteAheadLog(new File(walDir, "ap"), walSegmentSize, walRecycledSegments);
+        List<Transaction> recovered = new ArrayList<>(writeAheadLog.open().values());
+        proposals.restore(recovered);
+        if (!recovered.isEmpty()) {
+            log.info("\n- recovered {} pending proposals", recovered.size());
+            expireRecovered(recovered);
+        }
+    }
+
+    /**
+     * Nothing tells which coordinator sent a recovered proposal, and it may
+     * be gone: whatever is still undecided after wal.recovered-ttl is
+     * rolled back, so that its key is not locked forever.
+     */
+    private void expireRecovered(List<Transaction> recovered) {
+        List<String> ids = recovered.stream().map(Transaction::get_ID).collect(Collectors.toList());
+        Mono.delay(Duration.ofMillis(walRecoveredTtl))
+                .flatMap(tick -> storageExecutor.call(() -> rollbackAll(ids)))
+                .subscribe(expired -> log.info("\n- rolled back {} expired recovered proposals", expired.size()),
+                        error -> log.info("\n- cannot expire the recovered proposals: {}", error.getMessage()));
+    }
+
+    @PreDestroy
+    public void close() {
+        writeAheadLog.close();
+    }
+
+    /**
+     * Digest read: the coordinator holds the full value locally and asks
+     * the peers only for the digest of theirs. A full value travels only
+     * when the digest that reaches the quorum, or wins the repair, differs
+     * from the local one.
+     *
+     * Only as many peers as the quorum needs are asked, the fastest first
+     * (see {@link ReplicaSelector}). Another peer is asked when one of them
+     * is slower than its p99, fails, or the answers do not agree.
+     *
+     * Only the owners of the key are asked. A coordinator that is not one
+     * of them holds no value, and its quorum is made of peers only.
+     */
     @Override
     public Mono<ResponseEntity> get(String key) {
         log.info("\nAP Service - get for {} ", key);
 
+        boolean local = p2pService.isOwner(key);
+        if (!local) {
+            return quorumRead(key, false, null);
+        }
+        return storageExecutor.call(() -> recordStore.findByKey(key))
+                .flatMap(record -> quorumRead(key, true, (APRecord) record.orElse(null)));
+    }
+
+    /**
+     * The local record, if this node owns the key, is read beforehand on a
+     * storage thread.
+     */
+    private Mono<ResponseEntity> quorumRead(String key, boolean local, APRecord localRecord) {
         return new Mono<ResponseEntity>() {
 
             private CoreSubscriber<? super ResponseEntity> actual;
 
             AtomicBoolean returnedValue = new AtomicBoolean(false);
 
-            List<String> matches = Collections.synchronizedList(new ArrayList<String>());
+            Map<Long, List<String>> peersByDigest = new HashMap<>();
+
+            Map<Long, Mono<Optional<APRecord>>> fetched = new HashMap<>();
+
+            long localDigest = RecordDigest.of(localRecord);
+
+            List<String> candidates;
+
+            int asked;
+
+            AtomicInteger pending = new AtomicInteger();
+
+            Set<String> answered = ConcurrentHashMap.newKeySet();
+
+            AtomicBoolean repaired = new AtomicBoolean(false);
+
+            long start;
 
             @Override
             public void subscribe(CoreSubscriber<? super ResponseEntity> actual) {
                 this.actual = actual;
-                APRecord record = (APRecord) recordRepository.findByKey(key).orElse(null);
-                if (record != null) {
-                    matches.add(record.getVal());
-                } else {
-                    matches.add(null);
-                }
+                this.start = System.nanoTime();
 
-                if (readQuorum == 1) {
+                if (local && readQuorum == 1) {
                     returnedValue.set(true);
-                    returnValue(record);
+                    returnValue(Optional.ofNullable(localRecord));
                 }
 
-                apProtocolClient.read(key).map(this::manageReadQuorum).collectList().subscribe((List<ResponseEntity<APRecord>> responseEntities) -> {
-                    log.info("\n - Sending repair to discording peers");
+                candidates = replicaSelector.rank(p2pService.getPeers(key));
+                int needed = Math.min(readQuorum - (local ? 1 : 0), candidates.size());
+                for (int i = 0; i < needed; i++) {
+                    askNext(false);
+                }
+                if (needed <= 0 && !returnedValue.getAndSet(true)) {
+                    returnError(new Throwable("Read quorum of " + readQuorum + " not reachable for " + key));
+                }
+            }
+
+            private synchronized boolean askNext(boolean speculative) {
+                if (asked >= candidates.size()) {
+                    return false;
+                }
 
-                    Map<String, Long> occurrences = matches.stream().filter(s -> s != null).collect(Collectors.groupingBy(w -> w, Collectors
-                            .counting()));
+                String peer = candidates.get(asked++);
+                pending.incrementAndGet();
+                if (speculative) {
+                    metricsRegistry.counter("ap_read_speculative", peer).increment();
+                }
 
-                    sendRepair(responseEntities, new APRecord(key, occurrences.entrySet().stream().max((entry1, entry2) ->
-                            entry1.getValue() > entry2.getValue() ? 1 : -1).get().getKey()));
-                });
+                apProtocolClient.readDigest(key, peer)
+                        .doFinally(signal -> answered(peer))
+                        .subscribe(this::manageReadQuorum);
+
+                Mono.delay(Duration.ofMillis(replicaSelector.speculativeDelay("ap_digest", peer)))
+                        .subscribe(tick -> {
+                            if (!answered.contains(peer) && !returnedValue.get()) {
+                                log.info("\n - {} slower than its p99, asking another peer", peer);
+                                askNext(true);
+                            }
+                        });
+                return true;
             }
 
-            private ResponseEntity<APRecord> manageReadQuorum(ResponseEntity<APRecord> apRecordResponseEntity) {
-                log.info("\n - key {} val {} from {}", getKeyRecord(apRecordResponseEntity), getValRecord(apRecordResponseEntity),
-                        apRecordResponseEntity.getHeaders().get("x-sys-ip").stream().findFirst().get().substring(10, 14));
+            private void answered(String peer) {
+                answered.add(peer);
+                if (pending.decrementAndGet() > 0) {
+                    return;
+                }
+                if (!returnedValue.get() && askNext(false)) {
+                    return;
+                }
+                if (!returnedValue.getAndSet(true)) {
+                    returnError(new Throwable("Read quorum of " + readQuorum + " not reached for " + key));
+                }
+                if (!repaired.getAndSet(true)) {
+                    log.info("\n - Sending repair to discording peers");
+                    repair();
+                }
+            }
 
-                APRecord record = apRecordResponseEntity.getBody();
-                Long matchRecordCounter;
+            private void manageReadQuorum(ResponseEntity<Long> response) {
+                String peer = response.getHeaders().getFirst("x-sys-ip");
+                long digest = response.getBody() != null ? response.getBody() : RecordDigest.NONE;
+                log.info("\n - key {} digest {} from {}", key, Long.toHexString(digest), peer);
 
-                if (record != null && record.getVal() != null) {
-                    matches.add(record.getVal());
-                    matchRecordCounter = matches.stream().filter(s -> s != null && s.equals(record.getVal())).count();
-                } else {
-                    matches.add(null);
-                    matchRecordCounter = matches.stream().filter(s -> s == null).count();
+                int matchRecordCounter;
+                synchronized (peersByDigest) {
+                    List<String> peers = peersByDigest.computeIfAbsent(digest, d -> new ArrayList<>());
+                    peers.add(peer);
+                    matchRecordCounter = peers.size() + (local && digest == localDigest ? 1 : 0);
                 }
 
                 if (matchRecordCounter >= readQuorum) {
                     if (!returnedValue.getAndSet(true)) {
-                        returnValue(record);
+                        fetch(digest, peer).subscribe(this::returnValue, this::returnError);
+                    }
+                }
+            }
+
+            /**
+             * The full record behind a digest: the local one when it
+             * matches, otherwise read once from a peer that answered it.
+             */
+            private Mono<Optional<APRecord>> fetch(long digest, String peer) {
+                if (local && digest == localDigest) {
+                    return Mono.just(Optional.ofNullable(localRecord));
+                }
+                if (digest == RecordDigest.NONE) {
+                    return Mono.just(Optional.empty());
+                }
+
+                synchronized (peersByDigest) {
+                    return fetched.computeIfAbsent(digest, d -> {
+                        metricsRegistry.counter("ap_digest_mismatches", peer).increment();
+                        return apProtocolClient.read(key, peer)
+                                .map(entity -> Optional.ofNullable(entity.getBody()))
+                                .cache();
+                    });
+                }
+            }
+
+            private void repair() {
+                Map<Long, Integer> occurrences = new HashMap<>();
+                synchronized (peersByDigest) {
+                    peersByDigest.forEach((digest, peers) -> occurrences.put(digest, peers.size()));
+                }
+                if (local) {
+                    occurrences.merge(localDigest, 1, Integer::sum);
+                }
+                occurrences.remove(RecordDigest.NONE);
+
+                Long winner = occurrences.entrySet().stream()
+                        .max(Map.Entry.comparingByValue())
+                        .map(Map.Entry::getKey)
+                        .orElse(null);
+                if (winner == null) {
+                    return;
+                }
+
+                List<String> discording = new ArrayList<>();
+                String source = null;
+                synchronized (peersByDigest) {
+                    for (Map.Entry<Long, List<String>> entry : peersByDigest.entrySet()) {
+                        if (entry.getKey().equals(winner)) {
+                            source = entry.getValue().get(0);
+                        } else {
+                            discording.addAll(entry.getValue());
+                        }
                     }
                 }
 
-                return apRecordResponseEntity;
+                fetch(winner, source).subscribe(record -> record.ifPresent(r -> sendRepair(discording, r)));
             }
 
-            private void returnValue(APRecord record) {
-                if (record != null) {
+            private void returnValue(Optional<APRecord> record) {
+                metricsRegistry.latency("ap_read_quorum").record(System.nanoTime() - start);
+                if (record.isPresent()) {
                     actual.onNext(ResponseEntity
                             .status(HttpStatus.OK)
-                            .body(record));
+                            .body(record.get()));
                     actual.onComplete();
                 } else {
                     actual.onNext(ResponseEntity
@@ -116,49 +320,158 @@ public class APProtocolService implements ProtocolService {
                     actual.onComplete();
                 }
             }
+
+            private void returnError(Throwable error) {
+                actual.onNext(ResponseEntity
+                        .status(HttpStatus.BAD_GATEWAY)
+                        .body(error.getMessage()));
+                actual.onComplete();
+            }
         };
     }
 
-    private String getKeyRecord(ResponseEntity<APRecord> apRecordResponseEntity) {
-        if (apRecordResponseEntity.getBody() != null) {
-            return apRecordResponseEntity.getBody().getKey();
-        } else {
-            return null;
+    private void sendRepair(List<String> peers, APRecord record) {
+        if (!peers.isEmpty()) {
+            apProtocolClient.repair(peers, record).subscribe(clientResponse -> {
+                log.info("\nAP Service - Repair {} status {}",
+                        clientResponse.headers().header("x-sys-ip").stream().findFirst().get(),
+                        clientResponse.statusCode());
+            });
         }
+
+        if (!p2pService.isOwner(record.getKey())) {
+            return;
+        }
+        storageExecutor.run(() -> {
+            APRecord localRecord = (APRecord) recordStore.findByKey(record.getKey()).orElse(null);
+            if (localRecord == null || !localRecord.getVal().equals(record.getVal())) {
+                store(record);
+            }
+        }).subscribe(done -> {
+        }, error -> log.info("\n- local repair of {} failed: {}", record.getKey(), error.getMessage()));
     }
 
-    private String getValRecord(ResponseEntity<APRecord> apRecordResponseEntity) {
-        if (apRecordResponseEntity.getBody() != null) {
-            return apRecordResponseEntity.getBody().getVal();
-        } else {
-            return null;
+    @Override
+    public Mono<ResponseEntity> set(String key, String value) throws Exception {
+        log.info("\nAP Service - Proposing to peers");
+        Transaction transaction = new Transaction(key, value);
+
+        return handleSet(Collections.singletonList(transaction));
+    }
+
+    @Override
+    public Mono<ResponseEntity> setAll(Map<String, String> values) throws Exception {
+        log.info("\nAP Service - Proposing batch of {} to peers", values.size());
+        List<Transaction> transactions = values.entrySet()
+                .stream()
+                .map(entry -> new Transaction(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+        if (transactions.isEmpty()) {
+            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Nothing to store"));
         }
+
+        return handleSet(transactions);
     }
 
-    private void sendRepair(List<ResponseEntity<APRecord>> responseEntity, APRecord record) {
-        apProtocolClient.repair(responseEntity, record).subscribe(clientResponse -> {
-            log.info("\nAP Service - Repair {} status {}",
-                    clientResponse.headers().header("x-sys-ip").stream().findFirst().get(),
-                    clientResponse.statusCode());
+    /**
+     * Batch read: every peer is asked for all the keys in one message, then
+     * each key is resolved independently with the same majority rule of
+     * {@link #get(String)}. Keys without a quorum are left out of the result.
+     *
+     * Only the peers owning at least one of the keys are asked, and only
+     * the answers (and the local record) of the owners count for a key.
+     */
+    @Override
+    public Mono<ResponseEntity> getAll(List<String> keys) {
+        log.info("\nAP Service - get for {} ", keys);
+
+        Map<String, APRecord> localRecords = new HashMap<>();
+        return storageExecutor.call(() -> readAll(keys)).flatMap(records -> {
+            for (APRecord record : records) {
+                localRecords.put(record.getKey(), record);
+            }
+            return apProtocolClient.readAll(keys).collectList();
+        }).flatMap(responseEntities -> {
+            Map<String, String> values = new LinkedHashMap<>();
+            Map<String, List<APRecord>> repairs = new HashMap<>();
+            List<APRecord> localRepairs = new ArrayList<>();
+
+            for (String key : keys) {
+                List<String> owners = p2pService.getPeers(key);
+                boolean local = p2pService.isOwner(key);
+
+                Map<String, Long> occurrences = new HashMap<>();
+                Map<String, APRecord> candidates = new HashMap<>();
+                if (local) {
+                    count(localRecords.get(key), occurrences, candidates);
+                }
+                for (ResponseEntity<List<APRecord>> entity : responseEntities) {
+                    if (owners.contains(peer(entity))) {
+                        count(findRecord(entity.getBody(), key), occurrences, candidates);
+                    }
+                }
+
+                Map.Entry<String, Long> best = occurrences.entrySet().stream().max(Map.Entry.comparingByValue()).orElse(null);
+                if (best == null || best.getValue() < readQuorum) {
+                    continue;
+                }
+
+                APRecord record = candidates.get(best.getKey());
+                values.put(key, record.getVal());
+
+                for (ResponseEntity<List<APRecord>> entity : responseEntities) {
+                    String peer = peer(entity);
+                    APRecord remote = findRecord(entity.getBody(), key);
+                    if (owners.contains(peer) && (remote == null || !record.getVal().equals(remote.getVal()))) {
+                        repairs.computeIfAbsent(peer, p -> new ArrayList<>()).add(record);
+                    }
+                }
+
+                APRecord localRecord = localRecords.get(key);
+                if (local && (localRecord == null || !record.getVal().equals(localRecord.getVal()))) {
+                    localRepairs.add(record);
+                }
+            }
+
+            if (!repairs.isEmpty()) {
+                log.info("\n - Sending batch repair to {} discording peers", repairs.size());
+                apProtocolClient.repairAll(repairs).subscribe(clientResponse -> {
+                    log.info("\nAP Service - Repair status {}", clientResponse.statusCode());
+                });
+            }
+
+            ResponseEntity response = ResponseEntity.ok().body(values);
+            if (localRepairs.isEmpty()) {
+                return Mono.just(response);
+            }
+            return storageExecutor.call(() -> storeAll(localRepairs)).map(stored -> response);
         });
+    }
 
-        APRecord localRecord = (APRecord) recordRepository.findByKey(record.getKey()).orElse(null);
-        if (localRecord == null || !localRecord.getVal().equals(record.getVal())) {
-            recordRepository.save(record);
+    private static void count(APRecord record, Map<String, Long> occurrences, Map<String, APRecord> candidates) {
+        if (record != null && record.getVal() != null) {
+            occurrences.merge(record.getVal(), 1L, Long::sum);
+            candidates.putIfAbsent(record.getVal(), record);
         }
     }
 
-    @Override
-    public Mono<ResponseEntity> set(String key, String value) throws Exception {
-        log.info("\nAP Service - Proposing to peers");
-        Transaction transaction = new Transaction(key, value);
+    private static String peer(ResponseEntity<?> entity) {
+        return entity.getHeaders().get("x-sys-ip").stream().findFirst().get();
+    }
 
-        return handleSet(transaction);
+    private static APRecord findRecord(List<APRecord> records, String key) {
+        if (records == null) {
+            return null;
+        }
+        return records.stream().filter(record -> key.equals(record.getKey())).findFirst().orElse(null);
     }
 
     @Override
     public void onCleanup() {
-        writeAheadLog.clear();
+        proposals.clear();
+        writeAheadLog.reset();
+        hintedHandoff.clear();
+        antiEntropy.clear();
     }
 
     @Override
@@ -168,9 +481,14 @@ public class APProtocolService implements ProtocolService {
 
 
     public boolean propose(Transaction transaction) {
-        if (!isAProposalPresentFor(transaction.getKey())) {
+        if (proposals.propose(transaction)) {
+            try {
+                writeAheadLog.propose(transaction);
+            } catch (RuntimeException e) {
+                proposals.remove(transaction.get_ID());
+                throw e;
+            }
             log.info("\n- accepted proposal {} for key {}", transaction.get_ID(), transaction.getKey());
-            writeAheadLog.put(transaction.get_ID(), transaction);
             return true;
         } else {
             log.info("\n- refused proposal {} for key {} (already present)", transaction.get_ID(), transaction.getKey());
@@ -178,26 +496,78 @@ public class APProtocolService implements ProtocolService {
         }
     }
 
+    public boolean proposeAll(List<Transaction> transactions) {
+        Transaction refused = proposals.proposeAll(transactions);
+        if (refused != null) {
+            log.info("\n- refused batch of {} proposals, key {} already present", transactions.size(), refused.getKey());
+            return false;
+        }
+
+        try {
+            writeAheadLog.proposeAll(transactions);
+        } catch (RuntimeException e) {
+            transactions.forEach(transaction -> proposals.remove(transaction.get_ID()));
+            throw e;
+        }
+        log.info("\n- accepted batch of {} proposals", transactions.size());
+        return true;
+    }
+
+    /**
+     * The key is released only once the record and the decision are
+     * persisted: the next proposal on it cannot commit before this one.
+     */
     public APRecord commit(String id) {
-        Transaction transaction = writeAheadLog.get(id);
+        Transaction transaction = proposals.claim(id);
 
         if (transaction != null) {
-            APRecord record = recordRepository.save(new APRecord(transaction.getKey(), transaction.getValue()));
-            writeAheadLog.remove(id);
-            log.info("\n- successfully committed proposal {}", id);
-            return record;
+            try {
+                APRecord record = store(new APRecord(transaction.getKey(), transaction.getValue()));
+                writeAheadLog.commit(id);
+                log.info("\n- successfully committed proposal {}", id);
+                return record;
+            } finally {
+                proposals.release(transaction);
+            }
         } else {
             log.info("\n- failed to find proposal {}", id);
             return null;
         }
     }
 
+    public List<APRecord> commitAll(List<String> ids) {
+        List<APRecord> records = new ArrayList<>(ids.size());
+        List<Transaction> found = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Transaction transaction = proposals.claim(id);
+            if (transaction != null) {
+                found.add(transaction);
+                records.add(new APRecord(transaction.getKey(), transaction.getValue()));
+            } else {
+                log.info("\n- failed to find proposal {}", id);
+            }
+        }
+
+        try {
+            List<APRecord> committed = storeAll(records);
+            writeAheadLog.commitAll(found.stream().map(Transaction::get_ID).collect(Collectors.toList()));
+            log.info("\n- successfully committed {} proposals", committed.size());
+            return committed;
+        } finally {
+            found.forEach(proposals::release);
+        }
+    }
+
     public Transaction rollback(String id) {
-        Transaction transaction = writeAheadLog.get(id);
+        Transaction transaction = proposals.claim(id);
 
         if (transaction != null) {
-            transaction = writeAheadLog.remove(id);
-            log.info("\n- successfully rolled back proposal {}", id);
+            try {
+                writeAheadLog.rollback(id);
+                log.info("\n- successfully rolled back proposal {}", id);
+            } finally {
+                proposals.release(transaction);
+            }
         } else {
             log.info("\n- failed to find proposal {}", id);
         }
@@ -205,32 +575,101 @@ public class APProtocolService implements ProtocolService {
         return transaction;
     }
 
+    public List<Transaction> rollbackAll(List<String> ids) {
+        List<Transaction> transactions = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Transaction transaction = rollback(id);
+            if (transaction != null) {
+                transactions.add(transaction);
+            }
+        }
+        return transactions;
+    }
+
     public APRecord repair(APRecord record) {
         log.info("\n- repair id {} ", record);
 
-        return recordRepository.save(record);
+        return isNewer(record) ? store(record) : record;
+    }
+
+    /**
+     * Used both by read repair and by hinted handoff: a record older than
+     * the local one (last write wins on the timestamp) is ignored.
+     */
+    public List<APRecord> repairAll(List<APRecord> records) {
+        log.info("\n- repair of {} records", records.size());
+
+        List<APRecord> newer = records.stream().filter(this::isNewer).collect(Collectors.toList());
+        return storeAll(newer);
+    }
+
+    /**
+     * Every write to the store goes through here, so that the anti-entropy
+     * tree stays in step with the stored records.
+     */
+    private APRecord store(APRecord record) {
+        APRecord stored = recordStore.save(record);
+        antiEntropy.updated(stored);
+        return stored;
+    }
+
+    private List<APRecord> storeAll(List<APRecord> records) {
+        List<APRecord> stored = recordStore.saveAll(records);
+        stored.forEach(antiEntropy::updated);
+        return stored;
+    }
+
+    private boolean isNewer(APRecord record) {
+        Record local = recordStore.findByKey(record.getKey()).orElse(null);
+        if (!(local instanceof APRecord) || record.getTimestamp() == null) {
+            return true;
+        }
+        Long timestamp = ((APRecord) local).getTimestamp();
+        return timestamp == null || record.getTimestamp() >= timestamp;
     }
 
     public APRecord read(String key) {
         log.info("\n- read record for key {} ", key);
-        return (APRecord) recordRepository.findByKey(key).orElse(null);
+        return (APRecord) recordStore.findByKey(key).orElse(null);
     }
 
-    private Mono<ResponseEntity> handleSet(Transaction transaction) {
+    public long digest(String key) {
+        return RecordDigest.of(recordStore.findByKey(key).orElse(null));
+    }
+
+    public List<APRecord> readAll(List<String> keys) {
+        log.info("\n- read records for keys {} ", keys);
+        return recordStore.findByKeyIn(keys)
+                .stream()
+                .map(record -> (APRecord) record)
+                .collect(Collectors.toList());
+    }
+
+    private Mono<ResponseEntity> handleSet(List<Transaction> transactions) {
         return new Mono<ResponseEntity>() {
 
             private CoreSubscriber<? super ResponseEntity> actual;
 
+            Object subject = transactions.size() == 1 ? transactions.get(0) : transactions;
+
+            List<String> ids = transactions.stream().map(Transaction::get_ID).collect(Collectors.toList());
+
+            List<APRecord> records = transactions.stream()
+                    .map(transaction -> new APRecord(transaction.getKey(), transaction.getValue()))
+                    .collect(Collectors.toList());
+
+            List<String> peers = p2pService.getPeers(transactions.stream().map(Transaction::getKey).collect(Collectors.toList()));
+
             AtomicInteger commitQuorum = new AtomicInteger(0);
             AtomicBoolean returnedValue = new AtomicBoolean(false);
 
             @Override
             public void subscribe(CoreSubscriber<? super ResponseEntity> actual) {
-                log.info("\nSending proposal for {} to peers", transaction);
+                log.info("\nSending proposal for {} to peers", subject);
 
                 this.actual = actual;
 
-                apProtocolClient.propose(transaction)
+                apProtocolClient.propose(transactions, peers)
                         .subscribe(this::handlePropose,
                                 this::handleError);
             }
@@ -238,16 +677,16 @@ public class APProtocolService implements ProtocolService {
             private void handlePropose(List<ClientResponse> clientResponses) {
                 Long quorum = clientResponses.stream().filter(clientResponse -> !clientResponse.statusCode().isError()).count();
                 if (quorum >= writeQuorum) {
-                    log.info("\nPropose for {} succeed, quorum of {} on {}, sending commit to peers", transaction, quorum, writeQuorum);
+                    log.info("\nPropose for {} succeed, quorum of {} on {}, sending commit to peers", subject, quorum, writeQuorum);
 
-                    apProtocolClient.commit(transaction.get_ID())
+                    apProtocolClient.commit(ids, peers)
                             .map(this::manageCommitQuorum).collectList()
                             .subscribe(this::handleCommit,
                                     this::handleError);
                 } else {
-                    log.info("\nPropose for {} failed, quorum of {} on {} needed", transaction, quorum, writeQuorum);
+                    log.info("\nPropose for {} failed, quorum of {} on {} needed", subject, quorum, writeQuorum);
 
-                    apProtocolClient.rollback(transaction.get_ID(), clientResponses)
+                    apProtocolClient.rollback(ids, clientResponses)
                             .subscribe(this::handleRollBackResult,
                                     this::handleError);
                 }
@@ -256,39 +695,61 @@ public class APProtocolService implements ProtocolService {
             private ClientResponse manageCommitQuorum(ClientResponse clientResponse) {
                 if (!clientResponse.statusCode().isError()) {
                     if (commitQuorum.incrementAndGet() > writeQuorum) {
-                        if (!returnedValue.getAndSet(true)) {
-                            APRecord record = new APRecord(transaction.getKey(), transaction.getValue());
-                            recordRepository.save(record);
-
-                            actual.onNext(ResponseEntity
-                                    .status(HttpStatus.OK)
-                                    .body("Stored " + record.toString()));
-                            actual.onComplete();
-                        }
+                        returnStored();
                     }
                 }
 
                 return clientResponse;
             }
 
+            /**
+             * The coordinator keeps only the records of the keys it owns.
+             */
+            private void returnStored() {
+                if (!returnedValue.getAndSet(true)) {
+                    storageExecutor.call(() -> storeAll(records.stream().filter(record -> p2pService.isOwner(record.getKey())).collect(Collectors.toList())))
+                            .subscribe(stored -> {
+                                actual.onNext(ResponseEntity
+                                        .status(HttpStatus.OK)
+                                        .body("Stored " + (records.size() == 1 ? records.get(0) : records).toString()));
+                                actual.onComplete();
+                            }, this::handleError);
+                }
+            }
+
             private void handleCommit(List<ClientResponse> clientResponses) {
                 Integer quorum = commitQuorum.get();
 
+                Set<String> missed = new HashSet<>(peers);
+                for (ClientResponse clientResponse : clientResponses) {
+                    missed.removeAll(clientResponse.headers().header("x-sys-ip"));
+                }
+                if (!missed.isEmpty()) {
+                    log.info("\nCommit for {} missed by {}, leaving hints", subject, missed);
+                    for (String peer : missed) {
+                        List<APRecord> owned = records.stream()
+                                .filter(record -> p2pService.getPeers(record.getKey()).contains(peer))
+                                .collect(Collectors.toList());
+                        hintedHandoff.hint(Collections.singleton(peer), owned);
+                    }
+                }
+
                 if (quorum >= writeQuorum) {
-                    log.info("\nCommit for {} succeed, quorum of {} on {} needed", transaction, quorum, writeQuorum);
+                    log.info("\nCommit for {} succeed, quorum of {} on {} needed", subject, quorum, writeQuorum);
+                    returnStored();
                 } else {
-                    log.info("\nCommit for {} failed, quorum of {} on {} needed", transaction, quorum, writeQuorum);
+                    log.info("\nCommit for {} failed, quorum of {} on {} needed", subject, quorum, writeQuorum);
 
-                    this.handleError(new Throwable("Commit for " + transaction.toString() + " failed, quorum of " + quorum + " on " + writeQuorum + " needed"));
+                    this.handleError(new Throwable("Commit for " + subject.toString() + " failed, quorum of " + quorum + " on " + writeQuorum + " needed"));
                 }
             }
 
             private void handleRollBackResult(Boolean RollBack) {
-                log.info("\nPeers Rolled Back {}", transaction);
+                log.info("\nPeers Rolled Back {}", subject);
 
                 actual.onNext(ResponseEntity
                         .status(HttpStatus.BAD_REQUEST)
-                        .body("Roll Backed " + transaction.toString()));
+                        .body("Roll Backed " + subject.toString()));
                 actual.onComplete();
             }
 
@@ -301,20 +762,16 @@ public class APProtocolService implements ProtocolService {
         };
     }
 
-    private boolean isAProposalPresentFor(String key) {
-        return this.writeAheadLog
-                .entrySet()
-                .stream()
-                .anyMatch(stringRecordEntry -> stringRecordEntry.getValue().getKey().equals(key));
-    }
-
     @Override
     public void start() {
         log.info("\nAP mode (sloppy quorums)");
-
+        hintedHandoff.start();
+        antiEntropy.start();
     }
 
     @Override
     public void stop() {
+        hintedHandoff.stop();
+        antiEntropy.stop();
     }
 }
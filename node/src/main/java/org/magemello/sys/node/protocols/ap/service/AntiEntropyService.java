@@ -0,0 +1,273 @@
+package org.magemello.sys.node.protocols.ap.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.magemello.sys.node.protocols.ap.clients.APProtocolClient;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.protocols.ap.domain.MerkleTree;
+import org.magemello.sys.node.repository.RecordStore;
+import org.magemello.sys.node.repository.StorageExecutor;
+import org.magemello.sys.node.service.P2PService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Background anti-entropy between AP replicas.
+ *
+ * Every round this node picks a random peer and walks the two Merkle trees
+ * from the root, one level per request, following only the subtrees whose
+ * hashes differ. The records of the differing leaves are then exchanged
+ * and reconciled (last write wins), so the cost of a round depends on how
+ * much the replicas diverge, not on how many keys they hold.
+ *
+ * With partitioning two nodes share only part of their keys, so there is
+ * one tree per peer, holding just the keys both of them own (see
+ * {@link P2PService#getPeers(String)}); the peer is asked for its tree of
+ * this node. Without partitioning the trees all hold every key.
+ */
+@Service
+public class AntiEntropyService {
+
+    private static final Logger log = LoggerFactory.getLogger(AntiEntropyService.class);
+
+    @Value("${ap.anti-entropy.depth:10}")
+    private Integer depth;
+
+    @Value("${ap.anti-entropy.interval:5000}")
+    private Long interval;
+
+    @Value("${ap.anti-entropy.max-leaves:64}")
+    private Integer maxLeaves;
+
+    @Autowired
+    private RecordStore recordStore;
+
+    @Autowired
+    private StorageExecutor storageExecutor;
+
+    @Autowired
+    private P2PService p2pService;
+
+    @Autowired
+    private APProtocolClient apProtocolClient;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    private final Map<String, MerkleTree> trees = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    private ScheduledFuture<?> rounds;
+
+    private final AtomicBoolean syncing = new AtomicBoolean(false);
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "anti-entropy");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Rebuilds the trees from the store and starts the periodic rounds.
+     */
+    public synchronized void start() {
+        rebuild();
+        if (rounds == null) {
+            rounds = executor.scheduleWithFixedDelay(this::round, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (rounds != null) {
+            rounds.cancel(false);
+            rounds = null;
+        }
+    }
+
+    public void rebuild() {
+        trees.clear();
+        for (APRecord record : apRecords(recordStore.findAll())) {
+            updated(record);
+        }
+    }
+
+    public void clear() {
+        trees.clear();
+    }
+
+    public void updated(Record record) {
+        for (String peer : p2pService.getPeers(record.getKey())) {
+            tree(peer).update(record.getKey(), record.getVal());
+        }
+    }
+
+    public List<Long> hashes(String peer, List<Integer> nodes) {
+        return tree(peer).hashes(nodes);
+    }
+
+    public List<APRecord> records(String peer, List<Integer> leaves) {
+        MerkleTree tree = tree(peer);
+        Set<String> keys = new HashSet<>();
+        for (Integer leaf : leaves) {
+            if (tree.isValid(leaf) && tree.isLeaf(leaf)) {
+                keys.addAll(tree.keys(leaf));
+            }
+        }
+        return apRecords(recordStore.findByKeyIn(keys));
+    }
+
+    private void round() {
+        List<String> peers = p2pService.getPeers();
+        if (peers.isEmpty() || !syncing.compareAndSet(false, true)) {
+            return;
+        }
+
+        String peer = peers.get(ThreadLocalRandom.current().nextInt(peers.size()));
+        metricsRegistry.counter("ap_anti_entropy_rounds", peer).increment();
+
+        differingLeaves(peer, Collections.singletonList(MerkleTree.ROOT))
+                .flatMap(leaves -> leaves.isEmpty()
+                        ? Mono.<Integer>empty()
+                        : apProtocolClient.treeLeaves(leaves, peer).flatMap(remote -> storageExecutor.call(() -> reconcile(peer, leaves, remote))))
+                .doFinally(signal -> syncing.set(false))
+                .subscribe(reconciled -> log.info("\nAnti-entropy with {} reconciled {} records", peer, reconciled),
+                        error -> log.info("\nAnti-entropy with {} failed: {}", peer, error.getMessage()));
+    }
+
+    /**
+     * Descends one level per request, keeping only the nodes whose hash
+     * differs, until it reaches the leaves.
+     */
+    private Mono<List<Integer>> differingLeaves(String peer, List<Integer> nodes) {
+        MerkleTree tree = tree(peer);
+        return apProtocolClient.treeHashes(nodes, peer).flatMap(remote -> {
+            List<Long> local = tree.hashes(nodes);
+            List<Integer> differing = new ArrayList<>();
+            for (int i = 0; i < nodes.size() && differing.size() < maxLeaves; i++) {
+                if (i >= remote.size() || !local.get(i).equals(remote.get(i))) {
+                    differing.add(nodes.get(i));
+                }
+            }
+
+            if (differing.isEmpty() || tree.isLeaf(differing.get(0))) {
+                return Mono.just(differing);
+            }
+
+            List<Integer> children = new ArrayList<>(differing.size() * 2);
+            for (Integer node : differing) {
+                children.add(node * 2);
+                children.add(node * 2 + 1);
+            }
+            return differingLeaves(peer, children);
+        });
+    }
+
+    private int reconcile(String peer, List<Integer> leaves, List<APRecord> remoteRecords) {
+        Map<String, APRecord> remote = new HashMap<>();
+        for (APRecord record : remoteRecords) {
+            remote.put(record.getKey(), record);
+        }
+        Map<String, APRecord> local = new HashMap<>();
+        for (APRecord record : records(peer, leaves)) {
+            local.put(record.getKey(), record);
+        }
+
+        List<APRecord> pull = new ArrayList<>();
+        for (APRecord record : remote.values()) {
+            if (wins(record, local.get(record.getKey()))) {
+                pull.add(record);
+            }
+        }
+        List<APRecord> push = new ArrayList<>();
+        for (APRecord record : local.values()) {
+            if (wins(record, remote.get(record.getKey()))) {
+                push.add(record);
+            }
+        }
+
+        if (!pull.isEmpty()) {
+            recordStore.saveAll(pull);
+            pull.forEach(this::updated);
+        }
+        if (!push.isEmpty()) {
+            apProtocolClient.repairAll(Collections.singletonMap(peer, push))
+                    .subscribe(clientResponse -> log.debug("\n- anti-entropy push to {}: {}", peer, clientResponse.statusCode()));
+        }
+
+        metricsRegistry.counter("ap_anti_entropy_leaves", peer).add(leaves.size());
+        metricsRegistry.counter("ap_anti_entropy_pulled", peer).add(pull.size());
+        metricsRegistry.counter("ap_anti_entropy_pushed", peer).add(push.size());
+        return pull.size() + push.size();
+    }
+
+    private MerkleTree tree(String peer) {
+        MerkleTree tree = trees.get(peer);
+        if (tree == null) {
+            trees.putIfAbsent(peer, new MerkleTree(depth));
+            tree = trees.get(peer);
+        }
+        return tree;
+    }
+
+    /**
+     * Last write wins; on equal timestamps the greater value, so that both
+     * sides take the same decision.
+     */
+    static boolean wins(APRecord record, APRecord other) {
+        if (other == null) {
+            return true;
+        }
+        if (record.getVal() == null || record.getVal().equals(other.getVal())) {
+            return false;
+        }
+
+        long timestamp = record.getTimestamp() != null ? record.getTimestamp() : Long.MIN_VALUE;
+        long otherTimestamp = other.getTimestamp() != null ? other.getTimestamp() : Long.MIN_VALUE;
+        if (timestamp != otherTimestamp) {
+            return timestamp > otherTimestamp;
+        }
+        return other.getVal() == null || record.getVal().compareTo(other.getVal()) > 0;
+    }
+
+    private static List<APRecord> apRecords(List<Record> records) {
+        List<APRecord> result = new ArrayList<>(records.size());
+        for (Record record : records) {
+            if (record instanceof APRecord) {
+                result.add((APRecord) record);
+            }
+        }
+        return result;
+    }
+}
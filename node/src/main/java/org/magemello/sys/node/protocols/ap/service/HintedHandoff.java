@@ -0,0 +1,321 @@
+package org.magemello.sys.node.protocols.ap.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+import org.magemello.sys.node.protocols.ap.clients.APProtocolClient;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.wal.WriteAheadLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Hinted handoff: the writes a replica missed (its commit failed or timed
+ * out) are kept by the coordinator and replayed in the background, through
+ * the batch repair endpoint, once the replica answers again.
+ *
+ * Hints are durable (they go through a write-ahead log, a hint is a
+ * proposal whose commit means delivered), bounded per peer, and only the
+ * newest hint of a key (by timestamp, as on the read path) is kept. Replay
+ * is rate limited per peer with a token bucket.
+ */
+@Service
+public class HintedHandoff {
+
+    private static final Logger log = LoggerFactory.getLogger(HintedHandoff.class);
+
+    private static final String SEPARATOR = "|";
+
+    @Value("${wal.dir:/tmp/sysdist-wal-${server.port}}")
+    private String walDir;
+
+    @Value("${wal.segment-size:1048576}")
+    private Integer walSegmentSize;
+
+    @Value("${wal.recycled-segments:2}")
+    private Integer walRecycledSegments;
+
+    @Value("${ap.hints.max-per-peer:10000}")
+    private Integer maxHintsPerPeer;
+
+    @Value("${ap.hints.rate:200}")
+    private Integer hintsPerSecond;
+
+    @Value("${ap.hints.replay-interval:500}")
+    private Long replayInterval;
+
+    @Autowired
+    private APProtocolClient apProtocolClient;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    private final Map<String, PeerHints> hintsByPeer = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private WriteAheadLog hintLog;
+
+    private ScheduledExecutorService executor;
+
+    private ScheduledFuture<?> replay;
+
+    @PostConstruct
+    public void init() throws IOException {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hinted-handoff");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        hintLog = new WriteAheadLog(new File(walDir, "hints"), walSegmentSize, walRecycledSegments);
+        Collection<Transaction> stored = hintLog.open().values();
+        List<String> stale = new ArrayList<>();
+        for (Transaction transaction : stored) {
+            String[] id = transaction.get_ID().split("\\" + SEPARATOR);
+            APRecord record = new APRecord(transaction.getKey(), transaction.getValue(), parseTimestamp(id[1]));
+            Map<String, Hint> hints = peerHints(id[0]).hints;
+            Hint previous = hints.get(record.getKey());
+            if (isNewer(record, previous)) {
+                hints.put(record.getKey(), new Hint(transaction.get_ID(), record));
+                if (previous != null) {
+                    stale.add(previous.id);
+                }
+            } else {
+                stale.add(transaction.get_ID());
+            }
+        }
+        if (!stale.isEmpty()) {
+            hintLog.commitAll(stale);
+        }
+        if (!stored.isEmpty()) {
+            log.info("\n- recovered {} hints for {} peers", stored.size() - stale.size(), hintsByPeer.size());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+        hintLog.close();
+    }
+
+    public synchronized void start() {
+        if (replay == null) {
+            replay = executor.scheduleWithFixedDelay(this::replay, replayInterval, replayInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (replay != null) {
+            replay.cancel(false);
+            replay = null;
+        }
+    }
+
+    /**
+     * Records, off the caller thread, that the given peers missed these
+     * records.
+     */
+    public void hint(Collection<String> peers, List<APRecord> records) {
+        if (peers.isEmpty() || records.isEmpty()) {
+            return;
+        }
+
+        executor.execute(() -> {
+            for (String peer : peers) {
+                store(peer, records);
+            }
+        });
+    }
+
+    public void clear() {
+        executor.execute(() -> {
+            hintsByPeer.clear();
+            hintLog.reset();
+        });
+    }
+
+    private void store(String peer, List<APRecord> records) {
+        PeerHints peerHints = peerHints(peer);
+        List<Transaction> added = new ArrayList<>(records.size());
+        List<String> replaced = new ArrayList<>();
+
+        synchronized (peerHints) {
+            for (APRecord record : records) {
+                Hint previous = peerHints.hints.get(record.getKey());
+                if (!isNewer(record, previous)) {
+                    continue;
+                }
+                if (previous == null && peerHints.hints.size() >= maxHintsPerPeer) {
+                    metricsRegistry.counter("ap_hints_dropped", peer).increment();
+                    continue;
+                }
+
+                String id = peer + SEPARATOR + record.getTimestamp() + SEPARATOR + sequence.incrementAndGet();
+                peerHints.hints.remove(record.getKey());
+                peerHints.hints.put(record.getKey(), new Hint(id, record));
+                added.add(new Transaction(id, record.getKey(), record.getVal()));
+                if (previous != null) {
+                    replaced.add(previous.id);
+                }
+            }
+        }
+
+        if (!added.isEmpty()) {
+            hintLog.proposeAll(added);
+            metricsRegistry.counter("ap_hints_stored", peer).add(added.size());
+            log.info("\n- stored {} hints for {}", added.size(), peer);
+        }
+        if (!replaced.isEmpty()) {
+            hintLog.commitAll(replaced);
+        }
+    }
+
+    private void replay() {
+        for (Map.Entry<String, PeerHints> entry : hintsByPeer.entrySet()) {
+            String peer = entry.getKey();
+            PeerHints peerHints = entry.getValue();
+            // tokens are taken only by the replay that owns the peer, none is wasted
+            if (!peerHints.inFlight.compareAndSet(false, true)) {
+                continue;
+            }
+
+            List<Hint> batch = new ArrayList<>();
+            synchronized (peerHints) {
+                if (!peerHints.hints.isEmpty()) {
+                    int granted = peerHints.bucket.take(peerHints.hints.size());
+                    Iterator<Hint> iterator = peerHints.hints.values().iterator();
+                    while (batch.size() < granted && iterator.hasNext()) {
+                        batch.add(iterator.next());
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                peerHints.inFlight.set(false);
+                continue;
+            }
+
+            List<APRecord> records = new ArrayList<>(batch.size());
+            for (Hint hint : batch) {
+                records.add(hint.record);
+            }
+
+            apProtocolClient.handoff(records, peer)
+                    .doFinally(signal -> peerHints.inFlight.set(false))
+                    .subscribe(clientResponse -> {
+                        if (clientResponse.statusCode().is2xxSuccessful()) {
+                            executor.execute(() -> delivered(peer, peerHints, batch));
+                        } else {
+                            log.debug("\n- {} still unreachable, {} hints pending", peer, peerHints.hints.size());
+                        }
+                    });
+        }
+    }
+
+    private void delivered(String peer, PeerHints peerHints, List<Hint> batch) {
+        List<String> ids = new ArrayList<>(batch.size());
+        synchronized (peerHints) {
+            for (Hint hint : batch) {
+                // a newer hint for the same key may have replaced it meanwhile
+                if (peerHints.hints.remove(hint.record.getKey(), hint)) {
+                    ids.add(hint.id);
+                }
+            }
+        }
+
+        hintLog.commitAll(ids);
+        metricsRegistry.counter("ap_hints_delivered", peer).add(ids.size());
+        log.info("\n- delivered {} hints to {}", ids.size(), peer);
+    }
+
+    /**
+     * A hint replaces the one of its key unless the latter is newer, the
+     * rule {@link APProtocolService} applies to the records it stores.
+     */
+    private static boolean isNewer(APRecord record, Hint previous) {
+        if (previous == null || record.getTimestamp() == null) {
+            return true;
+        }
+        Long timestamp = previous.record.getTimestamp();
+        return timestamp == null || record.getTimestamp() >= timestamp;
+    }
+
+    private static Long parseTimestamp(String timestamp) {
+        return "null".equals(timestamp) ? null : Long.valueOf(timestamp);
+    }
+
+    private PeerHints peerHints(String peer) {
+        PeerHints peerHints = hintsByPeer.get(peer);
+        if (peerHints == null) {
+            hintsByPeer.putIfAbsent(peer, new PeerHints(hintsPerSecond));
+            peerHints = hintsByPeer.get(peer);
+        }
+        return peerHints;
+    }
+
+    private static class Hint {
+        final String id;
+        final APRecord record;
+
+        Hint(String id, APRecord record) {
+            this.id = id;
+            this.record = record;
+        }
+    }
+
+    private static class PeerHints {
+        final Map<String, Hint> hints = new LinkedHashMap<>();
+        final AtomicBoolean inFlight = new AtomicBoolean(false);
+        final TokenBucket bucket;
+
+        PeerHints(int rate) {
+            this.bucket = new TokenBucket(rate);
+        }
+    }
+
+    /**
+     * Refills at the given rate per second, up to one second worth of
+     * tokens.
+     */
+    private static class TokenBucket {
+        private final int rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(int rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        synchronized int take(int wanted) {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+            lastRefill = now;
+
+            int granted = (int) Math.min(wanted, Math.floor(tokens));
+            tokens -= granted;
+            return granted;
+        }
+    }
+}
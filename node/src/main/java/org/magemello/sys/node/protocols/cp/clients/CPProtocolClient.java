@@ -1,8 +1,12 @@
 package org.magemello.sys.node.protocols.cp.clients;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.magemello.sys.node.codec.PeerCodec;
+import org.magemello.sys.node.metrics.MetricsRegistry;
 import org.magemello.sys.node.protocols.cp.domain.CPRecord;
 import org.magemello.sys.node.protocols.cp.domain.Update;
 import org.magemello.sys.node.protocols.cp.domain.VoteRequest;
@@ -11,9 +15,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.reactive.WebClientFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
 
 import reactor.core.CoreSubscriber;
 import reactor.core.publisher.Flux;
@@ -25,19 +31,64 @@ public class CPProtocolClient {
     @Autowired
     private P2PService p2pService;
 
+    @Autowired
+    private WebClient webClient;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private PeerCodec peerCodec;
+
     @Value("${client.timeout:3}")
     private Integer clientTimeout;
 
-    @Value("${server.port}")
-    private String serverPort;
+    public Mono<ClientResponse> forwardDataToLeader(String key, String value, String leader) {
+        return metricsRegistry.timed("cp_forward", leader, webClient
+                .post()
+                .uri("http://" + leader + "/storage/" + key + "/" + value)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .flatMap(WebClientFactory::drained)
+                .timeout(Duration.ofMillis(clientTimeout))
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build())));
+    }
 
-    public Mono<ClientResponse> forwardDataToLeader(String key, String value, Integer port) {
-        return WebClientFactory.newWebClient()
+    public Mono<ClientResponse> forwardBatchToLeader(Map<String, String> values, String leader) {
+        return metricsRegistry.timed("cp_forward_batch", leader, webClient
                 .post()
-                .uri("http://127.0.0." + (port - 3000) + ":" + port + "/storage/" + key + "/" + value)
+                .uri("http://" + leader + "/storage/_batch")
+                .syncBody(values)
                 .accept(MediaType.APPLICATION_JSON)
                 .exchange()
-                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
+                .flatMap(WebClientFactory::drained)
+                .timeout(Duration.ofMillis(clientTimeout))
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build())));
+    }
+
+    public Mono<ResponseEntity<String>> forwardReadToLeader(String key, String leader) {
+        return metricsRegistry.timed("cp_forward_read", leader, webClient
+                .get()
+                .uri("http://" + leader + "/cp/read/" + key)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .flatMap(WebClientFactory::drained)
+                .timeout(Duration.ofMillis(clientTimeout))
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build())))
+                .flatMap(clientResponse -> clientResponse.toEntity(String.class));
+    }
+
+    public Mono<ResponseEntity<String>> forwardReadAllToLeader(List<String> keys, String leader) {
+        return metricsRegistry.timed("cp_forward_read_batch", leader, webClient
+                .post()
+                .uri("http://" + leader + "/cp/read/_batch")
+                .syncBody(keys)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .flatMap(WebClientFactory::drained)
+                .timeout(Duration.ofMillis(clientTimeout))
+                .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build())))
+                .flatMap(clientResponse -> clientResponse.toEntity(String.class));
     }
 
     public Mono<Long> sendBeat(Update update, Integer quorum) {
@@ -71,32 +122,58 @@ public class CPProtocolClient {
 
     private Flux<ClientResponse> sendBeat(Update update) {
         return Flux.fromIterable(p2pService.getPeers())
-                .flatMap(peer -> createWebClientSendBeat(update, peer), p2pService.getPeers().size())
+                .flatMap(peer -> metricsRegistry.timed("cp_beat", peer, createWebClientSendBeat(update, peer)), p2pService.getPeers().size())
                 .timeout(Duration.ofMillis(clientTimeout))
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.REQUEST_TIMEOUT).build()))
                 .filter(response -> !response.statusCode().isError());
     }
 
     private Mono<ClientResponse> createWebClientSendBeat(Update update, String peer) {
-        return WebClientFactory.newWebClient()
+        return webClient
                 .post()
                 .uri("http://" + peer + "/cp/update")
-                .accept(MediaType.APPLICATION_JSON)
+                .accept(peerCodec.accept())
+                .contentType(peerCodec.contentType())
                 .syncBody(update)
                 .exchange()
+                .flatMap(WebClientFactory::drained)
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 
-    public Flux<CPRecord> history(Integer term, Integer tick, Integer port) {
-        return WebClientFactory.newWebClient()
+    /**
+     * Streams the leader log after the index, each entry emitted as soon as
+     * its line is read. Newline delimited JSON, so it goes over HTTP even
+     * with the peer channels. Fails if the leader stays silent for longer
+     * than the client timeout, before or between entries.
+     *
+     * Fails with a {@link org.springframework.web.reactive.function.client.WebClientResponseException}
+     * of status 410 Gone when the leader log no longer has the entries.
+     */
+    public Flux<CPRecord> history(Long index, Integer pageSize, String leader) {
+        return webClient
                 .get()
-                .uri("http://127.0.0." + (port - 3000) + ":" + port + "/cp/history/" + term.toString() + "/" + tick.toString())
-                .accept(MediaType.APPLICATION_JSON)
+                .uri("http://" + leader + "/cp/history/" + index.toString() + "?page-size=" + pageSize)
+                .accept(MediaType.APPLICATION_STREAM_JSON)
                 .retrieve()
-                .bodyToFlux(CPRecord.class);
+                .bodyToFlux(CPRecord.class)
+                .timeout(Duration.ofMillis(clientTimeout));
+    }
+
+    /**
+     * A chunk of the leader snapshot, see
+     * {@link org.magemello.sys.node.protocols.cp.controller.CPProtocolController#snapshot}.
+     * Raw bytes, so it goes over HTTP even with the peer channels.
+     */
+    public Mono<ClientResponse> snapshotChunk(long index, long offset, String leader) {
+        return metricsRegistry.timed("cp_snapshot_chunk", leader, webClient
+                .get()
+                .uri("http://" + leader + "/cp/snapshot/" + index + "/" + offset)
+                .accept(MediaType.APPLICATION_OCTET_STREAM)
+                .exchange()
+                .timeout(Duration.ofMillis(clientTimeout)));
     }
 
-    public Mono<Long> requestVotes(Integer term, int quorum) {
+    public Mono<Long> requestVotes(VoteRequest vote, int quorum) {
         return new Mono<Long>() {
 
             private CoreSubscriber<? super Long> context;
@@ -106,7 +183,7 @@ public class CPProtocolClient {
             public void subscribe(CoreSubscriber<? super Long> actual) {
                 this.context = actual;
 
-                requestVotes(term)
+                requestVotes(vote)
                         .map(this::manageRequestVoteQuorum)
                         .count()
                         .subscribe(quorum -> {
@@ -126,21 +203,23 @@ public class CPProtocolClient {
         };
     }
 
-    private Flux<ClientResponse> requestVotes(Integer term) {
+    private Flux<ClientResponse> requestVotes(VoteRequest vote) {
         return Flux.fromIterable(p2pService.getPeers())
-                .flatMap(peer -> createWebClientVote(term, peer), p2pService.getPeers().size())
+                .flatMap(peer -> metricsRegistry.timed("cp_vote", peer, createWebClientVote(vote, peer)), p2pService.getPeers().size())
                 .timeout(Duration.ofMillis(clientTimeout))
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.REQUEST_TIMEOUT).build()))
                 .filter(response -> !response.statusCode().isError());
     }
 
-    private Mono<ClientResponse> createWebClientVote(Integer term, String peer) {
-        return WebClientFactory.newWebClient()
+    private Mono<ClientResponse> createWebClientVote(VoteRequest vote, String peer) {
+        return webClient
                 .post()
                 .uri("http://" + peer + "/cp/voteforme")
-                .accept(MediaType.APPLICATION_JSON)
-                .syncBody(new VoteRequest(Integer.parseInt(serverPort), term))
+                .accept(peerCodec.accept())
+                .contentType(peerCodec.contentType())
+                .syncBody(vote)
                 .exchange()
+                .flatMap(WebClientFactory::drained)
                 .onErrorResume(throwable -> Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build()));
     }
 }
@@ -1,28 +1,49 @@
 package org.magemello.sys.node.protocols.cp.controller;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.magemello.sys.node.protocols.cp.domain.CPRecord;
+import org.magemello.sys.node.protocols.cp.domain.Snapshot;
 import org.magemello.sys.node.protocols.cp.domain.Update;
 import org.magemello.sys.node.protocols.cp.domain.VoteRequest;
 import org.magemello.sys.node.protocols.cp.service.CPProtocolService;
+import org.magemello.sys.node.protocols.cp.service.SnapshotStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import reactor.core.publisher.Flux;
+
 @RestController()
 @RequestMapping("cp")
 public class CPProtocolController {
 
+    public static final String SNAPSHOT_INDEX = "x-sys-snapshot-index";
+
+    public static final String SNAPSHOT_TERM = "x-sys-snapshot-term";
+
+    public static final String SNAPSHOT_SIZE = "x-sys-snapshot-size";
+
     @Autowired
     private CPProtocolService cpProtocolService;
 
+    @Autowired
+    private SnapshotStore snapshotStore;
+
     @PostMapping("update")
     public ResponseEntity<String> update(@RequestBody Update update) {
         ResponseEntity<String> res;
@@ -48,10 +69,68 @@ public class CPProtocolController {
     }
 
 
+    @GetMapping("read/{key}")
+    @SuppressWarnings("rawtypes")
+    public ResponseEntity read(@PathVariable String key) {
+        return cpProtocolService.leaseRead(key);
+    }
 
-    @GetMapping("history/{term}/{tick}")
-    public ArrayList<CPRecord> history(@PathVariable Integer term, @PathVariable Integer tick) {
-        return cpProtocolService.getHistory(term, tick);
+    @PostMapping("read/_batch")
+    @SuppressWarnings("rawtypes")
+    public ResponseEntity readAll(@RequestBody List<String> keys) {
+        return cpProtocolService.leaseReadAll(keys);
+    }
+
+    /**
+     * The entries after the index as a stream of JSON objects, one per
+     * line, read from the log page-size entries at a time as the follower
+     * consumes them. The index is also the resume token: after a broken
+     * stream the follower asks again from the last entry it got.
+     *
+     * 410 Gone when the log was truncated past the index: the follower has
+     * to install the snapshot.
+     */
+    @GetMapping(value = "history/{index}", produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public ResponseEntity<Flux<CPRecord>> history(@PathVariable Long index,
+                                                  @RequestParam(value = "page-size", required = false) Integer pageSize) {
+        Flux<CPRecord> history = cpProtocolService.getHistory(index, pageSize);
+        return history != null ? ResponseEntity.ok(history) : ResponseEntity.status(HttpStatus.GONE).build();
+    }
+
+    /**
+     * One chunk of the snapshot (index 0 for the latest one) starting at
+     * offset, with the snapshot index, term and size in the headers; 410
+     * Gone if that snapshot was replaced by a newer one.
+     *
+     * The chunk is sent with sendfile when the container supports it, so
+     * it goes from the page cache to the socket without being copied.
+     */
+    @GetMapping("snapshot/{index}/{offset}")
+    public void snapshot(@PathVariable Long index, @PathVariable Long offset,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Snapshot snapshot = snapshotStore.latest();
+        if (snapshot == null || index != 0 && snapshot.getIndex() != index || offset < 0 || offset > snapshot.getSize()) {
+            response.setStatus(HttpStatus.GONE.value());
+            return;
+        }
+
+        long length = Math.min(snapshotStore.getChunkSize(), snapshot.getSize() - offset);
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(length);
+        response.setHeader(SNAPSHOT_INDEX, String.valueOf(snapshot.getIndex()));
+        response.setHeader(SNAPSHOT_TERM, String.valueOf(snapshot.getTerm()));
+        response.setHeader(SNAPSHOT_SIZE, String.valueOf(snapshot.getSize()));
+
+        if (Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+            request.setAttribute("org.apache.tomcat.sendfile.filename", snapshot.getFile().toAbsolutePath().toString());
+            request.setAttribute("org.apache.tomcat.sendfile.start", offset);
+            request.setAttribute("org.apache.tomcat.sendfile.end", offset + length);
+        } else {
+            try (FileChannel file = FileChannel.open(snapshot.getFile())) {
+                file.transferTo(offset, length, Channels.newChannel(response.getOutputStream()));
+            }
+        }
     }
 
     private ResponseEntity<String> createResponse(String message, HttpStatus status) {
@@ -10,23 +10,23 @@ public class CPRecord extends Record{
 
     private Integer term;
 
-    private Integer tick;
+    private Long logIndex;
 
     public CPRecord() {
     }
 
-    public CPRecord(String key, String value, Integer term, Integer tick) {
+    public CPRecord(String key, String value, Integer term, Long logIndex) {
         super(key, value);
         this.term = term;
-        this.tick = tick;
+        this.logIndex = logIndex;
     }
 
     public Integer getTerm() {
         return term;
     }
 
-    public Integer getTick() {
-        return tick;
+    public Long getLogIndex() {
+        return logIndex;
     }
 
     @Override
@@ -35,7 +35,7 @@ public class CPRecord extends Record{
                 "key='" + super.getKey() + '\'' +
                 ", val='" + super.getVal() + '\'' +
                 ", term=" + term +
-                ", tick=" + tick +
+                ", index=" + logIndex +
                 '}';
     }
 
@@ -44,7 +44,7 @@ public class CPRecord extends Record{
         final int prime = 31;
         int result = super.hashCode();
         result = prime * result + ((term == null) ? 0 : term.hashCode());
-        result = prime * result + ((tick == null) ? 0 : tick.hashCode());
+        result = prime * result + ((logIndex == null) ? 0 : logIndex.hashCode());
         return result;
     }
 
@@ -62,10 +62,10 @@ public class CPRecord extends Record{
                 return false;
         } else if (!term.equals(other.term))
             return false;
-        if (tick == null) {
-            if (other.tick != null)
+        if (logIndex == null) {
+            if (other.logIndex != null)
                 return false;
-        } else if (!tick.equals(other.tick))
+        } else if (!logIndex.equals(other.logIndex))
             return false;
         return true;
     }
@@ -0,0 +1,62 @@
+package org.magemello.sys.node.protocols.cp.domain;
+
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+@Entity
+public class LogEntry {
+
+    @Id
+    private Long logIndex;
+
+    private Integer term;
+
+    private String key;
+
+    private String val;
+
+    public LogEntry() {
+    }
+
+    public LogEntry(Long logIndex, Integer term, String key, String val) {
+        this.logIndex = logIndex;
+        this.term = term;
+        this.key = key;
+        this.val = val;
+    }
+
+    public LogEntry(CPRecord record) {
+        this(record.getLogIndex(), record.getTerm(), record.getKey(), record.getVal());
+    }
+
+    public Long getLogIndex() {
+        return logIndex;
+    }
+
+    public Integer getTerm() {
+        return term;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getVal() {
+        return val;
+    }
+
+    public CPRecord toRecord() {
+        return new CPRecord(key, val, term, logIndex);
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+                "index=" + logIndex +
+                ", term=" + term +
+                ", key='" + key + '\'' +
+                ", val='" + val + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,50 @@
+package org.magemello.sys.node.protocols.cp.domain;
+
+import java.nio.file.Path;
+
+/**
+ * A snapshot file of the CP state: the latest value of every key once the
+ * log was applied up to index, whose entry has the given term.
+ */
+public class Snapshot {
+
+    private final long index;
+
+    private final int term;
+
+    private final Path file;
+
+    private final long size;
+
+    public Snapshot(long index, int term, Path file, long size) {
+        this.index = index;
+        this.term = term;
+        this.file = file;
+        this.size = size;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public int getTerm() {
+        return term;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+                "index=" + index +
+                ", term=" + term +
+                ", size=" + size +
+                '}';
+    }
+}
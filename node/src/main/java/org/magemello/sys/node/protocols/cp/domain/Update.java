@@ -1,27 +1,41 @@
 package org.magemello.sys.node.protocols.cp.domain;
 
+import java.util.List;
+
 public class Update {
 
     public Integer from;
     public Integer term;
     public Integer tick;
-    public CPRecord data;
+    public Long prevLogIndex;
+    public Integer prevLogTerm;
+    public Long commitIndex;
+    public List<CPRecord> data;
 
     protected Update() {}
 
-    public Update(int whoami, Epoch epoch, CPRecord data) {
-        this.from = whoami;
-        this.term = epoch.getTerm();
-        this.tick = epoch.getTick();
+    public Update(Integer from, Integer term, Integer tick, Long prevLogIndex, Integer prevLogTerm, Long commitIndex, List<CPRecord> data) {
+        this.from = from;
+        this.term = term;
+        this.tick = tick;
+        this.prevLogIndex = prevLogIndex;
+        this.prevLogTerm = prevLogTerm;
+        this.commitIndex = commitIndex;
         this.data = data;
     }
 
+    public Update(int whoami, Epoch epoch, long prevLogIndex, int prevLogTerm, long commitIndex, List<CPRecord> data) {
+        this(whoami, epoch.getTerm(), epoch.getTick(), prevLogIndex, prevLogTerm, commitIndex, data);
+    }
+
     @Override
     public String toString() {
         return  "{"
                 + "from=" + from +
                 ",term=" + term +
                 ",tick=" + tick +
+                ",prev=" + prevLogIndex + "/" + prevLogTerm +
+                ",commit=" + commitIndex +
                 ",data=" + data +
                 '}';
     }
@@ -31,6 +45,7 @@ public class Update {
                 + "from=" + from +
                 ",term=" + term +
                 ",tick=" + tick +
+                ",commit=" + commitIndex +
                 '}';
     }
 }
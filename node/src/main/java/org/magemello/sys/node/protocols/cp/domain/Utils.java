@@ -6,6 +6,15 @@ public interface Utils {
     public final long DEFAULT_UPDATE_TIMEOUT = 2500;
     public final long DEFAULT_ELECTION_TIMEOUT = 5000;
 
+    /**
+     * A follower never starts an election sooner than 2/3 of the election
+     * timeout after the last beat (see randomize), so the leader can trust
+     * its leadership for that long after a majority acknowledged a beat,
+     * minus a margin for clock drift between the nodes.
+     */
+    public final long DEFAULT_CLOCK_DRIFT = 500;
+    public final long DEFAULT_LEASE_TIMEOUT = 2 * (DEFAULT_ELECTION_TIMEOUT / 3) - DEFAULT_CLOCK_DRIFT;
+
     public static long randomize(long value) {
         long third = value/3;
         return 2*third + (long)(Math.random()*third);
@@ -6,12 +6,18 @@ public class VoteRequest {
 
     private Integer term;
 
+    private Long lastLogIndex;
+
+    private Integer lastLogTerm;
+
     public VoteRequest() {
     }
 
-    public VoteRequest(Integer port, Integer term) {
+    public VoteRequest(Integer port, Integer term, Long lastLogIndex, Integer lastLogTerm) {
         this.port = port;
         this.term = term;
+        this.lastLogIndex = lastLogIndex;
+        this.lastLogTerm = lastLogTerm;
     }
 
     public Integer getPort() {
@@ -22,11 +28,21 @@ public class VoteRequest {
         return term;
     }
 
+    public Long getLastLogIndex() {
+        return lastLogIndex;
+    }
+
+    public Integer getLastLogTerm() {
+        return lastLogTerm;
+    }
+
     @Override
     public String toString() {
         return "Vote{" +
                 "port=" + port +
                 ", term=" + term +
+                ", lastLogIndex=" + lastLogIndex +
+                ", lastLogTerm=" + lastLogTerm +
                 '}';
     }
 }
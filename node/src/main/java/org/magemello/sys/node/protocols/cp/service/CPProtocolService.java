@@ -1,34 +1,52 @@
 package org.magemello.sys.node.protocols.cp.service;
 
+import static org.magemello.sys.node.protocols.cp.domain.Utils.DEFAULT_LEASE_TIMEOUT;
 import static org.magemello.sys.node.protocols.cp.domain.Utils.DEFAULT_TICK_TIMEOUT;
 import static org.magemello.sys.node.protocols.cp.domain.Utils.randomize;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
 
 import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.metrics.MetricsRegistry;
 import org.magemello.sys.node.protocols.cp.clients.CPProtocolClient;
+import org.magemello.sys.node.protocols.cp.controller.CPProtocolController;
 import org.magemello.sys.node.protocols.cp.domain.CPRecord;
 import org.magemello.sys.node.protocols.cp.domain.Epoch;
+import org.magemello.sys.node.protocols.cp.domain.Snapshot;
 import org.magemello.sys.node.protocols.cp.domain.Update;
 import org.magemello.sys.node.protocols.cp.domain.VoteRequest;
-import org.magemello.sys.node.repository.RecordRepository;
+import org.magemello.sys.node.repository.RecordStore;
+import org.magemello.sys.node.repository.StorageExecutor;
 import org.magemello.sys.node.service.P2PService;
 import org.magemello.sys.node.service.ProtocolService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.WebClientFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Service("CP")
@@ -37,21 +55,53 @@ public class CPProtocolService implements ProtocolService {
 
     private static final Logger log = LoggerFactory.getLogger(CPProtocolService.class);
 
+    public static final String LEADER_HEADER = "x-sys-leader";
+
     @Value("${server.port}")
     private Integer serverPort;
 
     @Value("${server.address}")
     private String serverAddress;
 
+    @Value("${cp.pending-writes:1024}")
+    private Integer pendingWritesLimit;
+
+    @Value("${cp.batch.max-entries:128}")
+    private Integer batchMaxEntries;
+
+    @Value("${cp.batch.max-bytes:65536}")
+    private Integer batchMaxBytes;
+
+    @Value("${cp.history.page-size:500}")
+    private Integer historyPageSize;
+
+    @Value("${cp.history.linger-ms:10}")
+    private Integer historyLinger;
+
+    @Value("${client.timeout:3}")
+    private Integer clientTimeout;
+
     @Autowired
     private P2PService p2pService;
 
     @Autowired
-    private RecordRepository recordRepository;
+    private RecordStore recordStore;
+
+    @Autowired
+    private StorageExecutor storageExecutor;
 
     @Autowired
     private CPProtocolClient cpProtocolClient;
 
+    @Autowired
+    private ReplicatedLog replicatedLog;
+
+    @Autowired
+    private SnapshotStore snapshotStore;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
     private volatile Epoch clock;
     private volatile Runnable status;
 
@@ -59,30 +109,184 @@ public class CPProtocolService implements ProtocolService {
     private int electionTerm;
     private VotingBoard votes;
 
-    private volatile CPRecord updateBuffer;
+    private BlockingQueue<Record> pendingWrites;
+
+    private final AtomicBoolean catchingUp = new AtomicBoolean(false);
+
+    /**
+     * Until this instant (System.nanoTime) no other node can have been
+     * elected, so the leader can answer reads from its own store.
+     */
+    private volatile long leaseDeadline = System.nanoTime();
+
+    /**
+     * Index of the no-op entry the leader appends first in its term, 0
+     * until it is appended. Committing it commits everything before it.
+     */
+    private volatile long termStartIndex;
+
+    @PostConstruct
+    public void init() {
+        this.pendingWrites = new ArrayBlockingQueue<>(pendingWritesLimit);
+    }
 
+    /**
+     * Reads are linearizable: the leader answers while it holds the lease,
+     * a follower forwards the read to the leader.
+     */
     @Override
     public Mono<ResponseEntity> get(String key) {
-        Optional<Record> record = recordRepository.findByKey(key);
+        if (status == follower) {
+            String leaderAddress = p2pService.getPeer(clock.getLeader());
+            if (leaderAddress == null) {
+                log.info("\nLeader {} is not one of our peers\n", clock.getLeader());
+                return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("No leader at the moment!"));
+            }
+
+            log.info("\nForwarding read request of {} to leader {}", key, leaderAddress);
+            return cpProtocolClient.forwardReadToLeader(key, leaderAddress)
+                    .map(entity -> forwarded(entity, leaderAddress));
+        } else {
+            return storageExecutor.call(() -> leaseRead(key));
+        }
+    }
+
+    public ResponseEntity leaseRead(String key) {
+        if (!holdsLease()) {
+            return leaseExpired();
+        }
+
+        metricsRegistry.counter("cp_lease_reads").increment();
+        Optional<Record> record = recordStore.findByKey(key);
         if (record.isPresent()) {
-            return Mono.just(ResponseEntity.status(HttpStatus.OK).body("RAFT " + record.get().toString()));
+            return ResponseEntity.status(HttpStatus.OK)
+                    .header(LEADER_HEADER, p2pService.getSelf())
+                    .body("RAFT " + record.get().toString());
         } else {
-            return Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).header(LEADER_HEADER, p2pService.getSelf()).build();
+        }
+    }
+
+    public ResponseEntity leaseReadAll(List<String> keys) {
+        if (!holdsLease()) {
+            return leaseExpired();
+        }
+
+        metricsRegistry.counter("cp_lease_reads").increment();
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Record record : recordStore.findByKeyIn(keys)) {
+            values.put(record.getKey(), record.getVal());
         }
+        return ResponseEntity.status(HttpStatus.OK).header(LEADER_HEADER, p2pService.getSelf()).body(values);
+    }
+
+    /**
+     * Besides the lease, the store must be up to date: an entry of our
+     * term is committed (so is every entry of the previous leaders) and
+     * every committed entry is applied.
+     */
+    private boolean holdsLease() {
+        long appliedIndex = replicatedLog.getAppliedIndex();
+        return status == leader && System.nanoTime() - leaseDeadline < 0
+                && termStartIndex > 0 && appliedIndex >= termStartIndex
+                && appliedIndex >= replicatedLog.getCommitIndex();
+    }
+
+    private ResponseEntity leaseExpired() {
+        log.info("\nRefusing read, not a leader with a valid lease\n");
+        metricsRegistry.counter("cp_lease_refused_reads").increment();
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("No leader lease at the moment!");
+    }
+
+    private static ResponseEntity forwarded(ResponseEntity<String> entity, String leaderAddress) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(entity.getStatusCode())
+                .header(LEADER_HEADER, leaderAddress);
+        if (entity.getHeaders().getContentType() != null) {
+            response.contentType(entity.getHeaders().getContentType());
+        }
+        return response.body(entity.getBody());
     }
 
     @Override
     public Mono<ResponseEntity> set(String key, String value) throws Exception {
         if (status == follower) {
-            log.info("\nForwarding write request of {} to leader {} for value {}", key, clock.getLeader(), value);
-            ClientResponse clientResponse = cpProtocolClient.forwardDataToLeader(key, value, clock.getLeader()).block();
-            log.info("\nWrite request result: {}\n", clientResponse.statusCode());
+            String leaderAddress = p2pService.getPeer(clock.getLeader());
+            if (leaderAddress == null) {
+                log.info("\nLeader {} is not one of our peers\n", clock.getLeader());
+                return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("No leader at the moment!"));
+            }
 
-            return Mono.just(ResponseEntity.status(clientResponse.statusCode()).build());
+            log.info("\nForwarding write request of {} to leader {} for value {}", key, leaderAddress, value);
+            return cpProtocolClient.forwardDataToLeader(key, value, leaderAddress)
+                    .<ResponseEntity>map(clientResponse -> {
+                        log.info("\nWrite request result: {}\n", clientResponse.statusCode());
+                        return ResponseEntity.status(clientResponse.statusCode())
+                                .header(LEADER_HEADER, leaderAddress)
+                                .build();
+                    });
         } else if (status == leader) {
             log.info("\nReceived write request of {} for value {}\n", key, value);
-            updateBuffer = new CPRecord(key, value, clock.getTerm(), clock.getTick());
-            return Mono.just(ResponseEntity.status(HttpStatus.OK).build());
+            if (pendingWrites.offer(new Record(key, value))) {
+                return Mono.just(ResponseEntity.status(HttpStatus.OK).header(LEADER_HEADER, p2pService.getSelf()).build());
+            } else {
+                log.info("\nToo many pending writes, refusing {}\n", key);
+                return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many pending writes!"));
+            }
+        } else {
+            log.info("\nNo leader elected yet\n");
+            return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("No leader at the moment!"));
+        }
+    }
+
+    @Override
+    public Mono<ResponseEntity> getAll(List<String> keys) {
+        if (status == follower) {
+            String leaderAddress = p2pService.getPeer(clock.getLeader());
+            if (leaderAddress == null) {
+                log.info("\nLeader {} is not one of our peers\n", clock.getLeader());
+                return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("No leader at the moment!"));
+            }
+
+            log.info("\nForwarding batch read of {} keys to leader {}", keys.size(), leaderAddress);
+            return cpProtocolClient.forwardReadAllToLeader(keys, leaderAddress)
+                    .map(entity -> forwarded(entity, leaderAddress));
+        } else {
+            return storageExecutor.call(() -> leaseReadAll(keys));
+        }
+    }
+
+    /**
+     * Batch write: a follower forwards the whole batch to the leader in one
+     * request, the leader queues it so that it travels in the next beat(s).
+     */
+    @Override
+    public Mono<ResponseEntity> setAll(Map<String, String> values) throws Exception {
+        if (status == follower) {
+            String leaderAddress = p2pService.getPeer(clock.getLeader());
+            if (leaderAddress == null) {
+                log.info("\nLeader {} is not one of our peers\n", clock.getLeader());
+                return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("No leader at the moment!"));
+            }
+
+            log.info("\nForwarding batch write of {} records to leader {}", values.size(), leaderAddress);
+            return cpProtocolClient.forwardBatchToLeader(values, leaderAddress)
+                    .<ResponseEntity>map(clientResponse -> {
+                        log.info("\nBatch write result: {}\n", clientResponse.statusCode());
+                        return ResponseEntity.status(clientResponse.statusCode())
+                                .header(LEADER_HEADER, leaderAddress)
+                                .build();
+                    });
+        } else if (status == leader) {
+            log.info("\nReceived batch write of {} records\n", values.size());
+            if (pendingWrites.remainingCapacity() < values.size()) {
+                log.info("\nToo many pending writes, refusing batch of {}\n", values.size());
+                return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many pending writes!"));
+            }
+
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                pendingWrites.offer(new Record(entry.getKey(), entry.getValue()));
+            }
+            return Mono.just(ResponseEntity.status(HttpStatus.OK).header(LEADER_HEADER, p2pService.getSelf()).build());
         } else {
             log.info("\nNo leader elected yet\n");
             return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("No leader at the moment!"));
@@ -104,6 +308,8 @@ public class CPProtocolService implements ProtocolService {
         this.quorum = 1 + p2pService.getPeers().size() / 2;
         this.clock = new Epoch(0);
         this.votes = new VotingBoard();
+        this.pendingWrites.clear();
+        this.replicatedLog.reload();
         this.status = follower;
 
         ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
@@ -123,6 +329,7 @@ public class CPProtocolService implements ProtocolService {
     @Override
     public void stop() {
         status = null;
+        leaseDeadline = System.nanoTime();
         try {
             Thread.sleep(DEFAULT_TICK_TIMEOUT);
         } catch (InterruptedException e) {
@@ -136,47 +343,130 @@ public class CPProtocolService implements ProtocolService {
         }
         clock.touch();
 
-        boolean res = votes.getVote(vote);
+        boolean res = isUpToDate(vote) && votes.getVote(vote);
         log.info("\n/vote request from {}, term {}: {}", vote.getPort(), vote.getTerm(), res ? "yes" : "no");
         return res;
     }
 
+    /**
+     * A candidate whose log is behind ours could be missing committed
+     * entries, and would overwrite them once elected: the last terms are
+     * compared first, then the last indexes.
+     */
+    private boolean isUpToDate(VoteRequest vote) {
+        long lastIndex = vote.getLastLogIndex() != null ? vote.getLastLogIndex() : 0;
+        int lastTerm = vote.getLastLogTerm() != null ? vote.getLastLogTerm() : 0;
+        if (lastTerm != replicatedLog.getLastTerm()) {
+            return lastTerm > replicatedLog.getLastTerm();
+        }
+        return lastIndex >= replicatedLog.getLastIndex();
+    }
+
     public boolean handleBeat(Update beat) {
         Integer currentTerm = clock.getTerm();
-        Integer currentTick = clock.getTick();
-
-        boolean success = clock.update(beat);
-        if (success) {
-            if (status == candidate) {
-                log.info("\nOps! Somebody is already in charge, election aborted!\n");
-                switchToFollower();
-            } else if (status == leader) {
-                log.info("\nOps! Two leaders here? Let's start an election!\n");
-                switchToCandidate();
-            }
 
-            if (beat.data != null) {
-                recordRepository.save(beat.data);
-            }
+        if (!clock.update(beat)) {
+            return false;
+        }
 
-            electionTerm = currentTerm;
+        if (status == candidate) {
+            log.info("\nOps! Somebody is already in charge, election aborted!\n");
+            switchToFollower();
+        } else if (status == leader) {
+            log.info("\nOps! Two leaders here? Let's start an election!\n");
+            switchToCandidate();
         }
 
-        if ((currentTerm != beat.term && beat.tick != 1) || (currentTerm == beat.term && beat.tick - currentTick > 1)) {
-            log.info("\nAsking history from term {} and tick {} to {}\n", clock.getTerm(), clock.getTick(), beat.from);
-            cpProtocolClient.history(clock.getTerm(), clock.getTick(), beat.from).subscribe(record -> {
-                log.info("\n- history: {}\n", record);
-                recordRepository.save(record);
-            });
-            return true;
-        } else {
+        electionTerm = currentTerm;
+
+        if (replicatedLog.appendEntries(beat.prevLogIndex, beat.prevLogTerm, beat.data)) {
+            replicatedLog.commit(beat.commitIndex);
+
             log.info("\r/update {}            ", beat.toCompactString());
-            if (beat.data != null) {
-                log.info("\n- with data: {}\n", beat.data);
+            if (beat.data != null && !beat.data.isEmpty()) {
+                log.info("\n- with {} records: {}\n", beat.data.size(), beat.data);
             }
+            return true;
+        } else {
+            catchUp(beat.from);
+            return false;
         }
+    }
+
+    private void catchUp(Integer leaderPort) {
+        String leaderAddress = p2pService.getPeer(leaderPort);
+        if (leaderAddress == null || !catchingUp.compareAndSet(false, true)) {
+            return;
+        }
+
+        long from = replicatedLog.getLastIndex();
+        AtomicLong after = new AtomicLong(from);
+        log.info("\nAsking history after index {} to {}\n", from, leaderAddress);
+        cpProtocolClient.history(from, historyPageSize, leaderAddress)
+                .bufferTimeout(historyPageSize, Duration.ofMillis(historyLinger))
+                .concatMap(entries -> storageExecutor.call(() -> {
+                    if (replicatedLog.appendHistory(after.get(), entries)) {
+                        after.set(entries.get(entries.size() - 1).getLogIndex());
+                        return entries.size();
+                    }
+                    return -1;
+                }))
+                .takeWhile(count -> count >= 0)
+                .reduce(0, Integer::sum)
+                .doOnNext(count -> log.info("\n- history: {} entries after {}\n", count, from))
+                .then()
+                .onErrorResume(error -> isCompacted(error) ? installSnapshot(leaderAddress) : Mono.error(error))
+                .doFinally(signal -> catchingUp.set(false))
+                .subscribe(done -> {
+                }, error -> log.info("\n- history failed: {}\n", error.getMessage()));
+    }
 
-        return success;
+    private static boolean isCompacted(Throwable error) {
+        return error instanceof WebClientResponseException
+                && ((WebClientResponseException) error).getStatusCode() == HttpStatus.GONE;
+    }
+
+    /**
+     * The leader truncated its log past our last entry: its snapshot is
+     * downloaded chunk by chunk, then replaces our state and log. The next
+     * beat asks for the history after it.
+     */
+    private Mono<Void> installSnapshot(String leaderAddress) {
+        log.info("\n- leader log is compacted, fetching its snapshot\n");
+        metricsRegistry.counter("cp_snapshot_installs").increment();
+
+        return storageExecutor.call(snapshotStore::download)
+                .flatMap(download -> fetchSnapshot(download, leaderAddress).doOnError(error -> download.abort()))
+                .flatMap(snapshot -> storageExecutor.<Void>call(() -> {
+                    replicatedLog.installSnapshot(snapshot);
+                    return null;
+                }));
+    }
+
+    private Mono<Snapshot> fetchSnapshot(SnapshotStore.Download download, String leaderAddress) {
+        long offset = download.getPosition();
+        return cpProtocolClient.snapshotChunk(download.getIndex(), offset, leaderAddress)
+                .flatMap(clientResponse -> {
+                    if (clientResponse.statusCode().isError()) {
+                        return WebClientFactory.drained(clientResponse)
+                                .then(Mono.<Void>error(new IllegalStateException(leaderAddress + " answered " + clientResponse.statusCode() + " for its snapshot")));
+                    }
+                    HttpHeaders headers = clientResponse.headers().asHttpHeaders();
+                    return download.write(
+                            Long.parseLong(headers.getFirst(CPProtocolController.SNAPSHOT_INDEX)),
+                            Integer.parseInt(headers.getFirst(CPProtocolController.SNAPSHOT_TERM)),
+                            Long.parseLong(headers.getFirst(CPProtocolController.SNAPSHOT_SIZE)),
+                            clientResponse.body(BodyExtractors.toDataBuffers()).timeout(Duration.ofMillis(clientTimeout)));
+                })
+                .then(Mono.defer(() -> {
+                    if (download.isComplete()) {
+                        return storageExecutor.call(download::finish);
+                    }
+                    if (download.getPosition() == offset) {
+                        return Mono.error(new IllegalStateException("Empty snapshot chunk at " + offset + " from " + leaderAddress));
+                    }
+                    return fetchSnapshot(download, leaderAddress);
+                }));
     }
 
     public boolean amITheLeader() {
@@ -224,19 +514,39 @@ public class CPProtocolService implements ProtocolService {
         public void run() {
             clock.nextTick();
 
-            CPRecord localBuffer = updateBuffer;
-            updateBuffer = null;
+            long prevLogIndex = replicatedLog.getLastIndex();
+            int prevLogTerm = replicatedLog.getLastTerm();
+            List<Record> writes = drainPendingWrites();
+            boolean termStart = termStartIndex == 0;
+            if (termStart) {
+                writes.add(0, ReplicatedLog.noop());
+            }
+            List<CPRecord> entries = replicatedLog.append(clock.getTerm(), writes);
+            long beatIndex = replicatedLog.getLastIndex();
+            if (termStart) {
+                termStartIndex = entries.get(0).getLogIndex();
+            }
 
-            log.info("\rBeating, term={},tick={}", clock.getTerm(), clock.getTick());
-            if (localBuffer != null) {
-                recordRepository.save(localBuffer);
-                log.info("\n- sending data: {}\n", localBuffer);
+            log.info("\rBeating, term={},tick={},index={}", clock.getTerm(), clock.getTick(), beatIndex);
+            if (!entries.isEmpty()) {
+                log.info("\n- sending {} entries: {}\n", entries.size(), entries);
             }
 
-            cpProtocolClient.sendBeat(new Update(serverPort, clock, localBuffer), quorum).subscribe(responses -> {
+            Update update = new Update(serverPort, clock, prevLogIndex, prevLogTerm, replicatedLog.getCommitIndex(),
+                    entries.isEmpty() ? null : entries);
+            Epoch beatClock = clock;
+            long beatStart = System.nanoTime();
+            cpProtocolClient.sendBeat(update, quorum).subscribe(responses -> {
                 if (responses < quorum) {
+                    metricsRegistry.counter("cp_beat_failures").increment();
                     log.info("\nI was able to end the beat only to {} followers for term {}", responses, clock.getTerm());
                     switchToFollower();
+                } else {
+                    metricsRegistry.latency("cp_beat_quorum").record(System.nanoTime() - beatStart);
+                    storageExecutor.run(() -> replicatedLog.commit(beatIndex))
+                            .doOnSuccess(done -> renewLease(beatClock, beatStart))
+                            .subscribe(done -> {
+                            }, error -> log.info("\n- commit of index {} failed: {}", beatIndex, error.getMessage()));
                 }
             });
         }
@@ -247,16 +557,58 @@ public class CPProtocolService implements ProtocolService {
         }
     };
 
+    /**
+     * Takes from the pending writes as many records as fit in one beat,
+     * bounded both by number of entries and by (approximate) payload size.
+     * Only the scheduler thread drains the queue, so peek-then-poll is safe.
+     */
+    private List<Record> drainPendingWrites() {
+        List<Record> batch = new ArrayList<>();
+        int bytes = 0;
+        Record next;
+        while (batch.size() < batchMaxEntries && (next = pendingWrites.peek()) != null) {
+            int size = sizeOf(next);
+            if (!batch.isEmpty() && bytes + size > batchMaxBytes) {
+                break;
+            }
+            batch.add(pendingWrites.poll());
+            bytes += size;
+        }
+        return batch;
+    }
+
+    private static int sizeOf(Record record) {
+        int size = record.getKey().length();
+        if (record.getVal() != null) {
+            size += record.getVal().length();
+        }
+        return size;
+    }
+
+    /**
+     * The lease starts when the beat was sent, not when the majority
+     * answered: followers restarted their election timer somewhere in
+     * between. A late answer from a previous leadership renews nothing.
+     */
+    private synchronized void renewLease(Epoch beatClock, long beatStart) {
+        long deadline = beatStart + TimeUnit.MILLISECONDS.toNanos(DEFAULT_LEASE_TIMEOUT);
+        if (status == leader && clock == beatClock && deadline - leaseDeadline > 0) {
+            leaseDeadline = deadline;
+        }
+    }
+
     private void switchToFollower() {
         switchStatus(follower);
     }
 
     private void switchToCandidate() {
+        metricsRegistry.counter("cp_elections").increment();
         electionTerm++;
         votes.put(electionTerm, serverPort);
         switchStatus(candidate);
 
-        cpProtocolClient.requestVotes(electionTerm, quorum).subscribe(voteQuorum -> {
+        VoteRequest vote = new VoteRequest(serverPort, electionTerm, replicatedLog.getLastIndex(), replicatedLog.getLastTerm());
+        cpProtocolClient.requestVotes(vote, quorum).subscribe(voteQuorum -> {
             if (voteQuorum >= quorum) {
                 log.info("\nI was elected leader for term {}!", clock.getTerm());
                 switchToLeader();
@@ -265,12 +617,18 @@ public class CPProtocolService implements ProtocolService {
     }
 
     private void switchToLeader() {
+        metricsRegistry.counter("cp_elections_won").increment();
         clock = new Epoch(electionTerm);
+        termStartIndex = 0;
         switchStatus(leader);
     }
 
 
-    private void switchStatus(Runnable newStatus) {
+    private synchronized void switchStatus(Runnable newStatus) {
+        if (newStatus != leader) {
+            leaseDeadline = System.nanoTime();
+        }
+
         int term = Math.max(electionTerm, clock.getTerm());
         if (status != newStatus) {
             log.info("\nSwitching from status {} to status {} in term {}\n\n", status, newStatus, term);
@@ -284,8 +642,13 @@ public class CPProtocolService implements ProtocolService {
         scheduler.schedule(runnable, randomize(DEFAULT_TICK_TIMEOUT / 2), TimeUnit.MILLISECONDS);
     }
 
-    public ArrayList<CPRecord> getHistory(Integer term, Integer tick) {
-        return recordRepository.findByTermLessThanEqualAndTickLessThanEqual(term, tick);
+    /**
+     * @return the entries after the index, null if the log was truncated
+     * past it
+     */
+    public Flux<CPRecord> getHistory(Long index, Integer pageSize) {
+        Flux<CPRecord> entries = replicatedLog.entriesAfter(index, pageSize != null && pageSize > 0 ? pageSize : historyPageSize);
+        return entries == null ? null : entries.subscribeOn(storageExecutor.getScheduler());
     }
 }
 
@@ -0,0 +1,396 @@
+package org.magemello.sys.node.protocols.cp.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.protocols.cp.domain.CPRecord;
+import org.magemello.sys.node.protocols.cp.domain.LogEntry;
+import org.magemello.sys.node.protocols.cp.domain.Snapshot;
+import org.magemello.sys.node.repository.LogEntryRepository;
+import org.magemello.sys.node.repository.RecordStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Append-only replicated log used by the CP protocol.
+ *
+ * Every entry has a monotonically increasing index and the term in which
+ * the leader created it. Entries up to the commit index are known to be
+ * replicated on a majority and are applied, in order, to the record
+ * store; the applied index tracks how far that went.
+ *
+ * Every cp.snapshot.threshold applied entries the store is written to a
+ * snapshot and the log is truncated up to it. A follower that needs
+ * entries no longer in the leader log installs the leader snapshot
+ * instead, see {@link #installSnapshot(Snapshot)}.
+ */
+@Service
+public class ReplicatedLog {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicatedLog.class);
+
+    @Autowired
+    private LogEntryRepository logEntryRepository;
+
+    @Autowired
+    private RecordStore recordStore;
+
+    @Autowired
+    private SnapshotStore snapshotStore;
+
+    @Value("${cp.snapshot.threshold:10000}")
+    private Long snapshotThreshold;
+
+    private volatile long lastIndex;
+    private volatile int lastTerm;
+    private volatile long commitIndex;
+    private volatile long appliedIndex;
+    private volatile long snapshotIndex;
+    private volatile int snapshotTerm;
+
+    private final AtomicBoolean snapshotting = new AtomicBoolean(false);
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cp-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reloads the indexes from the database. Whatever is in the record
+     * store has been applied, anything after it is considered uncommitted
+     * and will be reconciled with the leader.
+     */
+    public synchronized void reload() {
+        Snapshot snapshot = snapshotStore.latest();
+        this.snapshotIndex = snapshot != null ? snapshot.getIndex() : 0;
+        this.snapshotTerm = snapshot != null ? snapshot.getTerm() : 0;
+
+        LogEntry last = logEntryRepository.findTopByOrderByLogIndexDesc().orElse(null);
+        this.lastIndex = last != null ? last.getLogIndex() : snapshotIndex;
+        this.lastTerm = last != null ? last.getTerm() : snapshotTerm;
+
+        Long applied = recordStore.findLastAppliedIndex();
+        this.appliedIndex = applied != null ? Math.min(applied, lastIndex) : 0;
+        this.commitIndex = appliedIndex;
+
+        log.info("\nLog reloaded, last={}, term={}, applied={}\n", lastIndex, lastTerm, appliedIndex);
+    }
+
+    public synchronized void clear() {
+        logEntryRepository.deleteAll();
+        try {
+            snapshotStore.clear();
+        } catch (IOException e) {
+            log.info("\n- cannot delete the snapshots: {}", e.getMessage());
+        }
+        this.lastIndex = 0;
+        this.lastTerm = 0;
+        this.commitIndex = 0;
+        this.appliedIndex = 0;
+        this.snapshotIndex = 0;
+        this.snapshotTerm = 0;
+    }
+
+    /**
+     * The entry a new leader appends first in its term: it has no key and
+     * is never applied to the record store.
+     */
+    public static Record noop() {
+        return new Record(null, null);
+    }
+
+    /**
+     * Leader side: appends the records at the end of the log in the given
+     * term and returns them stamped with their index.
+     */
+    public synchronized List<CPRecord> append(int term, List<? extends Record> records) {
+        List<LogEntry> entries = new ArrayList<>(records.size());
+        for (Record record : records) {
+            entries.add(new LogEntry(++lastIndex, term, record.getKey(), record.getVal()));
+        }
+
+        if (!entries.isEmpty()) {
+            logEntryRepository.saveAll(entries);
+            lastTerm = term;
+        }
+
+        return entries.stream().map(LogEntry::toRecord).collect(Collectors.toList());
+    }
+
+    /**
+     * Follower side: appends the entries sent by the leader if our log
+     * contains the entry preceding them. On a term conflict the uncommitted
+     * tail is dropped, so that the next catch-up restarts from the commit
+     * index. Entries we already committed must match ours, or nothing is
+     * acknowledged.
+     */
+    public synchronized boolean appendEntries(long prevIndex, int prevTerm, List<CPRecord> entries) {
+        if (prevIndex > lastIndex) {
+            log.info("\n- log is behind, we have {} leader is at {}", lastIndex, prevIndex);
+            return false;
+        }
+
+        // entries up to the snapshot are committed, they cannot conflict
+        Integer term = prevIndex < snapshotIndex ? Integer.valueOf(prevTerm) : termAt(prevIndex);
+        if (term == null || term != prevTerm) {
+            log.info("\n- log conflict at index {}, dropping entries after {}", prevIndex, commitIndex);
+            truncateAfter(commitIndex);
+            return false;
+        }
+
+        return store(entries);
+    }
+
+    /**
+     * Follower side: installs the entries received from the leader history,
+     * which are authoritative for everything after the given index. The
+     * history comes in batches, each one appended after the previous.
+     *
+     * @return false if the entries were discarded, being stale or not
+     * following the index
+     */
+    public synchronized boolean appendHistory(long after, List<CPRecord> entries) {
+        if (after < commitIndex || after > lastIndex) {
+            log.info("\n- discarding stale history after {}, log is now at {}", after, lastIndex);
+            return false;
+        }
+        if (!entries.isEmpty() && entries.get(0).getLogIndex() != after + 1) {
+            log.info("\n- discarding history starting at {}, the leader compacted its log meanwhile", entries.get(0).getLogIndex());
+            return false;
+        }
+
+        truncateAfter(after);
+        return store(entries);
+    }
+
+    public synchronized void commit(long leaderCommit) {
+        long newCommit = Math.min(leaderCommit, lastIndex);
+        if (newCommit > commitIndex) {
+            commitIndex = newCommit;
+            apply();
+        }
+    }
+
+    /**
+     * The entries after the index, read one page at a time with the last
+     * index of a page as the cursor of the next one. A page is read only
+     * when the previous one was consumed, so a large gap never sits in
+     * memory.
+     *
+     * @return null if some of the entries are no longer in the log (the
+     * caller needs the snapshot)
+     */
+    public Flux<CPRecord> entriesAfter(long index, int pageSize) {
+        if (index < snapshotIndex) {
+            return null;
+        }
+        return Flux.<List<CPRecord>, Long>generate(() -> index, (cursor, sink) -> {
+            List<CPRecord> page = logEntryRepository.findByLogIndexGreaterThanOrderByLogIndexAsc(cursor, PageRequest.of(0, pageSize))
+                    .stream()
+                    .map(LogEntry::toRecord)
+                    .collect(Collectors.toList());
+            if (page.isEmpty()) {
+                sink.complete();
+                return cursor;
+            }
+            sink.next(page);
+            return page.get(page.size() - 1).getLogIndex();
+        }).concatMapIterable(page -> page, 1);
+    }
+
+    public long getLastIndex() {
+        return lastIndex;
+    }
+
+    public int getLastTerm() {
+        return lastTerm;
+    }
+
+    public long getCommitIndex() {
+        return commitIndex;
+    }
+
+    public long getAppliedIndex() {
+        return appliedIndex;
+    }
+
+    public long getSnapshotIndex() {
+        return snapshotIndex;
+    }
+
+    /**
+     * Follower side: replaces the state with the snapshot received from the
+     * leader and drops the whole log, the entries after the snapshot come
+     * with the next catch-up.
+     */
+    public synchronized void installSnapshot(Snapshot snapshot) throws IOException {
+        if (snapshot.getIndex() <= commitIndex) {
+            log.info("\n- ignoring snapshot at {}, log is already committed up to {}", snapshot.getIndex(), commitIndex);
+            return;
+        }
+
+        snapshotStore.read(snapshot, 1000, recordStore::saveAll);
+        logEntryRepository.deleteAll();
+
+        snapshotIndex = snapshot.getIndex();
+        snapshotTerm = snapshot.getTerm();
+        lastIndex = snapshotIndex;
+        lastTerm = snapshotTerm;
+        commitIndex = snapshotIndex;
+        appliedIndex = snapshotIndex;
+        log.info("\n- installed snapshot {}\n", snapshot);
+    }
+
+    /**
+     * @return false if one of the entries up to the commit index differs
+     * from ours, nothing is stored then
+     */
+    private boolean store(List<CPRecord> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return true;
+        }
+
+        for (CPRecord entry : entries) {
+            if (entry.getLogIndex() > commitIndex) {
+                break;
+            }
+            // up to the snapshot the terms are gone, the entries are committed anyway
+            Integer term = entry.getLogIndex() <= snapshotIndex ? entry.getTerm() : termAt(entry.getLogIndex());
+            if (term == null || !term.equals(entry.getTerm())) {
+                log.info("\n- entry {} in term {} conflicts with our committed log (term {}), refusing it", entry.getLogIndex(), entry.getTerm(), term);
+                return false;
+            }
+        }
+
+        List<LogEntry> newEntries = entries.stream()
+                .filter(entry -> entry.getLogIndex() > commitIndex)
+                .map(LogEntry::new)
+                .collect(Collectors.toList());
+        if (newEntries.isEmpty()) {
+            return true;
+        }
+
+        long first = newEntries.get(0).getLogIndex();
+        if (first <= lastIndex) {
+            truncateAfter(first - 1);
+        }
+
+        logEntryRepository.saveAll(newEntries);
+
+        LogEntry last = newEntries.get(newEntries.size() - 1);
+        lastIndex = last.getLogIndex();
+        lastTerm = last.getTerm();
+        return true;
+    }
+
+    private void truncateAfter(long index) {
+        if (index < lastIndex) {
+            Integer term = termAt(index);
+            logEntryRepository.deleteByLogIndexGreaterThan(index);
+            lastIndex = index;
+            lastTerm = term != null ? term : 0;
+        }
+    }
+
+    private Integer termAt(long index) {
+        if (index == 0) {
+            return 0;
+        } else if (index == lastIndex) {
+            return lastTerm;
+        } else if (index == snapshotIndex) {
+            return snapshotTerm;
+        } else {
+            return logEntryRepository.findById(index).map(LogEntry::getTerm).orElse(null);
+        }
+    }
+
+    private void apply() {
+        if (appliedIndex >= commitIndex) {
+            return;
+        }
+
+        List<CPRecord> records = logEntryRepository
+                .findByLogIndexGreaterThanAndLogIndexLessThanEqualOrderByLogIndexAsc(appliedIndex, commitIndex)
+                .stream()
+                .filter(entry -> entry.getKey() != null)
+                .map(LogEntry::toRecord)
+                .collect(Collectors.toList());
+
+        recordStore.saveAll(records);
+        appliedIndex = commitIndex;
+        log.info("\n- applied {} entries, log is at {}\n", records.size(), appliedIndex);
+
+        if (appliedIndex - snapshotIndex >= snapshotThreshold) {
+            snapshot();
+        }
+    }
+
+    /**
+     * The state is read here, under the lock, so that it matches the
+     * applied index; writing the file and truncating the log happen in the
+     * background.
+     */
+    private void snapshot() {
+        if (!snapshotting.compareAndSet(false, true)) {
+            return;
+        }
+
+        long index = appliedIndex;
+        Integer term = termAt(index);
+        List<CPRecord> state = recordStore.findAll()
+                .stream()
+                .filter(record -> record instanceof CPRecord)
+                .map(record -> (CPRecord) record)
+                .collect(Collectors.toList());
+
+        executor.execute(() -> {
+            try {
+                Snapshot snapshot = snapshotStore.write(index, term != null ? term : 0, state);
+                compact(snapshot);
+            } catch (IOException | RuntimeException e) {
+                log.info("\n- snapshot at {} failed: {}", index, e.getMessage());
+            } finally {
+                snapshotting.set(false);
+            }
+        });
+    }
+
+    private void compact(Snapshot snapshot) {
+        synchronized (this) {
+            if (snapshot.getIndex() <= snapshotIndex) {
+                return;
+            }
+            snapshotIndex = snapshot.getIndex();
+            snapshotTerm = snapshot.getTerm();
+        }
+
+        logEntryRepository.deleteByLogIndexLessThanEqual(snapshot.getIndex());
+        log.info("\n- snapshot {} taken, log truncated up to {}\n", snapshot, snapshot.getIndex());
+    }
+}
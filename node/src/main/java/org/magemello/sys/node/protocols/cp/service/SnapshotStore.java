@@ -0,0 +1,270 @@
+package org.magemello.sys.node.protocols.cp.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.magemello.sys.node.codec.BinaryCodec;
+import org.magemello.sys.node.protocols.cp.domain.CPRecord;
+import org.magemello.sys.node.protocols.cp.domain.Snapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Snapshot files of the CP state, one directory per node.
+ *
+ * A snapshot is named after the index and the term of the last entry it
+ * includes, and holds the records one after the other, each as an int
+ * length followed by the record in the binary codec. Files are written
+ * under a temporary name and renamed once synced, so the latest snapshot
+ * is always complete; older ones are deleted.
+ */
+@Service
+public class SnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStore.class);
+
+    private static final Pattern NAME = Pattern.compile("snapshot-(\\d+)-(\\d+)\\.snap");
+
+    private static final String DOWNLOAD = "download.tmp";
+
+    @Value("${cp.snapshot.dir:/tmp/sysdist-snapshot-${server.port}}")
+    private String snapshotDir;
+
+    @Value("${cp.snapshot.chunk-size:1048576}")
+    private Integer chunkSize;
+
+    private File dir;
+
+    private volatile Snapshot latest;
+
+    @PostConstruct
+    public void init() throws IOException {
+        dir = new File(snapshotDir);
+        Files.createDirectories(dir.toPath());
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Snapshot snapshot = parse(file.toPath());
+                if (snapshot == null) {
+                    Files.deleteIfExists(file.toPath());
+                } else if (latest == null || snapshot.getIndex() > latest.getIndex()) {
+                    latest = snapshot;
+                }
+            }
+        }
+        deleteOlderThan(latest);
+
+        if (latest != null) {
+            log.info("\nSnapshot found at index {}, term {}", latest.getIndex(), latest.getTerm());
+        }
+    }
+
+    /**
+     * @return the most recent complete snapshot, null if none was taken
+     */
+    public Snapshot latest() {
+        return latest;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public synchronized Snapshot write(long index, int term, List<CPRecord> records) throws IOException {
+        Path temp = new File(dir, "snapshot-" + index + ".tmp").toPath();
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+            for (CPRecord record : records) {
+                byte[] bytes = BinaryCodec.encode(record);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        return publish(temp, index, term);
+    }
+
+    /**
+     * Reads the records of the snapshot in batches of the given size.
+     */
+    public void read(Snapshot snapshot, int batchSize, Consumer<List<CPRecord>> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot.getFile()), 64 * 1024))) {
+            List<CPRecord> batch = new ArrayList<>(batchSize);
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                batch.add((CPRecord) BinaryCodec.decode(ByteBuffer.wrap(bytes)));
+                if (batch.size() == batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                consumer.accept(batch);
+            }
+        }
+    }
+
+    /**
+     * Starts receiving a snapshot from the leader, see {@link Download}.
+     */
+    public Download download() throws IOException {
+        return new Download(new File(dir, DOWNLOAD).toPath());
+    }
+
+    public synchronized void clear() throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        latest = null;
+    }
+
+    private synchronized Snapshot publish(Path temp, long index, int term) throws IOException {
+        Path target = new File(dir, "snapshot-" + index + "-" + term + ".snap").toPath();
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        Snapshot snapshot = new Snapshot(index, term, target, Files.size(target));
+        if (latest == null || snapshot.getIndex() >= latest.getIndex()) {
+            latest = snapshot;
+            deleteOlderThan(snapshot);
+        }
+        return snapshot;
+    }
+
+    private void deleteOlderThan(Snapshot snapshot) throws IOException {
+        File[] files = dir.listFiles();
+        if (snapshot == null || files == null) {
+            return;
+        }
+        for (File file : files) {
+            Snapshot other = parse(file.toPath());
+            if (other != null && other.getIndex() < snapshot.getIndex()) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private static Snapshot parse(Path file) throws IOException {
+        Matcher matcher = NAME.matcher(file.getFileName().toString());
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new Snapshot(Long.parseLong(matcher.group(1)), Integer.parseInt(matcher.group(2)), file, Files.size(file));
+    }
+
+    /**
+     * A snapshot being received in chunks. The first chunk tells which
+     * snapshot it is (index, term and size); every following chunk must be
+     * of the same one, and is appended at the end of the file.
+     */
+    public class Download {
+
+        private final Path file;
+
+        private final FileChannel channel;
+
+        private long index;
+
+        private int term;
+
+        private long size = -1;
+
+        Download(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        /**
+         * @return the index of the snapshot being received, 0 (the latest)
+         * before the first chunk
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        public long getPosition() {
+            try {
+                return channel.position();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public boolean isComplete() {
+            return size >= 0 && getPosition() >= size;
+        }
+
+        /**
+         * Appends a chunk, streaming it to the file as it arrives.
+         */
+        public Mono<Void> write(long index, int term, long size, Flux<DataBuffer> chunk) {
+            if (this.size < 0) {
+                this.index = index;
+                this.term = term;
+                this.size = size;
+            } else if (index != this.index) {
+                return Mono.error(new IllegalStateException("Snapshot " + this.index + " replaced by " + index + " during the transfer"));
+            }
+
+            return DataBufferUtils.write(chunk, channel)
+                    .doOnNext(DataBufferUtils::release)
+                    .then();
+        }
+
+        /**
+         * Syncs the received file and makes it the latest snapshot.
+         */
+        public Snapshot finish() throws IOException {
+            channel.force(true);
+            channel.close();
+            return publish(file, index, term);
+        }
+
+        public void abort() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.info("\n- cannot delete partial snapshot {}: {}", file, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.magemello.sys.node.repository;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Test mode, on with storage.detect-blocking=true: the record store and
+ * the Spring Data repositories are wrapped so that a call made on an event
+ * loop throws (and is logged and counted) instead of silently stalling
+ * it. The count is there for the tests, where a protocol may turn the
+ * exception into an error status.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.detect-blocking", havingValue = "true")
+public class BlockingCallDetector implements BeanPostProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockingCallDetector.class);
+
+    private final LongAdder detected = new LongAdder();
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof RecordStore) && !(bean instanceof Repository)) {
+            return bean;
+        }
+
+        return Proxy.newProxyInstance(bean.getClass().getClassLoader(), ClassUtils.getAllInterfaces(bean), (proxy, method, args) -> {
+            if (method.getDeclaringClass() != Object.class) {
+                try {
+                    StorageExecutor.checkBlockingAllowed(beanName + "." + method.getName());
+                } catch (IllegalStateException e) {
+                    detected.increment();
+                    log.error("\n{}", e.getMessage(), e);
+                    throw e;
+                }
+            }
+            try {
+                return method.invoke(bean, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        });
+    }
+
+    /**
+     * @return the storage calls made on a non-blocking thread so far
+     */
+    public long getDetected() {
+        return detected.sum();
+    }
+}
@@ -0,0 +1,66 @@
+package org.magemello.sys.node.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.magemello.sys.node.domain.Record;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Storage engine on H2: reads go through the JPA repository, writes
+ * through the {@link RecordWriter} upsert.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaRecordStore implements RecordStore {
+
+    @Autowired
+    private RecordRepository recordRepository;
+
+    @Autowired
+    private RecordWriter recordWriter;
+
+    @Override
+    public Optional<Record> findByKey(String key) {
+        return recordRepository.findByKey(key);
+    }
+
+    @Override
+    public List<Record> findByKeyIn(Collection<String> keys) {
+        return recordRepository.findByKeyIn(keys);
+    }
+
+    @Override
+    public List<Record> findAll() {
+        return recordRepository.findAll();
+    }
+
+    @Override
+    public <S extends Record> S save(S record) {
+        recordWriter.write(Collections.singletonList(record));
+        return record;
+    }
+
+    @Override
+    public <S extends Record> List<S> saveAll(Iterable<S> records) {
+        List<S> list = new ArrayList<>();
+        records.forEach(list::add);
+        recordWriter.write(list);
+        return list;
+    }
+
+    @Override
+    public void deleteAll() {
+        recordRepository.deleteAll();
+    }
+
+    @Override
+    public Long findLastAppliedIndex() {
+        return recordRepository.findLastAppliedIndex();
+    }
+}
@@ -0,0 +1,26 @@
+package org.magemello.sys.node.repository;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.magemello.sys.node.protocols.cp.domain.LogEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.transaction.annotation.Transactional;
+
+@RepositoryRestResource(exported = false)
+public interface LogEntryRepository extends JpaRepository<LogEntry, Long> {
+
+    List<LogEntry> findByLogIndexGreaterThanOrderByLogIndexAsc(Long logIndex, Pageable page);
+
+    List<LogEntry> findByLogIndexGreaterThanAndLogIndexLessThanEqualOrderByLogIndexAsc(Long from, Long to);
+
+    Optional<LogEntry> findTopByOrderByLogIndexDesc();
+
+    @Transactional
+    void deleteByLogIndexGreaterThan(Long logIndex);
+
+    @Transactional
+    void deleteByLogIndexLessThanEqual(Long logIndex);
+}
@@ -1,11 +1,12 @@
 package org.magemello.sys.node.repository;
 
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 import org.magemello.sys.node.domain.Record;
-import org.magemello.sys.node.protocols.cp.domain.CPRecord;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
 @RepositoryRestResource(collectionResourceRel = "record", path = "records")
@@ -14,5 +15,8 @@ public interface RecordRepository extends JpaRepository<Record, Long> {
 
     Optional<Record> findByKey(String key);
 
-    ArrayList<CPRecord> findByTermLessThanEqualAndTickLessThanEqual(Integer term, Integer tick);
+    List<Record> findByKeyIn(Collection<String> keys);
+
+    @Query("select max(r.logIndex) from CPRecord r")
+    Long findLastAppliedIndex();
 }
@@ -0,0 +1,36 @@
+package org.magemello.sys.node.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.magemello.sys.node.domain.Record;
+
+/**
+ * Storage engine used by the protocols to keep the current value of
+ * every key. The engine is selected with the storage.engine property
+ * (jpa, the default, or memory).
+ */
+public interface RecordStore {
+
+    Optional<Record> findByKey(String key);
+
+    List<Record> findByKeyIn(Collection<String> keys);
+
+    List<Record> findAll();
+
+    <S extends Record> S save(S record);
+
+    /**
+     * Saves all the records atomically: either all of them or none are
+     * visible to readers.
+     */
+    <S extends Record> List<S> saveAll(Iterable<S> records);
+
+    void deleteAll();
+
+    /**
+     * @return the highest CP log index applied to the store, null if none
+     */
+    Long findLastAppliedIndex();
+}
@@ -0,0 +1,229 @@
+package org.magemello.sys.node.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.protocols.cp.domain.CPRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write path of the jpa engine: one H2 MERGE per record instead of the
+ * select-then-insert-or-update JPA does for an assigned id.
+ *
+ * Writes are group committed: callers queue their records and wait, a
+ * single writer thread takes everything queued so far, runs it as JDBC
+ * batches of storage.jpa.batch-size on its own connection and prepared
+ * statement, and commits once for the whole group. A call is all in one
+ * transaction, so saveAll stays atomic.
+ *
+ * A failing group fails its callers only, the writer goes on with the next
+ * one; once the writer is stopped, writes fail straight away.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.engine", havingValue = "jpa", matchIfMissing = true)
+public class RecordWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(RecordWriter.class);
+
+    // same table and columns (and discriminator values) as the JPA mapping
+    private static final String MERGE = "MERGE INTO record (dtype, key, val, timestamp, term, log_index) KEY (key) VALUES (?, ?, ?, ?, ?, ?)";
+
+    @Value("${storage.jpa.batch-size:256}")
+    private Integer batchSize;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+
+    private Thread writer;
+
+    private volatile boolean stopped;
+
+    private Connection connection;
+
+    private PreparedStatement statement;
+
+    @PostConstruct
+    public void init() {
+        writer = new Thread(this::run, "record-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        writer.interrupt();
+        writer.join();
+    }
+
+    /**
+     * Upserts the records, returning once they are committed.
+     */
+    public void write(List<? extends Record> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        if (stopped) {
+            throw closed();
+        }
+        Write write = new Write(records);
+        queue.add(write);
+        // the writer may have stopped after the check, missing this write
+        if (stopped && queue.remove(write)) {
+            throw closed();
+        }
+        write.await();
+    }
+
+    private void run() {
+        List<Write> group = new ArrayList<>();
+        try {
+            while (true) {
+                group.add(queue.take());
+                queue.drainTo(group);
+                commit(group);
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            log.info("\n- record writer closed");
+        } catch (Throwable t) {
+            log.info("\n- record writer stopped: {}", t.toString());
+            throw t;
+        } finally {
+            stopped = true;
+            DataAccessResourceFailureException closed = closed();
+            group.forEach(write -> write.done(closed));
+            Write write;
+            while ((write = queue.poll()) != null) {
+                write.done(closed);
+            }
+            disconnect();
+        }
+    }
+
+    private static DataAccessResourceFailureException closed() {
+        return new DataAccessResourceFailureException("Record writer closed");
+    }
+
+    private void commit(List<Write> group) {
+        try {
+            if (statement == null) {
+                connection = dataSource.getConnection();
+                connection.setAutoCommit(false);
+                statement = connection.prepareStatement(MERGE);
+            }
+
+            int batched = 0;
+            for (Write write : group) {
+                for (Record record : write.records) {
+                    bind(record);
+                    statement.addBatch();
+                    if (++batched == batchSize) {
+                        statement.executeBatch();
+                        batched = 0;
+                    }
+                }
+            }
+            if (batched > 0) {
+                statement.executeBatch();
+            }
+            connection.commit();
+
+            group.forEach(write -> write.done(null));
+        } catch (SQLException e) {
+            log.info("\n- record upsert of {} writes failed: {}", group.size(), e.getMessage());
+            disconnect();
+            UncategorizedSQLException failure = new UncategorizedSQLException("record upsert", MERGE, e);
+            group.forEach(write -> write.done(failure));
+        } catch (RuntimeException e) {
+            log.info("\n- record upsert of {} writes failed: {}", group.size(), e.toString());
+            disconnect();
+            group.forEach(write -> write.done(e));
+        }
+    }
+
+    private void bind(Record record) throws SQLException {
+        statement.setString(1, record.getClass().getSimpleName());
+        statement.setString(2, record.getKey());
+        statement.setString(3, record.getVal());
+        statement.setNull(4, Types.BIGINT);
+        statement.setNull(5, Types.INTEGER);
+        statement.setNull(6, Types.BIGINT);
+        if (record instanceof APRecord) {
+            statement.setObject(4, ((APRecord) record).getTimestamp(), Types.BIGINT);
+        } else if (record instanceof CPRecord) {
+            statement.setObject(5, ((CPRecord) record).getTerm(), Types.INTEGER);
+            statement.setObject(6, ((CPRecord) record).getLogIndex(), Types.BIGINT);
+        }
+    }
+
+    /**
+     * Drops the connection after a failure (rolling back what the group
+     * left behind), the next group opens a new one.
+     */
+    private void disconnect() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (statement != null) {
+                statement.clearBatch();
+            }
+            connection.rollback();
+            connection.close();
+        } catch (SQLException e) {
+            log.info("\n- cannot close record writer connection: {}", e.getMessage());
+        }
+        connection = null;
+        statement = null;
+    }
+
+    private static class Write {
+        final List<? extends Record> records;
+        final CountDownLatch done = new CountDownLatch(1);
+        RuntimeException failure;
+
+        Write(List<? extends Record> records) {
+            this.records = records;
+        }
+
+        void done(RuntimeException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        void await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DataAccessResourceFailureException("Interrupted waiting for the record writer", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package org.magemello.sys.node.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.protocols.cp.domain.CPRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory storage engine, striped over a fixed number of shards each
+ * guarded by its own lock, so that writes on different keys do not contend.
+ *
+ * Every shard appends its writes to its own durability file (the
+ * storage.memory.file name followed by the shard number), replayed and
+ * compacted at startup. Each write gets the next version of the store;
+ * on replay the greatest version of a key wins, which also lets the single
+ * file of the previous layout be merged in (its records have version 0).
+ * All the shard files found are replayed and their records re-sharded by
+ * key, so storage.memory.shards can change between two runs.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.engine", havingValue = "memory")
+public class ShardedRecordStore implements RecordStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedRecordStore.class);
+
+    private static final byte TYPE_RECORD = 0;
+    private static final byte TYPE_AP = 1;
+    private static final byte TYPE_CP = 2;
+
+    @Value("${storage.memory.shards:16}")
+    private Integer shardCount;
+
+    @Value("${storage.memory.file:/tmp/sysdist-${server.port}.records}")
+    private String fileName;
+
+    private Shard[] shards;
+
+    private final AtomicLong version = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(new File(fileName + "." + i), version);
+        }
+
+        File legacy = new File(fileName);
+        int replayed = replay(legacy, false);
+        List<File> found = shardFiles();
+        for (File file : found) {
+            replayed += replay(file, true);
+        }
+        for (Shard shard : shards) {
+            shard.compact();
+        }
+        // the files of a larger shard count, their records now live in the others
+        for (File file : found) {
+            if (!isShardFile(file)) {
+                Files.delete(file.toPath());
+            }
+        }
+        if (legacy.exists()) {
+            Files.delete(legacy.toPath());
+        }
+        log.info("\nMemory store ready, {} shards, {} records replayed from {}.*\n", shardCount, replayed, fileName);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.out.close();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Optional<Record> findByKey(String key) {
+        Shard shard = shardFor(key);
+        shard.lock.lock();
+        try {
+            Entry entry = shard.records.get(key);
+            return Optional.ofNullable(entry != null ? entry.record : null);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Record> findByKeyIn(Collection<String> keys) {
+        List<Record> result = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            findByKey(key).ifPresent(result::add);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Record> findAll() {
+        List<Record> result = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                for (Entry entry : shard.records.values()) {
+                    result.add(entry.record);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public <S extends Record> S save(S record) {
+        Shard shard = shardFor(record.getKey());
+        shard.lock.lock();
+        try {
+            long version = shard.append(record);
+            shard.flush();
+            shard.put(record, version);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            shard.lock.unlock();
+        }
+        return record;
+    }
+
+    @Override
+    public <S extends Record> List<S> saveAll(Iterable<S> records) {
+        List<S> result = new ArrayList<>();
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (S record : records) {
+            result.add(record);
+            indexes.add(shardIndex(record.getKey()));
+        }
+
+        // locks always taken in shard order, so that batches cannot deadlock
+        for (Integer index : indexes) {
+            shards[index].lock.lock();
+        }
+        try {
+            long[] versions = new long[result.size()];
+            for (int i = 0; i < versions.length; i++) {
+                versions[i] = shardFor(result.get(i).getKey()).append(result.get(i));
+            }
+            for (Integer index : indexes) {
+                shards[index].flush();
+            }
+            for (int i = 0; i < versions.length; i++) {
+                shardFor(result.get(i).getKey()).put(result.get(i), versions[i]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (Integer index : indexes.descendingSet()) {
+                shards[index].lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void deleteAll() {
+        for (Shard shard : shards) {
+            shard.lock.lock();
+        }
+        try {
+            for (Shard shard : shards) {
+                shard.records.clear();
+                shard.compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (int i = shards.length - 1; i >= 0; i--) {
+                shards[i].lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Long findLastAppliedIndex() {
+        Long max = null;
+        for (Record record : findAll()) {
+            if (record instanceof CPRecord) {
+                Long index = ((CPRecord) record).getLogIndex();
+                if (index != null && (max == null || index > max)) {
+                    max = index;
+                }
+            }
+        }
+        return max;
+    }
+
+    private int shardIndex(String key) {
+        return (key.hashCode() & 0x7fffffff) % shards.length;
+    }
+
+    private Shard shardFor(String key) {
+        return shards[shardIndex(key)];
+    }
+
+    private List<File> shardFiles() {
+        File base = new File(fileName).getAbsoluteFile();
+        Pattern shardFile = Pattern.compile(Pattern.quote(base.getName()) + "\\.\\d+");
+        File[] files = base.getParentFile().listFiles((dir, name) -> shardFile.matcher(name).matches());
+        List<File> found = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                found.add(file);
+            }
+        }
+        return found;
+    }
+
+    private boolean isShardFile(File file) {
+        for (Shard shard : shards) {
+            if (shard.file.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int replay(File file, boolean versioned) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                long version = versioned ? in.readLong() : 0;
+                Record record = read(in);
+                shardFor(record.getKey()).put(record, version);
+                count++;
+            }
+        } catch (EOFException endOfFile) {
+            // a torn write at the tail is simply dropped
+        }
+        return count;
+    }
+
+    private static void write(DataOutputStream out, Record record) throws IOException {
+        if (record instanceof APRecord) {
+            out.writeByte(TYPE_AP);
+        } else if (record instanceof CPRecord) {
+            out.writeByte(TYPE_CP);
+        } else {
+            out.writeByte(TYPE_RECORD);
+        }
+
+        writeString(out, record.getKey());
+        writeString(out, record.getVal());
+
+        if (record instanceof APRecord) {
+            Long timestamp = ((APRecord) record).getTimestamp();
+            out.writeLong(timestamp != null ? timestamp : Long.MIN_VALUE);
+        } else if (record instanceof CPRecord) {
+            Integer term = ((CPRecord) record).getTerm();
+            Long index = ((CPRecord) record).getLogIndex();
+            out.writeInt(term != null ? term : Integer.MIN_VALUE);
+            out.writeLong(index != null ? index : Long.MIN_VALUE);
+        }
+    }
+
+    private static Record read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        String key = readString(in);
+        String val = readString(in);
+
+        switch (type) {
+            case TYPE_AP:
+                long timestamp = in.readLong();
+                return new APRecord(key, val, timestamp != Long.MIN_VALUE ? timestamp : null);
+            case TYPE_CP:
+                int term = in.readInt();
+                long index = in.readLong();
+                return new CPRecord(key, val, term != Integer.MIN_VALUE ? term : null, index != Long.MIN_VALUE ? index : null);
+            default:
+                return new Record(key, val);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<String, Entry> records = new HashMap<>();
+        final File file;
+        final AtomicLong version;
+        DataOutputStream out;
+
+        Shard(File file, AtomicLong version) {
+            this.file = file;
+            this.version = version;
+        }
+
+        /**
+         * @return the version of the write, the record is visible only
+         * once put with it after the flush
+         */
+        long append(Record record) throws IOException {
+            long next = version.incrementAndGet();
+            out.writeLong(next);
+            write(out, record);
+            return next;
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        void put(Record record, long version) {
+            Entry current = records.get(record.getKey());
+            if (current == null || current.version <= version) {
+                records.put(record.getKey(), new Entry(record, version));
+            }
+            this.version.accumulateAndGet(version, Math::max);
+        }
+
+        /**
+         * Rewrites the durability file with the live records only.
+         */
+        void compact() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+
+            File compacted = new File(file.getPath() + ".tmp");
+            try (DataOutputStream tmp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)))) {
+                for (Entry entry : records.values()) {
+                    tmp.writeLong(entry.version);
+                    write(tmp, entry.record);
+                }
+            }
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+    }
+
+    private static class Entry {
+        final Record record;
+        final long version;
+
+        Entry(Record record, long version) {
+            this.record = record;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.magemello.sys.node.repository;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.magemello.sys.node.metrics.LatencyHistogram;
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.netty.util.concurrent.FastThreadLocalThread;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Where the storage calls made from reactive callbacks run: a fixed pool
+ * of storage.threads with a queue of at most storage.queue-size calls.
+ * The event loops (Netty, Reactor timers) only subscribe and get the
+ * result back; a call that does not fit in the queue fails at once with a
+ * RejectedExecutionException instead of piling up.
+ *
+ * The queue depth, the time spent in the queue and the rejected calls are
+ * exported as storage_* metrics. With storage.detect-blocking, see
+ * {@link BlockingCallDetector}, a storage call made on a non-blocking
+ * thread throws.
+ */
+@Component
+public class StorageExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final Scheduler scheduler;
+
+    private final LatencyHistogram queueWait;
+
+    private final LongAdder rejected;
+
+    @Autowired
+    public StorageExecutor(@Value("${storage.threads:8}") Integer threads,
+                           @Value("${storage.queue-size:1024}") Integer queueSize,
+                           MetricsRegistry metricsRegistry) {
+        AtomicInteger count = new AtomicInteger();
+        this.rejected = metricsRegistry.counter("storage_rejected");
+        this.queueWait = metricsRegistry.latency("storage_queue_wait");
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "storage-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Storage queue full (" + queueSize + " calls)");
+                });
+        this.scheduler = Schedulers.fromExecutorService(executor);
+        metricsRegistry.gauge("storage_queue_depth", () -> executor.getQueue().size());
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.dispose();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the result of the call, computed on a storage thread when
+     * subscribed; empty if the call returns null
+     */
+    public <T> Mono<T> call(Callable<T> work) {
+        return Mono.defer(() -> {
+            long queued = System.nanoTime();
+            return Mono.fromCallable(() -> {
+                queueWait.record(System.nanoTime() - queued);
+                return work.call();
+            }).subscribeOn(scheduler);
+        });
+    }
+
+    public Mono<Void> run(Runnable work) {
+        return call(() -> {
+            work.run();
+            return null;
+        }).then();
+    }
+
+    /**
+     * For the publishers that read storage on demand (like a paged cursor).
+     */
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return whether the thread runs an event loop: a Netty one (the peer
+     * WebClient and the peer channels) or a Reactor non-blocking one
+     */
+    public static boolean isNonBlocking(Thread thread) {
+        if (thread instanceof FastThreadLocalThread) {
+            return true;
+        }
+        for (Class<?> type = thread.getClass(); type != null; type = type.getSuperclass()) {
+            for (Class<?> marker : type.getInterfaces()) {
+                if (marker.getName().equals("reactor.core.scheduler.NonBlocking")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static void checkBlockingAllowed(String call) {
+        Thread thread = Thread.currentThread();
+        if (isNonBlocking(thread)) {
+            throw new IllegalStateException("Blocking storage call " + call + " on non-blocking thread " + thread.getName());
+        }
+    }
+}
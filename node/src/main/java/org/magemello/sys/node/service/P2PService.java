@@ -1,12 +1,34 @@
 package org.magemello.sys.node.service;
 
+import org.magemello.sys.node.util.Hashing;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
+/**
+ * The peers of this node and, when replication.factor is lower than the
+ * number of nodes, which of them own a key.
+ *
+ * Ownership is a consistent-hash ring: every node (self included) is placed
+ * on it ring.vnodes times, and the owners of a key are the first
+ * replication.factor distinct nodes met walking clockwise from its hash. A
+ * node joining or leaving moves only the keys next to its points. With
+ * replication.factor=0 (or not lower than the nodes) every node owns every
+ * key, as before.
+ *
+ * AC and AP route each key to its owners only; CP is a single replicated
+ * log and always uses {@link #getPeers()}.
+ */
 @Service
 public class P2PService {
 
@@ -19,21 +41,124 @@ public class P2PService {
     @Value("#{'${peers}'.split(',')}")
     private List<String> peers;
 
+    @Value("${replication.factor:0}")
+    private Integer replicationFactor;
+
+    @Value("${ring.vnodes:128}")
+    private Integer vnodes;
+
+    private volatile NavigableMap<Long, String> ring = Collections.emptyNavigableMap();
+
     @PostConstruct
     public void init() {
         this.peers = peers.stream().filter(port -> !port.equals(serverAddress + ":" + serverPort)).collect(Collectors.toList());
+        buildRing();
     }
 
     public List<String> getPeers() {
         return peers;
     }
 
+    /**
+     * @return the owners of the key other than this node
+     */
+    public List<String> getPeers(String key) {
+        if (isFullyReplicated()) {
+            return peers;
+        }
+        List<String> owners = getOwners(key);
+        owners.remove(getSelf());
+        return owners;
+    }
+
+    /**
+     * @return the nodes other than this one owning at least one of the keys
+     */
+    public List<String> getPeers(Collection<String> keys) {
+        if (isFullyReplicated()) {
+            return peers;
+        }
+        Set<String> owners = new LinkedHashSet<>();
+        for (String key : keys) {
+            owners.addAll(getOwners(key));
+        }
+        owners.remove(getSelf());
+        return new ArrayList<>(owners);
+    }
+
+    /**
+     * @return the replication.factor nodes owning the key, in ring order
+     */
+    public List<String> getOwners(String key) {
+        NavigableMap<Long, String> ring = this.ring;
+        int factor = getReplicationFactor();
+        List<String> owners = new ArrayList<>(factor);
+        if (ring.isEmpty()) {
+            return owners;
+        }
+
+        long hash = Hashing.hash(key);
+        for (String node : ring.tailMap(hash, true).values()) {
+            if (owners.size() == factor) {
+                return owners;
+            }
+            if (!owners.contains(node)) {
+                owners.add(node);
+            }
+        }
+        for (String node : ring.headMap(hash, false).values()) {
+            if (owners.size() == factor) {
+                return owners;
+            }
+            if (!owners.contains(node)) {
+                owners.add(node);
+            }
+        }
+        return owners;
+    }
+
+    public boolean isOwner(String key) {
+        return isFullyReplicated() || getOwners(key).contains(getSelf());
+    }
+
+    public int getReplicationFactor() {
+        int nodes = peers.size() + 1;
+        return replicationFactor <= 0 ? nodes : Math.min(replicationFactor, nodes);
+    }
+
+    public String getPeer(Integer port) {
+        String suffix = ":" + port;
+        return peers.stream().filter(peer -> peer.endsWith(suffix)).findFirst().orElse(null);
+    }
+
+    public String getSelf() {
+        return serverAddress + ":" + serverPort;
+    }
+
     public void addPeer(String peer) {
         peers.add(peer);
+        buildRing();
     }
 
     public void clear() {
         peers.clear();
+        buildRing();
+    }
+
+    private boolean isFullyReplicated() {
+        return getReplicationFactor() > peers.size();
     }
 
+    private void buildRing() {
+        List<String> nodes = new ArrayList<>(peers);
+        nodes.add(getSelf());
+
+        NavigableMap<Long, String> ring = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < vnodes; i++) {
+                ring.put(Hashing.hash(node + "#" + i), node);
+            }
+        }
+        this.ring = ring;
+    }
 }
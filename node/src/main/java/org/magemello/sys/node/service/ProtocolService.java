@@ -4,6 +4,9 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.Map;
+
 @Service
 @SuppressWarnings("rawtypes")
 public interface ProtocolService {
@@ -12,6 +15,10 @@ public interface ProtocolService {
 
     Mono<ResponseEntity> set(String key, String value) throws Exception;
 
+    Mono<ResponseEntity> getAll(List<String> keys);
+
+    Mono<ResponseEntity> setAll(Map<String, String> values) throws Exception;
+
     void onCleanup();
 
     String protocolName();
@@ -2,9 +2,10 @@ package org.magemello.sys.node.service;
 
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
 
 import javax.annotation.PostConstruct;
 
@@ -12,10 +13,11 @@ import javax.annotation.PostConstruct;
 import org.magemello.sys.node.protocols.ac.service.ACProtocolService;
 import org.magemello.sys.node.protocols.ap.service.APProtocolService;
 import org.magemello.sys.node.protocols.cp.service.CPProtocolService;
-import org.magemello.sys.node.repository.RecordRepository;
+import org.magemello.sys.node.repository.RecordStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -43,7 +45,10 @@ public class ProtocolServiceProxy implements ProtocolService {
     CPProtocolService protocolCP;
 
     @Autowired
-    RecordRepository recordRepository;
+    RecordStore recordStore;
+
+    @Value("${protocol.file:${user.home}/.sysdist}")
+    String protocolFile;
 
     ProtocolService current;
 
@@ -94,6 +99,16 @@ public class ProtocolServiceProxy implements ProtocolService {
         return current.set(key, value);
     }
 
+    @Override
+    public Mono<ResponseEntity> getAll(List<String> keys) {
+        return current.getAll(keys);
+    }
+
+    @Override
+    public Mono<ResponseEntity> setAll(Map<String, String> values) throws Exception {
+        return current.setAll(values);
+    }
+
     @Override
     public void onCleanup() {
         current.onCleanup();
@@ -112,11 +127,9 @@ public class ProtocolServiceProxy implements ProtocolService {
     public void stop() {
     }
 
-    private static final Path CONFIG_FILE = Paths.get(System.getProperty("user.home"), ".sysdist");
-
     private String loadCurrentProtocol(String defval) {
         try {
-            return new String(Files.readAllBytes(CONFIG_FILE));
+            return new String(Files.readAllBytes(Paths.get(protocolFile)));
         } catch (Exception ignore) {
             ignore.printStackTrace();
             return defval;
@@ -125,7 +138,7 @@ public class ProtocolServiceProxy implements ProtocolService {
 
     private void storeCurrentProtocol(String protocol) {
         try {
-            Files.write(CONFIG_FILE, protocol.getBytes(), StandardOpenOption.CREATE);
+            Files.write(Paths.get(protocolFile), protocol.getBytes(), StandardOpenOption.CREATE);
         } catch (IOException ignore) {
             ignore.printStackTrace();
         }
@@ -0,0 +1,143 @@
+package org.magemello.sys.node.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.magemello.sys.node.metrics.LatencyHistogram;
+import org.magemello.sys.node.metrics.MetricsRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Ranks the peers by expected response time, for the requests that need
+ * only some of them.
+ *
+ * The estimate of a peer is an exponentially weighted moving average of its
+ * latency, multiplied by the requests still outstanding to it. Failures
+ * count as a full client timeout, and the average decays while the peer is
+ * not used, so a peer that was slow or down is eventually tried again.
+ */
+@Service
+public class ReplicaSelector {
+
+    @Value("${replica.ewma.alpha:0.3}")
+    private Double alpha;
+
+    @Value("${replica.ewma.half-life:10000}")
+    private Long halfLife;
+
+    @Value("${client.timeout:3000}")
+    private Long failurePenalty;
+
+    @Value("${replica.speculative.default-delay:100}")
+    private Long defaultSpeculativeDelay;
+
+    @Value("${replica.speculative.min-delay:5}")
+    private Long minSpeculativeDelay;
+
+    @Value("${replica.speculative.min-samples:20}")
+    private Long minSamples;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    private final Map<String, PeerStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @return the peers, fastest first; peers never measured come first so
+     * that they get measured
+     */
+    public List<String> rank(Collection<String> peers) {
+        List<String> ranked = new ArrayList<>(peers);
+        // equal scores keep a random order, spreading the load
+        Collections.shuffle(ranked, ThreadLocalRandom.current());
+
+        long now = System.nanoTime();
+        Map<String, Double> scores = new HashMap<>();
+        for (String peer : ranked) {
+            scores.put(peer, stats(peer).score(now));
+        }
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        return ranked;
+    }
+
+    /**
+     * Counts the call as outstanding until it terminates and feeds its
+     * latency into the estimate of the peer.
+     */
+    public Mono<ClientResponse> tracked(String peer, Mono<ClientResponse> call) {
+        PeerStats peerStats = stats(peer);
+        long penalty = TimeUnit.MILLISECONDS.toNanos(failurePenalty);
+
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            peerStats.outstanding.incrementAndGet();
+            return call
+                    .doOnNext(response -> peerStats.observe(response.statusCode().isError() ? penalty : System.nanoTime() - start))
+                    .doOnCancel(() -> peerStats.observe(penalty))
+                    .doFinally(signal -> peerStats.outstanding.decrementAndGet());
+        });
+    }
+
+    /**
+     * @return how long to wait for the peer before asking another one: the
+     * p99 of the given latency, or a default until enough samples are in
+     */
+    public long speculativeDelay(String name, String peer) {
+        LatencyHistogram latency = metricsRegistry.latency(name, peer);
+        if (latency.getCount() < minSamples) {
+            return defaultSpeculativeDelay;
+        }
+        long p99 = TimeUnit.NANOSECONDS.toMillis(latency.percentiles(0.99)[0]);
+        return Math.max(minSpeculativeDelay, p99);
+    }
+
+    private PeerStats stats(String peer) {
+        PeerStats peerStats = stats.get(peer);
+        if (peerStats == null) {
+            stats.putIfAbsent(peer, new PeerStats());
+            peerStats = stats.get(peer);
+        }
+        return peerStats;
+    }
+
+    private class PeerStats {
+        final AtomicInteger outstanding = new AtomicInteger();
+        private double ewma;
+        private long lastSample;
+        private boolean sampled;
+
+        synchronized void observe(long nanos) {
+            long now = System.nanoTime();
+            double current = estimate(now);
+            ewma = sampled ? current + alpha * (nanos - current) : nanos;
+            lastSample = now;
+            sampled = true;
+        }
+
+        synchronized double score(long now) {
+            return estimate(now) * (outstanding.get() + 1);
+        }
+
+        private double estimate(long now) {
+            if (!sampled) {
+                return 0;
+            }
+            double idle = Math.max(0, now - lastSample) / (halfLife * 1e6);
+            return ewma * Math.pow(0.5, idle);
+        }
+    }
+}
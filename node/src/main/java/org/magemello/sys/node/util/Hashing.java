@@ -0,0 +1,44 @@
+package org.magemello.sys.node.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 64-bit FNV-1a, finished with a murmur mix so that similar inputs spread
+ * over the whole range. One implementation for the placement of the keys
+ * on the ring and the record digests of the replicas.
+ */
+public final class Hashing {
+
+    public static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    public static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashing() {
+    }
+
+    public static long hash(String value) {
+        return mix(fnv(value.getBytes(StandardCharsets.UTF_8), FNV_OFFSET));
+    }
+
+    /**
+     * FNV-1a of the bytes, continuing from hash.
+     */
+    public static long fnv(byte[] bytes, long hash) {
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Final avalanche, so that XOR of related hashes does not cancel out.
+     */
+    public static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,492 @@
+package org.magemello.sys.node.wal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable log of the proposals a participant accepted and of the decisions
+ * (commit or rollback) it received for them.
+ *
+ * The log is made of fixed size segments, memory mapped. Appends only write
+ * in the mapped buffer; a background thread forces the dirty segments to
+ * disk and every caller waits until its own entry is durable, so concurrent
+ * appends share the same fsync (group commit).
+ *
+ * When the oldest segment holds no pending proposal anymore it is recycled
+ * as a new segment, and at startup the segments are replayed in order to
+ * rebuild the pending proposals.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final int MAGIC = 0x5157414c;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_OVERHEAD = 8;
+
+    private static final byte PROPOSE = 1;
+    private static final byte COMMIT = 2;
+    private static final byte ROLLBACK = 3;
+
+    private final File dir;
+    private final int segmentSize;
+    private final int recycledSegments;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Deque<Segment> free = new ArrayDeque<>();
+    private final Set<Segment> dirty = new LinkedHashSet<>();
+    private final Map<String, Segment> proposals = new HashMap<>();
+
+    private Segment active;
+    private long nextSequence;
+
+    private long appendedLsn;
+    private long durableLsn;
+    private volatile boolean running;
+    private Thread syncer;
+
+    public WriteAheadLog(File dir, int segmentSize, int recycledSegments) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.recycledSegments = recycledSegments;
+    }
+
+    /**
+     * Opens the log, replaying the existing segments. They are mapped at
+     * their own size: a changed segment size applies to the new segments
+     * only.
+     *
+     * @return the proposals still pending, in the order they were accepted
+     */
+    public synchronized Map<String, Transaction> open() throws IOException {
+        Files.createDirectories(dir.toPath());
+
+        List<Segment> found = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.startsWith("wal-") && name.endsWith(".log"));
+        if (files != null) {
+            for (File file : files) {
+                Segment segment = Segment.map(file);
+                if (segment != null) {
+                    found.add(segment);
+                } else {
+                    Files.delete(file.toPath());
+                }
+            }
+        }
+        found.sort((s1, s2) -> Long.compare(s1.sequence, s2.sequence));
+
+        Map<String, Transaction> pending = new LinkedHashMap<>();
+        for (Segment segment : found) {
+            replay(segment, pending);
+            segments.addLast(segment);
+            nextSequence = segment.sequence + 1;
+        }
+
+        if (segments.isEmpty()) {
+            segments.addLast(newSegment());
+        }
+        active = segments.peekLast();
+        recycle();
+
+        running = true;
+        syncer = new Thread(this::syncLoop, "wal-sync-" + dir.getName());
+        syncer.setDaemon(true);
+        syncer.start();
+
+        log.info("\nWrite-ahead log {} open, {} segments, {} pending proposals\n", dir, segments.size(), pending.size());
+        return pending;
+    }
+
+    public void propose(Transaction transaction) {
+        awaitDurable(append(PROPOSE, transaction.get_ID(), transaction.getKey(), transaction.getValue()));
+    }
+
+    public void proposeAll(List<Transaction> transactions) {
+        long lsn = 0;
+        for (Transaction transaction : transactions) {
+            lsn = append(PROPOSE, transaction.get_ID(), transaction.getKey(), transaction.getValue());
+        }
+        awaitDurable(lsn);
+    }
+
+    public void commit(String id) {
+        awaitDurable(append(COMMIT, id, null, null));
+    }
+
+    public void commitAll(List<String> ids) {
+        long lsn = 0;
+        for (String id : ids) {
+            lsn = append(COMMIT, id, null, null);
+        }
+        awaitDurable(lsn);
+    }
+
+    public void rollback(String id) {
+        awaitDurable(append(ROLLBACK, id, null, null));
+    }
+
+    /**
+     * Forgets everything: all the segments are emptied.
+     */
+    public synchronized void reset() {
+        for (Segment segment : segments) {
+            segment.reset(segment.sequence);
+            dirty.add(segment);
+        }
+        while (segments.size() > 1) {
+            release(segments.pollFirst());
+        }
+        active = segments.peekLast();
+        proposals.clear();
+        awaitDurable(++appendedLsn);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        if (syncer == null) {
+            return;
+        }
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    private synchronized long append(byte type, String id, String key, String value) {
+        byte[] body = encode(type, id, key, value);
+        if (!active.fits(body.length)) {
+            roll(body.length);
+        }
+        active.write(body);
+        dirty.add(active);
+
+        if (type == PROPOSE) {
+            proposals.put(id, active);
+            active.live++;
+        } else {
+            Segment segment = proposals.remove(id);
+            if (segment != null) {
+                segment.live--;
+                recycle();
+            }
+        }
+
+        return ++appendedLsn;
+    }
+
+    private synchronized void awaitDurable(long lsn) {
+        notifyAll();
+        while (durableLsn < lsn) {
+            if (!running) {
+                throw new IllegalStateException("Write-ahead log " + dir + " is closed");
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while syncing " + dir, e);
+            }
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            long target;
+            List<Segment> toForce;
+            synchronized (this) {
+                while (running && appendedLsn == durableLsn) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                target = appendedLsn;
+                toForce = new ArrayList<>(dirty);
+                dirty.clear();
+            }
+
+            // everything appended up to target is in one of these buffers
+            for (Segment segment : toForce) {
+                segment.buffer.force();
+            }
+
+            synchronized (this) {
+                durableLsn = Math.max(durableLsn, target);
+                notifyAll();
+            }
+        }
+    }
+
+    private void roll(int length) {
+        if (HEADER_SIZE + ENTRY_OVERHEAD + length + 4 > segmentSize) {
+            throw new IllegalArgumentException("Entry of " + length + " bytes does not fit in a segment of " + segmentSize);
+        }
+
+        Segment next = free.pollFirst();
+        try {
+            if (next != null) {
+                next.renameTo(segmentFile(nextSequence), nextSequence);
+            } else {
+                next = newSegment();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        nextSequence++;
+
+        segments.addLast(next);
+        active = next;
+        log.debug("\nWrite-ahead log {} rolled to segment {}", dir, active.sequence);
+    }
+
+    /**
+     * Only the oldest segment can go: a newer one may hold the decisions of
+     * proposals written in an older one.
+     */
+    private void recycle() {
+        while (segments.size() > 1 && segments.peekFirst().live == 0) {
+            release(segments.pollFirst());
+        }
+    }
+
+    private void release(Segment segment) {
+        // a released segment must not be replayed anymore
+        segment.invalidate();
+        dirty.add(segment);
+
+        // a segment of an older size is not reused
+        if (free.size() < recycledSegments && segment.buffer.capacity() == segmentSize) {
+            free.addLast(segment);
+        } else {
+            try {
+                Files.deleteIfExists(segment.file.toPath());
+            } catch (IOException e) {
+                log.warn("\nCannot delete segment {}", segment.file, e);
+            }
+        }
+    }
+
+    private Segment newSegment() {
+        try {
+            Segment segment = Segment.create(segmentFile(nextSequence), segmentSize, nextSequence);
+            nextSequence++;
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(dir, String.format("wal-%016x.log", sequence));
+    }
+
+    private void replay(Segment segment, Map<String, Transaction> pending) {
+        ByteBuffer reader = segment.writer;
+        reader.position(HEADER_SIZE);
+        while (reader.remaining() >= ENTRY_OVERHEAD) {
+            int start = reader.position();
+            int length = reader.getInt();
+            int crc = reader.getInt();
+            if (length <= 0 || length > reader.remaining()) {
+                reader.position(start);
+                break;
+            }
+
+            byte[] body = new byte[length];
+            reader.get(body);
+            if (checksum(body) != crc) {
+                log.warn("\nTorn entry in segment {} at {}, ignoring the rest", segment.file, start);
+                reader.position(start);
+                break;
+            }
+
+            ByteBuffer entry = ByteBuffer.wrap(body);
+            byte type = entry.get();
+            String id = readString(entry);
+            if (type == PROPOSE) {
+                String key = readString(entry);
+                String value = readString(entry);
+                pending.put(id, new Transaction(id, key, value));
+                proposals.put(id, segment);
+                segment.live++;
+            } else {
+                pending.remove(id);
+                Segment owner = proposals.remove(id);
+                if (owner != null) {
+                    owner.live--;
+                }
+            }
+        }
+        segment.terminate();
+    }
+
+    private static byte[] encode(byte type, String id, String key, String value) {
+        byte[] idBytes = bytes(id);
+        byte[] keyBytes = bytes(key);
+        byte[] valueBytes = bytes(value);
+
+        int size = 1 + 4 + length(idBytes);
+        if (type == PROPOSE) {
+            size += 4 + length(keyBytes) + 4 + length(valueBytes);
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(size);
+        body.put(type);
+        writeBytes(body, idBytes);
+        if (type == PROPOSE) {
+            writeBytes(body, keyBytes);
+            writeBytes(body, valueBytes);
+        }
+        return body.array();
+    }
+
+    private static byte[] bytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes != null ? bytes.length : 0;
+    }
+
+    private static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    private static class Segment {
+
+        File file;
+        long sequence;
+        final MappedByteBuffer buffer;
+        final ByteBuffer writer;
+        int live;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+        }
+
+        static Segment create(File file, int size, long sequence) throws IOException {
+            Segment segment = new Segment(file, mapFile(file, size));
+            segment.reset(sequence);
+            return segment;
+        }
+
+        static Segment map(File file) throws IOException {
+            long size = file.length();
+            if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            Segment segment = new Segment(file, mapFile(file, (int) size));
+            if (segment.writer.getInt(0) != MAGIC) {
+                return null;
+            }
+            segment.sequence = segment.writer.getLong(4);
+            return segment;
+        }
+
+        private static MappedByteBuffer mapFile(File file, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        void reset(long sequence) {
+            this.sequence = sequence;
+            this.live = 0;
+            writer.clear();
+            writer.putInt(MAGIC);
+            writer.putLong(sequence);
+            terminate();
+        }
+
+        void renameTo(File target, long sequence) throws IOException {
+            Path moved = Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            this.file = moved.toFile();
+            reset(sequence);
+        }
+
+        boolean fits(int length) {
+            return writer.remaining() >= ENTRY_OVERHEAD + length + 4;
+        }
+
+        void write(byte[] body) {
+            writer.putInt(body.length);
+            writer.putInt(checksum(body));
+            writer.put(body);
+            terminate();
+        }
+
+        void invalidate() {
+            writer.putInt(0, 0);
+        }
+
+        /**
+         * Marks the end of the valid entries, so that a recycled segment
+         * never replays what it contained before.
+         */
+        void terminate() {
+            if (writer.remaining() >= 4) {
+                writer.putInt(writer.position(), 0);
+            }
+        }
+    }
+}
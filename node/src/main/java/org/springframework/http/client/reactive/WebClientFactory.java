@@ -3,19 +3,26 @@ package org.springframework.http.client.reactive;
 import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
 import reactor.core.publisher.Mono;
 import reactor.ipc.netty.http.client.HttpClient;
 import reactor.ipc.netty.http.client.HttpClientOptions;
 import reactor.ipc.netty.http.client.HttpClientRequest;
 import reactor.ipc.netty.http.client.HttpClientResponse;
 import reactor.ipc.netty.options.NettyOptions;
+import reactor.ipc.netty.resources.PoolResources;
 
 /**
  * Please do not look at this horrible code. It's a complicated piece
@@ -28,14 +35,27 @@ import reactor.ipc.netty.options.NettyOptions;
  */
 public class WebClientFactory implements ClientHttpConnector {
 
+    private static final String IDLE_HANDLER = "sysIdleEviction";
+
     private static int count = 0;
     private final HttpClient httpClient;
+    private final PoolResources poolResources;
 
     public WebClientFactory(Consumer<? super HttpClientOptions.Builder> clientOptions) {
+        this(clientOptions, null);
+    }
+
+    private WebClientFactory(Consumer<? super HttpClientOptions.Builder> clientOptions, PoolResources poolResources) {
         this.httpClient = HttpClient.create(clientOptions);
+        this.poolResources = poolResources;
         fixLocalAddress(System.getProperty("server.address"));
     }
 
+    public void dispose() {
+        if (poolResources != null)
+            poolResources.dispose();
+    }
+
     private void fixLocalAddress(String localAddress) {
         if (count++ == 0)
             System.err.println("Forced local address: "+localAddress);
@@ -85,11 +105,50 @@ public class WebClientFactory implements ClientHttpConnector {
         return new ReactorClientHttpResponse(response);
     }
     
-    public static WebClient newWebClient() {
-        WebClientFactory connector = new WebClientFactory(opt -> {
-            opt.disablePool();
-        });
+    /**
+     * Builds the long-lived connector shared by all the protocol clients.
+     * Netty keeps one fixed pool per remote address, so every peer gets its
+     * own set of keep-alive connections, all bound to the forced local address
+     * (the freeze scripts drop them as well). Connections idle for longer than
+     * idleTimeout msec are closed and dropped from the pool.
+     */
+    public static WebClientFactory newPooledConnector(int poolSize, long acquireTimeout, long idleTimeout) {
+        PoolResources pool = PoolResources.fixed("sysdist-peers", poolSize, acquireTimeout);
+        return new WebClientFactory(opt -> {
+            opt.poolResources(pool);
+            opt.option(ChannelOption.SO_KEEPALIVE, true);
+            if (idleTimeout > 0) {
+                opt.afterChannelInit(channel -> {
+                    if (channel.pipeline().get(IDLE_HANDLER) == null)
+                        channel.pipeline().addFirst(IDLE_HANDLER, new IdleEvictionHandler(idleTimeout));
+                });
+            }
+        }, pool);
+    }
 
+    public static WebClient newWebClient(WebClientFactory connector) {
         return WebClient.builder().clientConnector(connector).build();
     }
+
+    /**
+     * Reads the whole body of a response, so that its pooled connection is
+     * released, and returns an equivalent response holding the body text.
+     */
+    public static Mono<ClientResponse> drained(ClientResponse response) {
+        return response.bodyToMono(String.class)
+                .defaultIfEmpty("")
+                .map(body -> ClientResponse.from(response).body(body).build());
+    }
+
+    private static class IdleEvictionHandler extends IdleStateHandler {
+
+        IdleEvictionHandler(long idleTimeout) {
+            super(0, 0, idleTimeout, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evt) {
+            ctx.close();
+        }
+    }
 }
@@ -0,0 +1,174 @@
+package org.magemello.sys.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.magemello.sys.node.repository.BlockingCallDetector;
+import org.magemello.sys.node.service.ProtocolServiceProxy;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.SocketUtils;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Two nodes in one JVM with the blocking call detector on. They listen on
+ * free ports and keep their database, WAL, snapshots and selected protocol
+ * in a temporary directory, so nothing of a local cluster is touched.
+ */
+@SuppressWarnings("rawtypes")
+public class NodePairIntegrationTests {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+	private static final int PORT_OFFSET = 1000;
+
+	private static Path dir;
+
+	private static EventLoopGroup eventLoop;
+
+	private static ConfigurableApplicationContext first;
+
+	private static ConfigurableApplicationContext second;
+
+	@BeforeClass
+	public static void startNodes() throws IOException {
+		dir = Files.createTempDirectory("sysdist-test");
+		eventLoop = new NioEventLoopGroup(1);
+
+		int firstPort = freePort();
+		int secondPort = freePort();
+		String peers = "127.0.0.1:" + firstPort + ",127.0.0.1:" + secondPort;
+		first = start(firstPort, peers);
+		second = start(secondPort, peers);
+	}
+
+	@AfterClass
+	public static void stopNodes() throws IOException {
+		if (second != null) {
+			second.close();
+		}
+		if (first != null) {
+			first.close();
+		}
+		eventLoop.shutdownGracefully();
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	/**
+	 * Writes and reads of every protocol, subscribed on a Netty event loop
+	 * and on the parallel scheduler, go through the peer channels and the
+	 * reactive callbacks of both nodes: none of them may reach the storage
+	 * on a non-blocking thread.
+	 */
+	@Test
+	public void neverCallsTheStorageOnAnEventLoop() {
+		ProtocolServiceProxy protocolService = first.getBean(ProtocolServiceProxy.class);
+		Scheduler netty = Schedulers.fromExecutor(eventLoop);
+		for (String protocol : Arrays.asList(ProtocolServiceProxy.AC, ProtocolServiceProxy.AP, ProtocolServiceProxy.CP)) {
+			protocolService.switchProtocol(protocol);
+			second.getBean(ProtocolServiceProxy.class).switchProtocol(protocol);
+
+			for (int i = 0; i < 10; i++) {
+				Scheduler scheduler = i % 2 == 0 ? netty : Schedulers.parallel();
+				String key = protocol + "-" + i;
+				awaitOk(() -> set(protocolService, key, "value").subscribeOn(scheduler));
+				awaitOk(() -> protocolService.get(key).subscribeOn(scheduler));
+				awaitOk(() -> protocolService.getAll(Collections.singletonList(key)).subscribeOn(scheduler));
+			}
+		}
+
+		assertEquals(0, first.getBean(BlockingCallDetector.class).getDetected());
+		assertEquals(0, second.getBean(BlockingCallDetector.class).getDetected());
+	}
+
+	private static ConfigurableApplicationContext start(int port, String peers) {
+		Path home = dir.resolve(Integer.toString(port));
+		return new SpringApplicationBuilder(NodeApplication.class)
+				.logStartupInfo(false)
+				.run("--server.port=" + port,
+						"--server.address=127.0.0.1",
+						"--peers=" + peers,
+						"--peer.channel.port-offset=" + PORT_OFFSET,
+						"--storage.detect-blocking=true",
+						"--protocol.file=" + home.resolve("protocol"),
+						"--spring.datasource.url=jdbc:h2:mem:sysdist-" + port,
+						"--storage.memory.file=" + home.resolve("records"),
+						"--wal.dir=" + home.resolve("wal"),
+						"--cp.snapshot.dir=" + home.resolve("snapshot"));
+	}
+
+	/**
+	 * A free port whose peer channel port is free as well.
+	 */
+	private static int freePort() {
+		while (true) {
+			int port = SocketUtils.findAvailableTcpPort(20000, 60000 - PORT_OFFSET);
+			try (ServerSocket channel = new ServerSocket(port + PORT_OFFSET)) {
+				return port;
+			} catch (IOException taken) {
+				// try another one
+			}
+		}
+	}
+
+	private static Mono<ResponseEntity> set(ProtocolServiceProxy protocolService, String key, String value) {
+		return Mono.defer(() -> {
+			try {
+				return protocolService.set(key, value);
+			} catch (Exception e) {
+				return Mono.error(e);
+			}
+		});
+	}
+
+	/**
+	 * Retries until the call succeeds, the CP leader may not be elected yet.
+	 * A storage call refused by the detector fails the request, so it ends
+	 * here as well as in the count.
+	 */
+	private static void awaitOk(Supplier<Mono<ResponseEntity>> call) {
+		long deadline = System.nanoTime() + TIMEOUT.toNanos();
+		Object last = null;
+		while (System.nanoTime() < deadline) {
+			try {
+				ResponseEntity response = call.get().block(TIMEOUT);
+				if (response != null && response.getStatusCode().is2xxSuccessful()) {
+					return;
+				}
+				last = response;
+			} catch (RuntimeException e) {
+				last = e;
+			}
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				fail("interrupted");
+			}
+		}
+		fail("no success before the timeout, last answer " + last);
+	}
+}
@@ -0,0 +1,88 @@
+package org.magemello.sys.node.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.magemello.sys.node.protocols.ac.controller.ACProtocolController;
+import org.magemello.sys.node.protocols.ap.controller.APProtocolController;
+import org.magemello.sys.node.protocols.cp.controller.CPProtocolController;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+public class ChannelRoutesTest {
+
+    // the CP reads go back to the user, the history and the snapshots are streamed
+    private static final Set<String> HTTP_ONLY = new HashSet<>(Arrays.asList(
+            "GET /cp/read/{key}",
+            "POST /cp/read/_batch",
+            "GET /cp/history/{index}",
+            "GET /cp/snapshot/{index}/{offset}"));
+
+    @Test
+    public void routesEveryProtocolEndpoint() throws Exception {
+        PeerChannelServer server = new PeerChannelServer();
+        ChannelRoutes channelRoutes = new ChannelRoutes();
+        inject(channelRoutes, "server", server);
+        channelRoutes.init();
+
+        Set<String> mappings = new TreeSet<>();
+        for (Class<?> controller : Arrays.asList(ACProtocolController.class, APProtocolController.class, CPProtocolController.class)) {
+            mappings.addAll(mappings(controller));
+        }
+        mappings.removeAll(HTTP_ONLY);
+
+        assertEquals(mappings, new TreeSet<>(server.getRoutes()));
+    }
+
+    @Test
+    public void matchesTheBatchRoutesFirst() {
+        PeerChannelServer server = new PeerChannelServer();
+        ChannelRoutes channelRoutes = new ChannelRoutes();
+        inject(channelRoutes, "server", server);
+        channelRoutes.init();
+
+        List<String> routes = server.getRoutes();
+        assertTrue(routes.indexOf("POST /ac/commit/_batch") < routes.indexOf("POST /ac/commit/{id}"));
+        assertTrue(routes.indexOf("POST /ap/rollback/_batch") < routes.indexOf("POST /ap/rollback/{id}"));
+    }
+
+    private static Set<String> mappings(Class<?> controller) {
+        String prefix = "/" + controller.getAnnotation(RequestMapping.class).value()[0] + "/";
+        Set<String> mappings = new HashSet<>();
+        for (Method method : controller.getDeclaredMethods()) {
+            PostMapping post = method.getAnnotation(PostMapping.class);
+            if (post != null) {
+                mappings.add("POST " + prefix + path(post.value(), post.path()));
+            }
+            GetMapping get = method.getAnnotation(GetMapping.class);
+            if (get != null) {
+                mappings.add("GET " + prefix + path(get.value(), get.path()));
+            }
+        }
+        return mappings;
+    }
+
+    private static String path(String[] value, String[] path) {
+        return value.length > 0 ? value[0] : path[0];
+    }
+
+    private static void inject(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
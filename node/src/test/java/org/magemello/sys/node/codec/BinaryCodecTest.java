@@ -0,0 +1,111 @@
+package org.magemello.sys.node.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.magemello.sys.node.protocols.ac.domain.Decisions;
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.magemello.sys.node.protocols.cp.domain.CPRecord;
+import org.magemello.sys.node.protocols.cp.domain.Update;
+import org.magemello.sys.node.protocols.cp.domain.VoteRequest;
+
+public class BinaryCodecTest {
+
+    @Test
+    public void roundTripsEveryType() {
+        List<Object> values = Arrays.asList(
+                new Transaction("id", "key", "v\u00e4lue"),
+                new APRecord("key", "value", 42L),
+                new CPRecord("key", "value", 3, 1L << 40),
+                new Update(1, 2, 3, 4L, 5, 6L, Arrays.asList(new CPRecord("a", "1", 2, 5L), new CPRecord("b", null, 2, 6L))),
+                new VoteRequest(8080, 7, 123L, 6),
+                new Decisions(Arrays.asList("c1", "c2"), Collections.singletonList("r1"), Collections.singletonList(new Transaction("t", "k", "v"))),
+                Long.MIN_VALUE,
+                -1,
+                "",
+                Arrays.asList("a", 1, 2L, null, Collections.emptyList()));
+
+        for (Object value : values) {
+            Object decoded = roundTrip(value);
+            assertEquals(value.getClass().getSimpleName(), value.toString(), decoded.toString());
+            assertTrue(value.getClass().isInstance(decoded) || value instanceof List && decoded instanceof List);
+        }
+    }
+
+    @Test
+    public void roundTripsNulls() {
+        assertNull(roundTrip(null));
+        assertEquals(new Transaction(null, null, null).toString(), roundTrip(new Transaction(null, null, null)).toString());
+        assertEquals(new APRecord("key", null, null).toString(), roundTrip(new APRecord("key", null, null)).toString());
+        assertEquals(new CPRecord("key", "v", null, null).toString(), roundTrip(new CPRecord("key", "v", null, null)).toString());
+        assertEquals(new Update(1, null, null, null, null, null, null).toString(),
+                roundTrip(new Update(1, null, null, null, null, null, null)).toString());
+        assertEquals(new VoteRequest(8080, 1, null, null).toString(), roundTrip(new VoteRequest(8080, 1, null, null)).toString());
+
+        Decisions decisions = (Decisions) roundTrip(new Decisions(null, null, null));
+        assertTrue(decisions.getCommit().isEmpty() && decisions.getRollback().isEmpty() && decisions.getPropose().isEmpty());
+    }
+
+    @Test
+    public void refusesTruncatedMessages() {
+        byte[] message = BinaryCodec.encode(new Update(1, 2, 3, 4L, 5, 6L, Arrays.asList(new CPRecord("a", "1", 2, 5L))));
+        for (int length = 0; length < message.length; length++) {
+            assertRefused(Arrays.copyOf(message, length));
+        }
+    }
+
+    @Test
+    public void refusesCorruptedMessages() {
+        byte[] message = BinaryCodec.encode(new Transaction("id", "key", "value"));
+
+        byte[] version = message.clone();
+        version[0] = 99;
+        assertRefused(version);
+
+        byte[] tag = message.clone();
+        tag[1] = 99;
+        assertRefused(tag);
+
+        // a string length pointing past the end of the message
+        byte[] size = message.clone();
+        size[2] = 0x7e;
+        assertRefused(size);
+
+        // a varint that never ends
+        byte[] varint = new byte[12];
+        varint[0] = BinaryCodec.VERSION;
+        varint[1] = 6;
+        Arrays.fill(varint, 2, varint.length, (byte) 0xff);
+        assertRefused(varint);
+
+        // decisions whose ids are not strings
+        assertRefused(BinaryCodec.encode(new Decisions(rawList(1L), null, null)));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<String> rawList(Object element) {
+        return (List) Collections.singletonList(element);
+    }
+
+    private static Object roundTrip(Object value) {
+        return BinaryCodec.decode(ByteBuffer.wrap(BinaryCodec.encode(value)));
+    }
+
+    private static void assertRefused(byte[] message) {
+        try {
+            BinaryCodec.decode(ByteBuffer.wrap(message));
+            fail("decoded " + Arrays.toString(message));
+        } catch (IllegalArgumentException expected) {
+            // refused
+        }
+    }
+}
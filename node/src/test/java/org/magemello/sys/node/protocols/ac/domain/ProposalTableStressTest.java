@@ -0,0 +1,374 @@
+package org.magemello.sys.node.protocols.ac.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class ProposalTableStressTest {
+
+    private static final int THREADS = 8;
+    private static final int KEYS = 16;
+    private static final int ROUNDS = 50_000;
+
+    @Test
+    public void refusesASecondProposalOnTheSameKey() {
+        ProposalTable table = new ProposalTable();
+        Transaction first = new Transaction("key", "one");
+        Transaction second = new Transaction("key", "two");
+
+        assertTrue(table.propose(first));
+        assertFalse(table.propose(second));
+        assertSame(first, table.remove(first.get_ID()));
+        assertTrue(table.propose(second));
+    }
+
+    @Test
+    public void keepsAClaimedKeyUntilReleased() {
+        ProposalTable table = new ProposalTable();
+        Transaction first = new Transaction("key", "one");
+        table.propose(first);
+        ProposalTable.Waiter next = table.enqueue(new Transaction("key", "two"), 2);
+
+        assertSame(first, table.claim(first.get_ID()));
+        assertNull(table.claim(first.get_ID()));
+        assertTrue(table.isProposed("key"));
+        assertFalse(next.getAdmission().isDone());
+
+        table.release(first);
+        assertTrue(next.getAdmission().getNow(false));
+    }
+
+    @Test
+    public void releasesTheKeysOfARefusedBatch() {
+        ProposalTable table = new ProposalTable();
+        Transaction taken = new Transaction("b", "taken");
+        assertTrue(table.propose(taken));
+
+        List<Transaction> batch = Arrays.asList(new Transaction("a", "1"), new Transaction("b", "2"));
+        assertSame(batch.get(1), table.proposeAll(batch));
+        assertFalse(table.isProposed("a"));
+        assertNull(table.get(batch.get(0).get_ID()));
+
+        table.remove(taken.get_ID());
+        assertNull(table.proposeAll(batch));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void admitsQueuedProposalsInOrder() throws Exception {
+        ProposalTable table = new ProposalTable();
+        Transaction first = new Transaction("key", "one");
+        Transaction second = new Transaction("key", "two");
+        Transaction third = new Transaction("key", "three");
+
+        assertTrue(table.enqueue(first, 1).getAdmission().getNow(false));
+        ProposalTable.Waiter waiting = table.enqueue(second, 1);
+        assertFalse(waiting.getAdmission().isDone());
+        assertFalse(table.enqueue(third, 1).getAdmission().getNow(true));
+
+        assertSame(first, table.remove(first.get_ID()));
+        assertTrue(waiting.getAdmission().get(1, TimeUnit.SECONDS));
+        assertSame(second, table.get(second.get_ID()));
+        assertFalse(table.cancel(waiting));
+    }
+
+    @Test
+    public void skipsACancelledProposal() {
+        ProposalTable table = new ProposalTable();
+        Transaction first = new Transaction("key", "one");
+        table.enqueue(first, 2);
+        ProposalTable.Waiter cancelled = table.enqueue(new Transaction("key", "two"), 2);
+        ProposalTable.Waiter next = table.enqueue(new Transaction("key", "three"), 2);
+
+        assertTrue(table.cancel(cancelled));
+        assertFalse(cancelled.getAdmission().getNow(true));
+        assertEquals(1, table.waiting("key"));
+
+        table.remove(first.get_ID());
+        assertTrue(next.getAdmission().getNow(false));
+        assertEquals(0, table.waiting("key"));
+    }
+
+    /**
+     * Two coordinators propose on the same key at two participants, in
+     * opposite orders: each waits for the other until one gives up.
+     */
+    @Test
+    public void breaksACycleByCancelling() {
+        ProposalTable first = new ProposalTable();
+        ProposalTable second = new ProposalTable();
+        Transaction one = new Transaction("key", "one");
+        Transaction two = new Transaction("key", "two");
+
+        assertTrue(first.enqueue(one, 2).getAdmission().getNow(false));
+        assertTrue(second.enqueue(two, 2).getAdmission().getNow(false));
+        ProposalTable.Waiter timesOut = first.enqueue(two, 2);
+        ProposalTable.Waiter waits = second.enqueue(one, 2);
+        assertFalse(timesOut.getAdmission().isDone());
+        assertFalse(waits.getAdmission().isDone());
+
+        // the wait of two times out first, its coordinator rolls it back
+        assertTrue(first.cancel(timesOut));
+        second.remove(two.get_ID());
+        assertTrue(waits.getAdmission().getNow(false));
+    }
+
+    @Test
+    public void admitsABatchOnceAllItsKeysAreFree() {
+        ProposalTable table = new ProposalTable();
+        Transaction owner = new Transaction("b", "owner");
+        table.propose(owner);
+
+        List<Transaction> batch = Arrays.asList(new Transaction("c", "3"), new Transaction("a", "1"), new Transaction("b", "2"));
+        ProposalTable.Batch waiting = table.enqueueAll(batch, 2);
+        assertFalse(waiting.getAdmission().isDone());
+        // taken in key order: a, then waiting for b, c still free
+        assertTrue(table.isProposed("a"));
+        assertFalse(table.isProposed("c"));
+
+        table.remove(owner.get_ID());
+        assertTrue(waiting.getAdmission().getNow(false));
+        assertEquals(3, table.size());
+        assertFalse(table.cancel(waiting));
+    }
+
+    @Test
+    public void releasesTheKeysOfACancelledBatch() {
+        ProposalTable table = new ProposalTable();
+        Transaction owner = new Transaction("b", "owner");
+        table.propose(owner);
+
+        ProposalTable.Batch cancelled = table.enqueueAll(Arrays.asList(new Transaction("a", "1"), new Transaction("b", "2")), 2);
+        assertTrue(table.cancel(cancelled));
+        assertFalse(cancelled.getAdmission().getNow(true));
+        assertFalse(table.isProposed("a"));
+        assertEquals(0, table.waiting("b"));
+
+        table.remove(owner.get_ID());
+        assertTrue(table.isEmpty());
+        assertFalse(table.isProposed("b"));
+    }
+
+    @Test
+    public void refusesABatchWhenAQueueIsFull() {
+        ProposalTable table = new ProposalTable();
+        table.propose(new Transaction("b", "owner"));
+        table.enqueue(new Transaction("b", "waiting"), 1);
+
+        ProposalTable.Batch refused = table.enqueueAll(Arrays.asList(new Transaction("a", "1"), new Transaction("b", "2")), 1);
+        assertFalse(refused.getAdmission().getNow(true));
+        assertFalse(table.isProposed("a"));
+
+        assertFalse(table.enqueueAll(Arrays.asList(new Transaction("c", "1"), new Transaction("c", "2")), 1).getAdmission().getNow(true));
+        assertFalse(table.isProposed("c"));
+    }
+
+    /**
+     * Queued proposals on few keys: every one is eventually admitted, never
+     * two at the same time on a key, and no hand-over is lost.
+     */
+    @Test
+    public void queuedKeysAreHandedOverUnderContention() throws Exception {
+        ProposalTable table = new ProposalTable();
+        AtomicIntegerArray owners = new AtomicIntegerArray(KEYS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ROUNDS / 10; i++) {
+                    int key = random.nextInt(KEYS);
+                    Transaction transaction = new Transaction("key-" + key, Integer.toString(i));
+                    assertTrue(table.enqueue(transaction, THREADS).getAdmission().get(10, TimeUnit.SECONDS));
+
+                    assertEquals(1, owners.incrementAndGet(key));
+                    assertSame(transaction, table.get(transaction.get_ID()));
+                    assertEquals(0, owners.decrementAndGet(key));
+
+                    assertSame(transaction, table.remove(transaction.get_ID()));
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertTrue(table.isEmpty());
+        for (int key = 0; key < KEYS; key++) {
+            assertFalse(table.isProposed("key-" + key));
+            assertEquals(0, table.waiting("key-" + key));
+        }
+    }
+
+    /**
+     * Queued batches over overlapping keys, given in random order: taking
+     * the keys in key order, every one is eventually admitted whole.
+     */
+    @Test
+    public void queuedBatchesNeverWaitOnEachOther() throws Exception {
+        ProposalTable table = new ProposalTable();
+        AtomicIntegerArray owners = new AtomicIntegerArray(KEYS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ROUNDS / 10; i++) {
+                    int first = random.nextInt(KEYS - 2);
+                    List<Transaction> batch = new ArrayList<>(Arrays.asList(
+                            new Transaction("key-" + first, "x"),
+                            new Transaction("key-" + (first + 1), "y"),
+                            new Transaction("key-" + (first + 2), "z")));
+                    Collections.shuffle(batch, random);
+                    assertTrue(table.enqueueAll(batch, THREADS).getAdmission().get(10, TimeUnit.SECONDS));
+
+                    for (int k = first; k < first + 3; k++) {
+                        assertEquals(1, owners.incrementAndGet(k));
+                    }
+                    for (int k = first; k < first + 3; k++) {
+                        assertEquals(0, owners.decrementAndGet(k));
+                    }
+                    for (Transaction transaction : batch) {
+                        assertSame(transaction, table.remove(transaction.get_ID()));
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertTrue(table.isEmpty());
+        for (int key = 0; key < KEYS; key++) {
+            assertEquals(0, table.waiting("key-" + key));
+        }
+    }
+
+    /**
+     * Many threads race on few keys: a key must never have two owners at
+     * the same time and, once everybody is done, the table must be empty.
+     */
+    @Test
+    public void keyHasAtMostOneOwnerUnderContention() throws Exception {
+        ProposalTable table = new ProposalTable();
+        AtomicIntegerArray owners = new AtomicIntegerArray(KEYS);
+        AtomicLong accepted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ROUNDS; i++) {
+                    int key = random.nextInt(KEYS);
+                    Transaction transaction = new Transaction("key-" + key, Integer.toString(i));
+                    if (!table.propose(transaction)) {
+                        continue;
+                    }
+
+                    accepted.incrementAndGet();
+                    assertEquals(1, owners.incrementAndGet(key));
+                    assertSame(transaction, table.get(transaction.get_ID()));
+                    assertEquals(0, owners.decrementAndGet(key));
+
+                    assertSame(transaction, table.remove(transaction.get_ID()));
+                    assertNull(table.remove(transaction.get_ID()));
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertTrue(accepted.get() > 0);
+        assertTrue(table.isEmpty());
+        for (int key = 0; key < KEYS; key++) {
+            assertFalse(table.isProposed("key-" + key));
+        }
+    }
+
+    /**
+     * Concurrent batches over overlapping keys are all or nothing.
+     */
+    @Test
+    public void batchesNeverPartiallyApply() throws Exception {
+        ProposalTable table = new ProposalTable();
+        AtomicIntegerArray owners = new AtomicIntegerArray(KEYS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ROUNDS / 10; i++) {
+                    int first = random.nextInt(KEYS - 2);
+                    List<Transaction> batch = Arrays.asList(
+                            new Transaction("key-" + first, "x"),
+                            new Transaction("key-" + (first + 1), "y"),
+                            new Transaction("key-" + (first + 2), "z"));
+                    if (table.proposeAll(batch) != null) {
+                        continue;
+                    }
+
+                    for (int k = first; k < first + 3; k++) {
+                        assertEquals(1, owners.incrementAndGet(k));
+                    }
+                    for (int k = first; k < first + 3; k++) {
+                        assertEquals(0, owners.decrementAndGet(k));
+                    }
+                    for (Transaction transaction : batch) {
+                        assertSame(transaction, table.remove(transaction.get_ID()));
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertTrue(table.isEmpty());
+    }
+}
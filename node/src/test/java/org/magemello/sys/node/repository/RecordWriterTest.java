@@ -0,0 +1,127 @@
+package org.magemello.sys.node.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magemello.sys.node.domain.Record;
+import org.magemello.sys.node.protocols.ap.domain.APRecord;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+public class RecordWriterTest {
+
+    private final IllegalStateException broken = new IllegalStateException("pool exhausted");
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final AtomicInteger commits = new AtomicInteger();
+
+    private RecordWriter recordWriter;
+
+    @Before
+    public void setUp() {
+        recordWriter = new RecordWriter();
+        inject(recordWriter, "batchSize", 256);
+        inject(recordWriter, "dataSource", dataSource());
+        recordWriter.init();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        recordWriter.close();
+    }
+
+    @Test
+    public void survivesAGroupFailingWithARuntimeException() {
+        failures.set(1);
+        try {
+            recordWriter.write(records());
+            fail("the write should fail");
+        } catch (IllegalStateException e) {
+            assertSame(broken, e);
+        }
+
+        recordWriter.write(records());
+        assertEquals(1, commits.get());
+    }
+
+    @Test
+    public void failsWritesOnceStopped() throws InterruptedException {
+        recordWriter.close();
+        try {
+            recordWriter.write(records());
+            fail("the write should fail");
+        } catch (DataAccessResourceFailureException e) {
+            assertEquals(0, commits.get());
+        }
+    }
+
+    private static List<Record> records() {
+        return Collections.singletonList(new APRecord("key", "value", 1L));
+    }
+
+    private DataSource dataSource() {
+        PreparedStatement statement = proxy(PreparedStatement.class, (method, args) -> null);
+        Connection connection = proxy(Connection.class, (method, args) -> {
+            switch (method) {
+                case "prepareStatement":
+                    return statement;
+                case "commit":
+                    commits.incrementAndGet();
+                    return null;
+                default:
+                    return null;
+            }
+        });
+        return proxy(DataSource.class, (method, args) -> {
+            if (!method.equals("getConnection")) {
+                return null;
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw broken;
+            }
+            return connection;
+        });
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    Object result = handler.invoke(method.getName(), args);
+                    if (result == null && method.getReturnType() == int[].class) {
+                        return new int[0];
+                    }
+                    if (result == null && method.getReturnType().isPrimitive() && method.getReturnType() != void.class) {
+                        return method.getReturnType() == boolean.class ? (Object) false : (Object) 0;
+                    }
+                    return result;
+                }));
+    }
+
+    private static void inject(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
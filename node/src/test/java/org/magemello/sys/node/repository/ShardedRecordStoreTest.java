@@ -0,0 +1,92 @@
+package org.magemello.sys.node.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magemello.sys.node.domain.Record;
+
+public class ShardedRecordStoreTest {
+
+    private File dir;
+
+    private ShardedRecordStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("records-test").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void keepsTheRecordsWhenTheShardsAreFewer() throws IOException {
+        open(8);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(new Record("key-" + i, "value-" + i));
+        }
+        store.saveAll(records);
+
+        open(3);
+        assertEquals(100, store.findAll().size());
+        assertEquals("value-42", store.findByKey("key-42").get().getVal());
+        assertFalse(new File(dir, "records.3").exists());
+    }
+
+    @Test
+    public void keepsTheLastWriteOfAKeyAcrossShardCounts() throws IOException {
+        open(4);
+        store.save(new Record("key", "first"));
+        for (int i = 0; i < 10; i++) {
+            store.save(new Record("other-" + i, "value"));
+        }
+
+        open(5);
+        store.save(new Record("key", "second"));
+
+        open(4);
+        assertEquals("second", store.findByKey("key").get().getVal());
+    }
+
+    private void open(int shards) throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        store = new ShardedRecordStore();
+        inject(store, "shardCount", shards);
+        inject(store, "fileName", new File(dir, "records").getPath());
+        store.init();
+    }
+
+    private static void inject(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.magemello.sys.node.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magemello.sys.node.metrics.MetricsRegistry;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+public class StorageExecutorTest {
+
+    private EventLoopGroup eventLoop;
+
+    private MetricsRegistry metricsRegistry;
+
+    private StorageExecutor storageExecutor;
+
+    @Before
+    public void setUp() {
+        eventLoop = new NioEventLoopGroup(1);
+        metricsRegistry = new MetricsRegistry();
+        storageExecutor = new StorageExecutor(1, 1, metricsRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        storageExecutor.close();
+        eventLoop.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void detectsABlockingCallOnAnEventLoop() throws InterruptedException {
+        try {
+            eventLoop.submit(() -> StorageExecutor.checkBlockingAllowed("save")).get();
+            fail("blocking call not detected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        StorageExecutor.checkBlockingAllowed("save");
+    }
+
+    @Test
+    public void runsTheCallsOfAnEventLoopOffIt() throws Exception {
+        String thread = eventLoop.submit(() -> storageExecutor.call(() -> {
+            StorageExecutor.checkBlockingAllowed("save");
+            return Thread.currentThread().getName();
+        }).toFuture()).get().get(5, TimeUnit.SECONDS);
+
+        assertTrue(thread.startsWith("storage-"));
+        assertFalse(StorageExecutor.isNonBlocking(Thread.currentThread()));
+    }
+
+    @Test
+    public void rejectsTheCallsThatDoNotFitTheQueue() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        storageExecutor.run(() -> {
+            running.countDown();
+            awaitQuietly(release);
+        }).subscribe();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        storageExecutor.run(() -> {
+        }).subscribe();
+        assertEquals(1, storageExecutor.getQueueDepth());
+        assertTrue(metricsRegistry.scrape().contains("sysdist_storage_queue_depth 1"));
+
+        try {
+            storageExecutor.call(() -> "rejected").block();
+            fail("call accepted over the queue size");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, metricsRegistry.counter("storage_rejected").sum());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
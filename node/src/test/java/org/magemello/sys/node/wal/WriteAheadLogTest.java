@@ -0,0 +1,176 @@
+package org.magemello.sys.node.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magemello.sys.node.protocols.ac.domain.Transaction;
+
+public class WriteAheadLogTest {
+
+    private static final int SEGMENT_SIZE = 256;
+
+    // segment header, then per entry its length and crc
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_OVERHEAD = 8;
+
+    private File dir;
+
+    private WriteAheadLog wal;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("wal-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (wal != null) {
+            wal.close();
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void replaysThePendingProposalsInOrder() throws IOException {
+        open();
+        wal.propose(new Transaction("a", "k1", "v1"));
+        wal.proposeAll(Arrays.asList(new Transaction("b", "k2", "v2"), new Transaction("c", "k3", null)));
+        wal.propose(new Transaction("d", "k4", "v4"));
+        wal.commit("a");
+        wal.rollback("c");
+
+        Map<String, Transaction> pending = reopen();
+        assertEquals(Arrays.asList("b", "d"), new ArrayList<>(pending.keySet()));
+        assertEquals("k2", pending.get("b").getKey());
+        assertEquals("v4", pending.get("d").getValue());
+    }
+
+    @Test
+    public void dropsATornTail() throws IOException {
+        open();
+        wal.propose(new Transaction("a", "k1", "v1"));
+        wal.propose(new Transaction("b", "k2", "v2"));
+        wal.close();
+        wal = null;
+
+        // flip a byte in the body of the second entry
+        corrupt(HEADER_SIZE + entrySize("a", "k1", "v1") + ENTRY_OVERHEAD + 2, (byte) 0x7f);
+
+        Map<String, Transaction> pending = reopen();
+        assertEquals(Arrays.asList("a"), new ArrayList<>(pending.keySet()));
+
+        // the log goes on after the torn entry
+        wal.propose(new Transaction("c", "k3", "v3"));
+        assertEquals(Arrays.asList("a", "c"), new ArrayList<>(reopen().keySet()));
+    }
+
+    @Test
+    public void ignoresACorruptedLength() throws IOException {
+        open();
+        wal.propose(new Transaction("a", "k1", "v1"));
+        wal.propose(new Transaction("b", "k2", "v2"));
+        wal.close();
+        wal = null;
+
+        corrupt(HEADER_SIZE + entrySize("a", "k1", "v1"), (byte) 0x7f);
+
+        assertEquals(Arrays.asList("a"), new ArrayList<>(reopen().keySet()));
+    }
+
+    @Test
+    public void rollsAndRecyclesTheSegments() throws IOException {
+        open();
+        List<String> pending = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String id = "id-" + i;
+            wal.propose(new Transaction(id, "key-" + i, "value-" + i));
+            if (i % 50 == 0) {
+                pending.add(id);
+            } else {
+                wal.commit(id);
+            }
+        }
+        assertTrue(segments() > 1);
+
+        pending.forEach(wal::commit);
+        wal.propose(new Transaction("last", "key", "value"));
+        // released segments are kept for reuse up to the limit, the others deleted
+        assertTrue(segments() <= 1 + 2);
+
+        assertEquals(Arrays.asList("last"), new ArrayList<>(reopen().keySet()));
+    }
+
+    @Test
+    public void resetForgetsEverything() throws IOException {
+        open();
+        wal.propose(new Transaction("a", "k1", "v1"));
+        wal.reset();
+
+        assertTrue(reopen().isEmpty());
+    }
+
+    @Test
+    public void replaysTheSegmentsOfAnotherSize() throws IOException {
+        open();
+        wal.propose(new Transaction("a", "k1", "v1"));
+        wal.close();
+
+        wal = new WriteAheadLog(dir, SEGMENT_SIZE * 2, 2);
+        assertEquals(Arrays.asList("a"), new ArrayList<>(wal.open().keySet()));
+        for (int i = 0; i < 20; i++) {
+            wal.propose(new Transaction("id-" + i, "key-" + i, "value-" + i));
+        }
+        wal.close();
+
+        wal = new WriteAheadLog(dir, SEGMENT_SIZE, 2);
+        assertEquals(21, wal.open().size());
+    }
+
+    private void open() throws IOException {
+        wal = new WriteAheadLog(dir, SEGMENT_SIZE, 2);
+        wal.open();
+    }
+
+    private Map<String, Transaction> reopen() throws IOException {
+        if (wal != null) {
+            wal.close();
+        }
+        wal = new WriteAheadLog(dir, SEGMENT_SIZE, 2);
+        return wal.open();
+    }
+
+    private int segments() {
+        return dir.listFiles((d, name) -> name.endsWith(".log")).length;
+    }
+
+    private void corrupt(long position, byte value) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+        assertEquals(1, files.length);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            file.seek(position);
+            file.write(value);
+        }
+    }
+
+    private static int entrySize(String id, String key, String value) {
+        return ENTRY_OVERHEAD + 1 + 4 + id.length() + 4 + key.length() + 4 + value.length();
+    }
+}
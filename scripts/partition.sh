@@ -0,0 +1,12 @@
+#!/usr/bin/env bash
+
+if [ -z "$1" ]
+  then
+    echo "No port specified"
+    exit 1
+fi
+
+iden=$(echo $1-3000 | bc)
+echo Going to partition 127.0.0.$iden
+
+curl -X POST -H "Content-Type: application/json" -d '{"partition":true}' http://127.0.0.$iden:$1/demo/faults 1>/dev/null 2>/dev/null
@@ -9,6 +9,7 @@ if [ -z "$1" ]
 	echo Going to unfreeze 127.0.0.$iden
 
 	sed -i '' '/300'$iden'/d' ~/sub.filter.conf
+	sed -i '' '/400'$iden'/d' ~/sub.filter.conf
 	sed -i '' '/127.0.0.'$iden'/d' ~/sub.filter.conf
 fi
 